@@ -0,0 +1,534 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * LibraryDataGenerator.java
+ *
+ * Writes borrowers.txt, materials.txt and transactions.txt with synthetic but valid data,
+ * for capacity planning and benchmarks. The same seed and options always give the same
+ * library, in any of the on-disk formats:
+ *
+ *  pipe  LibrarySystem.java (escaped '|' records, written with its own RecordCodec)
+ *  v2    LibrarySystem2.java (plus idCounters.txt)
+ *  v3    LibrarySystem3.java, LibrarySystem4.java, LibrarySystem5.java, Refractored Library System
+ *  v6    LibrarySystem6.java
+ *
+ * Usage:
+ *  javac LibrarySystem.java LibraryDataGenerator.java
+ *  java LibraryDataGenerator [--format=pipe|v2|v3|v6] [--out=DIR] [--seed=N]
+ *       [--borrowers=N] [--materials=N] [--transactions=N]
+ *       [--mix=BOOK:55,JOURNAL:20,MAGAZINE:15,THESIS:10] [--zipf=1.0] [--late=0.12]
+ *       [--strikes=88,7,3,2] [--open=0.1] [--copies=1..5] [--end=2025-06-01] [--years=5]
+ *
+ *  --mix       relative weights of the material types
+ *  --zipf      exponent of title popularity: the k-th most popular title is borrowed in
+ *              proportion to 1/k^s (0 = every title equally)
+ *  --late      share of returned loans brought back after the due date
+ *  --strikes   relative weights of borrowers with 0, 1, 2 and 3 strikes
+ *  --open      share of borrowers (below 3 strikes) holding one loan on the end date
+ *  --copies    range of copies per title (raised where more copies are out on loan)
+ *
+ * Transactions are streamed in borrow-date order, so memory depends only on the number of
+ * borrowers and materials: 100M transactions take no more heap than 10k.
+ */
+public class LibraryDataGenerator {
+    private static final int FIRST_BORROWER_ID = 2025000; // the variants' counters start here
+    private static final String[] TYPES = { "BOOK", "JOURNAL", "MAGAZINE", "THESIS" };
+    private static final int[] LOAN_DAYS = { 7, 3, 0, 2 }; // the same in every variant
+
+    public static void main(String[] args) throws IOException {
+        Config c = new Config();
+        Path out = Paths.get(".");
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                System.err.println("Unknown option: " + arg);
+                System.exit(2);
+            }
+            String key = arg.substring(2, eq), value = arg.substring(eq + 1);
+            try {
+                if (key.equals("out")) out = Paths.get(value);
+                else c.set(key, value);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid " + arg + ": " + e.getMessage());
+                System.exit(2);
+            }
+        }
+        long start = System.nanoTime();
+        Result r = generate(c, out);
+        System.out.printf("Wrote %,d borrowers, %,d materials and %,d transactions (%,d open) to %s in %d ms%n",
+                r.borrowers, r.materials, r.transactions, r.openLoans, out.toAbsolutePath().normalize(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // -------------------------
+    // Options
+    // -------------------------
+    static final class Config {
+        String format = "pipe";
+        long seed = 1;
+        int borrowers = 10_000;
+        int materials = 5_000;
+        long transactions = 200_000;
+        double[] typeMix = { 55, 20, 15, 10 };
+        double zipf = 1.0;
+        double late = 0.12;
+        double[] strikes = { 88, 7, 3, 2 };
+        double open = 0.1;
+        int minCopies = 1;
+        int maxCopies = 5;
+        LocalDate end = LocalDate.of(2025, 6, 1);
+        int years = 5;
+
+        // one --key=value option
+        void set(String key, String value) {
+            switch (key) {
+                case "format":
+                    if (!Arrays.asList("pipe", "v2", "v3", "v6").contains(value)) throw new IllegalArgumentException("unknown format");
+                    format = value;
+                    break;
+                case "seed": seed = Long.parseLong(value); break;
+                case "borrowers": borrowers = positive(Integer.parseInt(value)); break;
+                case "materials": materials = positive(Integer.parseInt(value)); break;
+                case "transactions": transactions = Math.max(0, Long.parseLong(value)); break;
+                case "mix": typeMix = mix(value); break;
+                case "zipf": zipf = Math.max(0, Double.parseDouble(value)); break;
+                case "late": late = share(Double.parseDouble(value)); break;
+                case "strikes": strikes = weights(value.split(","), 4); break;
+                case "open": open = share(Double.parseDouble(value)); break;
+                case "copies": {
+                    String[] range = value.split("\\.\\.");
+                    minCopies = positive(Integer.parseInt(range[0]));
+                    maxCopies = range.length > 1 ? Integer.parseInt(range[1]) : minCopies;
+                    if (maxCopies < minCopies) throw new IllegalArgumentException("empty range");
+                    break;
+                }
+                case "end": end = LocalDate.parse(value); break;
+                case "years": years = positive(Integer.parseInt(value)); break;
+                default: throw new IllegalArgumentException("unknown option");
+            }
+        }
+
+        private static int positive(int n) {
+            if (n <= 0) throw new IllegalArgumentException("must be positive");
+            return n;
+        }
+
+        private static double share(double d) {
+            if (d < 0 || d > 1) throw new IllegalArgumentException("must be between 0 and 1");
+            return d;
+        }
+
+        // TYPE:weight pairs; types left out get no materials
+        private static double[] mix(String value) {
+            double[] w = new double[TYPES.length];
+            for (String pair : value.split(",")) {
+                String[] kv = pair.split(":");
+                int type = Arrays.asList(TYPES).indexOf(kv[0].trim().toUpperCase());
+                if (type < 0 || kv.length != 2) throw new IllegalArgumentException("expected TYPE:weight pairs");
+                w[type] = Double.parseDouble(kv[1]);
+            }
+            return weights(w);
+        }
+
+        private static double[] weights(String[] values, int count) {
+            if (values.length != count) throw new IllegalArgumentException("expected " + count + " weights");
+            double[] w = new double[count];
+            for (int i = 0; i < count; i++) w[i] = Double.parseDouble(values[i].trim());
+            return weights(w);
+        }
+
+        private static double[] weights(double[] w) {
+            double sum = 0;
+            for (double x : w) {
+                if (x < 0) throw new IllegalArgumentException("weights must not be negative");
+                sum += x;
+            }
+            if (sum == 0) throw new IllegalArgumentException("weights must not all be zero");
+            return w;
+        }
+    }
+
+    // what was written, for callers that go on to use the files (benchmarks)
+    static final class Result {
+        final int borrowers;
+        final int materials;
+        final long transactions;
+        final int openLoans;
+        final BitSet canBorrow; // borrowers without an open loan and below 3 strikes
+
+        Result(int borrowers, int materials, long transactions, int openLoans, BitSet canBorrow) {
+            this.borrowers = borrowers;
+            this.materials = materials;
+            this.transactions = transactions;
+            this.openLoans = openLoans;
+            this.canBorrow = canBorrow;
+        }
+    }
+
+    // the IDs used for the i-th borrower / material, in every format
+    static String borrowerId(int i) { return Integer.toString(FIRST_BORROWER_ID + i); }
+    static String materialId(int i) { return Integer.toString(i); }
+
+    // -------------------------
+    // Generation
+    //
+    // Each stage draws from its own Random (derived from the seed), so the borrowers do
+    // not change when, say, only the transaction count does. Strikes and open loans are
+    // decided up front (one entry per borrower) because borrowers.txt and materials.txt,
+    // which record them, are written before the history.
+    // -------------------------
+    static Result generate(Config c, Path dir) throws IOException {
+        Random people = stage(c, 1), catalogue = stage(c, 2), holders = stage(c, 3), history = stage(c, 4);
+
+        byte[] strikes = new byte[c.borrowers];
+        BitSet canBorrow = new BitSet(c.borrowers);
+        for (int i = 0; i < c.borrowers; i++) {
+            strikes[i] = (byte) pick(c.strikes, people.nextDouble());
+            if (strikes[i] < 3) canBorrow.set(i);
+        }
+
+        byte[] type = new byte[c.materials];
+        for (int i = 0; i < c.materials; i++) type[i] = (byte) pick(c.typeMix, catalogue.nextDouble());
+        Popularity popularity = new Popularity(c.materials, c.zipf, catalogue);
+
+        // one open loan for a share of the borrowers allowed to borrow; never more than the history size
+        int[] openMaterial = new int[c.borrowers];
+        Arrays.fill(openMaterial, -1);
+        int[] onLoan = new int[c.materials];
+        int openLoans = 0;
+        for (int i = canBorrow.nextSetBit(0); i >= 0; i = canBorrow.nextSetBit(i + 1)) {
+            if (openLoans < c.transactions && holders.nextDouble() < c.open) {
+                openMaterial[i] = popularity.next(holders);
+                onLoan[openMaterial[i]]++;
+                openLoans++;
+                canBorrow.clear(i);
+            }
+        }
+
+        java.nio.file.Files.createDirectories(dir);
+        try (Sink sink = Sink.open(c.format, dir)) {
+            Person p = new Person();
+            for (int i = 0; i < c.borrowers; i++) {
+                p.fill(i, strikes[i], c.end, people);
+                sink.borrower(p);
+            }
+            Title t = new Title();
+            for (int i = 0; i < c.materials; i++) {
+                t.fill(i, type[i], onLoan[i], c, catalogue);
+                sink.material(t);
+            }
+            sink.counters(FIRST_BORROWER_ID + c.borrowers, c.materials);
+
+            // returned loans, borrowed evenly over the years before the last month
+            Loan l = new Loan();
+            long first = c.end.minusYears(c.years).toEpochDay(), span = c.end.toEpochDay() - 30 - first;
+            long returned = c.transactions - openLoans;
+            for (long n = 0; n < returned; n++) {
+                int m = popularity.next(history);
+                int days = LOAN_DAYS[type[m]];
+                LocalDate borrowed = LocalDate.ofEpochDay(first + span * n / returned);
+                LocalDate due = borrowed.plusDays(days);
+                LocalDate back = history.nextDouble() < c.late ? due.plusDays(1 + history.nextInt(14))
+                        : borrowed.plusDays(history.nextInt(days + 1));
+                l.fill(history, history.nextInt(c.borrowers), m, type[m], borrowed, due, back);
+                sink.loan(l);
+            }
+            // then the open loans, borrowed in the last two weeks (so some are overdue)
+            for (int i = 0; i < c.borrowers; i++) {
+                int m = openMaterial[i];
+                if (m < 0) continue;
+                LocalDate borrowed = c.end.minusDays(history.nextInt(14));
+                l.fill(history, i, m, type[m], borrowed, borrowed.plusDays(LOAN_DAYS[type[m]]), null);
+                sink.loan(l);
+            }
+        }
+        return new Result(c.borrowers, c.materials, c.transactions, openLoans, canBorrow);
+    }
+
+    private static Random stage(Config c, int stage) {
+        return new Random(c.seed * 0x9E3779B97F4A7C15L + stage);
+    }
+
+    // index drawn from relative weights, for u in [0, 1)
+    private static int pick(double[] weights, double u) {
+        double sum = 0;
+        for (double w : weights) sum += w;
+        double at = u * sum;
+        for (int i = 0; i < weights.length - 1; i++) {
+            at -= weights[i];
+            if (at < 0) return i;
+        }
+        return weights.length - 1;
+    }
+
+    // Zipf(s) over the materials: the cumulative weights of ranks 1..n, searched with a
+    // uniform draw; ranks map to a seeded shuffle so popular titles are spread over the IDs
+    private static final class Popularity {
+        private final double[] cumulative;
+        private final int[] materialOfRank;
+
+        Popularity(int n, double s, Random rnd) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int k = 0; k < n; k++) cumulative[k] = sum += Math.pow(k + 1, -s);
+            materialOfRank = new int[n];
+            for (int k = 0; k < n; k++) materialOfRank[k] = k;
+            for (int k = n - 1; k > 0; k--) {
+                int j = rnd.nextInt(k + 1), tmp = materialOfRank[k];
+                materialOfRank[k] = materialOfRank[j];
+                materialOfRank[j] = tmp;
+            }
+        }
+
+        int next(Random rnd) {
+            double u = rnd.nextDouble() * cumulative[cumulative.length - 1];
+            int k = Arrays.binarySearch(cumulative, u);
+            return materialOfRank[Math.min(k < 0 ? -k - 1 : k, cumulative.length - 1)];
+        }
+    }
+
+    // -------------------------
+    // Records (one instance each, refilled per row)
+    // -------------------------
+    private static final String[] FIRST = { "Ana", "Ben", "Carla", "Daniel", "Elif", "Femi", "Grace", "Hiro", "Ines", "Jon",
+            "Kofi", "Lena", "Marco", "Nadia", "Oscar", "Priya", "Quinn", "Rosa", "Sven", "Tala", "Uma", "Victor", "Wen", "Yusuf" };
+    private static final String[] LAST = { "Santos", "Reyes", "Cruz", "Bautista", "Garcia", "Mendoza", "Torres", "Lim",
+            "Okafor", "Novak", "Ito", "Haddad", "Larsen", "Moreau", "Silva", "Kowalski", "Nguyen", "Fischer", "Ramos", "Aquino" };
+    private static final String[] STREETS = { "Main St", "Rizal Ave", "Oak Rd", "Mabini St", "College Ave", "Harbor Rd", "Luna St" };
+    private static final String[] WORDS = { "History", "Modern", "Introduction", "Principles", "Ocean", "Data", "Systems",
+            "Philippine", "Economics", "Theory", "Practice", "Journal", "Review", "Quarterly", "Design", "Networks", "Biology",
+            "Chemistry", "Literature", "Law", "Culture", "Energy", "Climate", "Health", "Advanced", "Applied", "Computing",
+            "Language", "Art", "Music", "Urban", "Rural", "Studies", "Methods", "Analysis", "Field", "Guide", "Atlas" };
+    private static final String[] PUBLISHERS = { "Rex Book Store", "Anvil", "Ateneo Press", "UP Press", "Pearson", "Springer",
+            "Elsevier", "Wiley", "Oxford", "Cambridge", "McGraw-Hill", "Norton", "Penguin", "MIT Press", "Sage" };
+
+    static final class Person {
+        int index;
+        String first, middle, last, gender, phone, email, address;
+        LocalDate birthday;
+        int age;
+        int strikes;
+
+        void fill(int i, int strikes, LocalDate today, Random rnd) {
+            index = i;
+            first = FIRST[rnd.nextInt(FIRST.length)];
+            middle = rnd.nextInt(3) == 0 ? "" : FIRST[rnd.nextInt(FIRST.length)];
+            last = LAST[rnd.nextInt(LAST.length)];
+            gender = rnd.nextBoolean() ? "F" : "M";
+            birthday = today.minusYears(17 + rnd.nextInt(50)).minusDays(rnd.nextInt(365));
+            age = java.time.Period.between(birthday, today).getYears();
+            phone = "09" + (100_000_000 + rnd.nextInt(900_000_000));
+            // unique, since LibrarySystem6 refuses a second borrower with the same email
+            email = first.toLowerCase() + "." + last.toLowerCase() + "." + i + "@example.edu";
+            address = (1 + rnd.nextInt(999)) + " " + STREETS[rnd.nextInt(STREETS.length)];
+            this.strikes = strikes;
+        }
+    }
+
+    static final class Title {
+        int index;
+        int type;
+        String title, author, publisher;
+        int year;
+        int total;
+        int onLoan;
+
+        void fill(int i, int type, int onLoan, Config c, Random rnd) {
+            index = i;
+            this.type = type;
+            StringBuilder sb = new StringBuilder();
+            for (int w = 2 + rnd.nextInt(3); w > 0; w--) {
+                if (sb.length() > 0) sb.append(' ');
+                sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+            }
+            title = sb.append(' ').append(i).toString();
+            author = FIRST[rnd.nextInt(FIRST.length)] + " " + LAST[rnd.nextInt(LAST.length)];
+            publisher = PUBLISHERS[rnd.nextInt(PUBLISHERS.length)];
+            year = c.end.getYear() - rnd.nextInt(60);
+            total = Math.max(onLoan, c.minCopies + rnd.nextInt(c.maxCopies - c.minCopies + 1));
+            this.onLoan = onLoan;
+        }
+    }
+
+    static final class Loan {
+        long idHigh, idLow;
+        int borrower;
+        int material;
+        int type;
+        LocalDate borrowed, due, returned; // returned is null for an open loan
+
+        void fill(Random rnd, int borrower, int material, int type, LocalDate borrowed, LocalDate due, LocalDate returned) {
+            // a version 4 UUID, from the seeded stream
+            idHigh = rnd.nextLong() & ~0xF000L | 0x4000L;
+            idLow = rnd.nextLong() & 0x3FFFFFFFFFFFFFFFL | 0x8000000000000000L;
+            this.borrower = borrower;
+            this.material = material;
+            this.type = type;
+            this.borrowed = borrowed;
+            this.due = due;
+            this.returned = returned;
+        }
+    }
+
+    // -------------------------
+    // Formats
+    // -------------------------
+    private abstract static class Sink implements Closeable {
+        abstract void borrower(Person p) throws IOException;
+        abstract void material(Title t) throws IOException;
+        abstract void loan(Loan l) throws IOException;
+        // next borrower / material ID, for the variants that keep their counters in a file
+        void counters(int nextBorrower, int nextMaterial) throws IOException {}
+
+        static Sink open(String format, Path dir) throws IOException {
+            return format.equals("pipe") ? new PipeSink(dir) : new CommaSink(format, dir);
+        }
+    }
+
+    // LibrarySystem.java, through the same writers its save* methods use
+    private static final class PipeSink extends Sink {
+        private final LibrarySystem.RecordCodec.FieldWriter borrowers, materials, transactions;
+
+        PipeSink(Path dir) throws IOException {
+            borrowers = writer(dir, "borrowers.txt");
+            materials = writer(dir, "materials.txt");
+            transactions = writer(dir, "transactions.txt");
+        }
+
+        private static LibrarySystem.RecordCodec.FieldWriter writer(Path dir, String name) throws IOException {
+            LibrarySystem.RecordCodec.FieldWriter w =
+                    new LibrarySystem.RecordCodec.FieldWriter(new FileOutputStream(dir.resolve(name).toFile()));
+            w.formatLine();
+            return w;
+        }
+
+        @Override
+        void borrower(Person p) throws IOException {
+            LibrarySystem.Library.writeBorrower(borrowers, new LibrarySystem.Borrower(borrowerId(p.index), p.first, p.middle,
+                    p.last, p.gender, p.birthday, p.phone, p.email, p.address, p.strikes));
+            borrowers.endRecord();
+        }
+
+        @Override
+        void material(Title t) throws IOException {
+            LibrarySystem.Material m = LibrarySystem.Library.newMaterial(TYPES[t.type], materialId(t.index), t.title,
+                    t.author, t.year, t.publisher, t.total);
+            m.setBorrowedCopies(t.onLoan);
+            LibrarySystem.Library.writeMaterial(materials, m);
+            materials.endRecord();
+        }
+
+        @Override
+        void loan(Loan l) throws IOException {
+            LibrarySystem.Library.writeTransaction(transactions, new LibrarySystem.Transaction(
+                    new UUID(l.idHigh, l.idLow).toString(), borrowerId(l.borrower), materialId(l.material),
+                    l.borrowed, l.due, l.returned != null, l.returned));
+            transactions.endRecord();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                borrowers.close();
+            } finally {
+                try {
+                    materials.close();
+                } finally {
+                    transactions.close();
+                }
+            }
+        }
+    }
+
+    // The comma-separated variants. Their copies column counts the copies on the shelf.
+    //  v2  borrowers: id,first,last,age,email,strikes   materials: id,title,author,year,publisher,copies
+    //      transactions: borrowerId,materialId,borrowDate,returnDate|null
+    //  v3  borrowers: id,first,last,age,email,strikes   materials: id,type,title,author,year,copies
+    //      transactions: borrowerId,materialId,borrowDate,dueDate,returned
+    //  v6  borrowers: id,first,middle,last,age,gender,birthday,contact,email,address,strikes
+    //      materials and transactions as v3 (Thesis is written ThesisBook)
+    private static final class CommaSink extends Sink {
+        private static final String[] V3_TYPES = { "Book", "Journal", "Magazine", "Thesis" };
+        private static final String[] V6_TYPES = { "Book", "Journal", "Magazine", "ThesisBook" };
+
+        private final String format;
+        private final Path dir;
+        private final Writer borrowers, materials, transactions;
+        private final StringBuilder line = new StringBuilder(128);
+
+        CommaSink(String format, Path dir) throws IOException {
+            this.format = format;
+            this.dir = dir;
+            borrowers = writer(dir.resolve("borrowers.txt"));
+            materials = writer(dir.resolve("materials.txt"));
+            transactions = writer(dir.resolve("transactions.txt"));
+        }
+
+        private static Writer writer(Path file) throws IOException {
+            return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file.toFile()), StandardCharsets.UTF_8), 1 << 16);
+        }
+
+        @Override
+        void borrower(Person p) throws IOException {
+            line.setLength(0);
+            line.append(borrowerId(p.index)).append(',').append(p.first).append(',');
+            if (format.equals("v6")) line.append(p.middle).append(',');
+            line.append(p.last).append(',').append(p.age).append(',');
+            if (format.equals("v6")) {
+                line.append(p.gender).append(',').append(p.birthday).append(',').append(p.phone).append(',');
+            }
+            line.append(p.email).append(',');
+            if (format.equals("v6")) line.append(p.address).append(',');
+            write(borrowers, line.append(p.strikes));
+        }
+
+        @Override
+        void material(Title t) throws IOException {
+            line.setLength(0);
+            line.append(materialId(t.index)).append(',');
+            if (!format.equals("v2")) line.append((format.equals("v6") ? V6_TYPES : V3_TYPES)[t.type]).append(',');
+            line.append(t.title).append(',').append(t.author).append(',').append(t.year).append(',');
+            if (format.equals("v2")) line.append(t.publisher).append(',');
+            write(materials, line.append(t.total - t.onLoan));
+        }
+
+        @Override
+        void loan(Loan l) throws IOException {
+            line.setLength(0);
+            line.append(borrowerId(l.borrower)).append(',').append(materialId(l.material)).append(',').append(l.borrowed).append(',');
+            if (format.equals("v2")) line.append(l.returned == null ? "null" : l.returned.toString());
+            else line.append(l.due).append(',').append(l.returned != null);
+            write(transactions, line);
+        }
+
+        @Override
+        void counters(int nextBorrower, int nextMaterial) throws IOException {
+            if (!format.equals("v2")) return;
+            try (Writer w = writer(dir.resolve("idCounters.txt"))) {
+                w.write(nextBorrower + System.lineSeparator() + nextMaterial + System.lineSeparator());
+            }
+        }
+
+        private static void write(Writer w, StringBuilder line) throws IOException {
+            w.append(line).append(System.lineSeparator());
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                borrowers.close();
+            } finally {
+                try {
+                    materials.close();
+                } finally {
+                    transactions.close();
+                }
+            }
+        }
+    }
+}
@@ -1,9 +1,36 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * LibrarySystem.java
@@ -12,12 +39,71 @@ import java.util.regex.Pattern;
  *
  * Usage:
  *  javac LibrarySystem.java
- *  java LibrarySystem
+ *  java LibrarySystem [--journal] [--binary-materials] [--columnar-transactions] [--persist-index] [--metrics]
+ *                     [--jfr[=FILE]] [--cold-after[=DAYS]]
+ *  java LibrarySystem --convert-materials=binary|text
+ *  java LibrarySystem [--journal [--binary-materials]] [--columnar-transactions] --stress-test[=threads]
+ *  java LibrarySystem [--journal] ... --serve[=port]
+ *  java LibrarySystem --load-test[=clients[,seconds]]
+ *  java LibrarySystem [--journal] ... --import-borrowers=FILE | --import-materials=FILE
+ *  java LibrarySystem --dedupe-report[=FILE] | --overdue-sweep[=FILE] | --report[=FROM..TO]
+ *
+ *  --journal           append each change (borrow, return, borrower/material edit) to
+ *                      journal.log instead of rewriting the data files; they are
+ *                      regenerated on checkpoint and exit
+ *  --binary-materials  keep materials in the fixed-width materials.dat and update
+ *                      records in place (materials.txt is regenerated on exit)
+ *  --columnar-transactions
+ *                      hold transactions in primitive column arrays instead of one
+ *                      object per loan (for very large histories)
+ *  --persist-index     keep the material search index in materials.idx (written at
+ *                      checkpoint/exit) instead of rebuilding it at every startup
+ *  --metrics           time every operation (borrow, return, edits, history, load/save);
+ *                      published over JMX as LibrarySystem:type=Operation,name=... and
+ *                      printed by typing "metrics" at the main menu
+ *  --jfr               record a continuous flight recording (JVM events plus library.Borrow,
+ *                      Return, History, Load and Save) to FILE, default library.jfr, on exit;
+ *                      works with every other mode, including --serve and --stress-test
+ *  --cold-after        at startup and every checkpoint, move loans returned more than DAYS
+ *                      (default 365) days ago into compressed segments under
+ *                      transactions.cold/; histories and reports still include them
+ *  --convert-materials convert materials.txt to materials.dat (binary) or back (text)
+ *  --stress-test       run concurrent borrow/return/edit desks against an in-memory
+ *                      library and verify the circulation invariants (exit code 1 on failure);
+ *                      with --journal they write journal.log in the working directory, which
+ *                      must hold no library files, under constant checkpoints, and the library
+ *                      read back from disk must match
+ *  --serve             serve the library as HTTP/JSON on port (default 8080) instead of the
+ *                      menu; see LibraryServer for the endpoints. Use with --journal, so a
+ *                      request appends a record instead of rewriting the data files
+ *  --load-test         drive an in-process server on a loopback port with many concurrent
+ *                      HTTP clients (default 1000 for 10 s) and report throughput/latency
+ *  --import-borrowers / --import-materials
+ *                      add every valid row of a CSV file in one step and exit; rejected
+ *                      rows are written to FILE.rejects.csv (see BulkImport for the columns)
+ *  --dedupe-report     list every pair of borrowers that may be the same person (same
+ *                      birthday, same or similar name) in FILE (default duplicates.csv)
+ *  --overdue-sweep     write today's overdue and due-tomorrow loans to FILE (default
+ *                      overdue.csv), e.g. from a nightly job
+ *  --report            print the circulation report from the running counters; with
+ *                      FROM..TO (yyyy-MM-dd, either end optional) recount the loans
+ *                      borrowed in that range from the full history instead
  *
  * Data files:
  *  - borrowers.txt
  *  - materials.txt
  *  - transactions.txt
+ *  - journal.log (changes since the last checkpoint, replayed at startup)
+ *  - materials.dat (optional fixed-width materials store)
+ *  - library.snap (binary snapshot written at checkpoint/exit; used at startup while
+ *    the three text files are unchanged, otherwise they are parsed)
+ *  - materials.idx (optional search index; used while materials.txt is unchanged)
+ *  - transactions.cold/seg-NNNNNN.lseg (archived returned loans, see --cold-after; read
+ *    whenever present, and never rewritten)
+ *
+ * Text records are '|'-separated; a '|', '\' or line break inside a field is written
+ * as \|, \\ or \n (\r for a carriage return). The three text files start with a
+ * #escaped-fields line; a file without it predates the escaping and is read verbatim.
  *
  * Group name: Fantastic4
  */
@@ -26,30 +112,222 @@ public class LibrarySystem {
     private static final String BORROWERS_FILE = "borrowers.txt";
     private static final String MATERIALS_FILE = "materials.txt";
     private static final String TRANSACTIONS_FILE = "transactions.txt";
+    private static final String JOURNAL_FILE = "journal.log";
+    private static final String MATERIALS_DAT_FILE = "materials.dat";
+    private static final String SNAPSHOT_FILE = "library.snap";
+    private static final String INDEX_FILE = "materials.idx";
+    private static final String COLD_DIR = "transactions.cold";
+
+    // journal records appended before the data files are regenerated automatically
+    private static final int JOURNAL_CHECKPOINT_RECORDS = 50_000;
 
     // Date formatter
     private static final DateTimeFormatter DATE_FMT = DateTimeFormatter.ISO_LOCAL_DATE;
 
     public static void main(String[] args) {
+        List<String> flags = Arrays.asList(args);
+        if (flags.contains("--convert-materials=binary") || flags.contains("--convert-materials=text")) {
+            try {
+                if (flags.contains("--convert-materials=binary")) {
+                    MaterialRecordFile.convertTextToBinary(MATERIALS_FILE, MATERIALS_DAT_FILE);
+                } else {
+                    MaterialRecordFile.convertBinaryToText(MATERIALS_DAT_FILE, MATERIALS_FILE);
+                }
+            } catch (IOException e) {
+                System.err.println("Conversion failed: " + e.getMessage());
+            }
+            return;
+        }
+        for (String flag : flags) {
+            if (flag.equals("--jfr") || flag.startsWith("--jfr=")) {
+                FlightEvents.startRecording(flag.contains("=") ? flag.substring(flag.indexOf('=') + 1) : "library.jfr");
+            }
+        }
+        for (String flag : flags) {
+            if (flag.equals("--stress-test") || flag.startsWith("--stress-test=")) {
+                int threads = flag.contains("=") ? Integer.parseInt(flag.substring(flag.indexOf('=') + 1)) : 32;
+                try {
+                    boolean columnar = flags.contains("--columnar-transactions");
+                    boolean passed = flags.contains("--journal")
+                            ? StressTest.runJournal(threads, 20_000, columnar, flags.contains("--binary-materials"))
+                            : StressTest.run(threads, 20_000, columnar);
+                    if (!passed) System.exit(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+        }
+        for (String flag : flags) {
+            if (flag.equals("--load-test") || flag.startsWith("--load-test=")) {
+                String[] opts = flag.contains("=") ? flag.substring(flag.indexOf('=') + 1).split(",") : new String[0];
+                int clients = opts.length > 0 ? Integer.parseInt(opts[0]) : 1000;
+                int seconds = opts.length > 1 ? Integer.parseInt(opts[1]) : 10;
+                try {
+                    LoadGenerator.run(clients, seconds);
+                } catch (IOException e) {
+                    System.err.println("Load test failed: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+        }
         Library lib = new Library();
-        lib.loadAll(); // load data from files (creates files if absent)
+        if (flags.contains("--journal")) lib.enableJournal();
+        if (flags.contains("--binary-materials")) lib.enableBinaryMaterials();
+        if (flags.contains("--columnar-transactions")) lib.enableColumnarTransactions();
+        if (flags.contains("--persist-index")) lib.enablePersistentIndex();
+        if (flags.contains("--metrics")) lib.enableMetrics();
+        for (String flag : flags) {
+            if (flag.equals("--cold-after") || flag.startsWith("--cold-after=")) {
+                lib.enableColdStorage(flag.contains("=") ? Integer.parseInt(flag.substring(flag.indexOf('=') + 1)) : 365);
+            }
+        }
+        try {
+            lib.loadAll(); // load data from files (creates files if absent)
+        } catch (IOException e) {
+            System.err.println("Cannot start: " + e.getMessage());
+            System.err.println("Repair or move " + JOURNAL_FILE + " aside and start again; no data file was changed.");
+            System.exit(1);
+        }
+        for (String flag : flags) {
+            if (flag.startsWith("--import-borrowers=") || flag.startsWith("--import-materials=")) {
+                String file = flag.substring(flag.indexOf('=') + 1);
+                try {
+                    if (flag.startsWith("--import-borrowers=")) {
+                        BulkImport.importBorrowers(lib, file);
+                    } else {
+                        BulkImport.importMaterials(lib, file);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Import failed: " + e.getMessage());
+                }
+                lib.close();
+                return;
+            }
+            if (flag.equals("--report") || flag.startsWith("--report=")) {
+                if (!flag.contains("=")) {
+                    lib.liveStats().print(lib);
+                } else {
+                    // FROM..TO, either end may be left open
+                    String[] range = flag.substring(flag.indexOf('=') + 1).split("\\.\\.", -1);
+                    LocalDate from = range[0].isEmpty() ? null : LocalDate.parse(range[0]);
+                    LocalDate to = range.length < 2 || range[1].isEmpty() ? null : LocalDate.parse(range[1]);
+                    long start = System.nanoTime();
+                    CirculationStats.Report r = lib.statsFor(from, to);
+                    r.print(lib);
+                    System.out.printf("(recounted in %d ms)%n", (System.nanoTime() - start) / 1_000_000);
+                }
+                lib.close();
+                return;
+            }
+            if (flag.equals("--overdue-sweep") || flag.startsWith("--overdue-sweep=")) {
+                String file = flag.contains("=") ? flag.substring(flag.indexOf('=') + 1) : "overdue.csv";
+                try {
+                    DueDateSweep.report(lib, LocalDate.now(), file);
+                } catch (IOException e) {
+                    System.err.println("Sweep failed: " + e.getMessage());
+                }
+                lib.close();
+                return;
+            }
+            if (flag.equals("--dedupe-report") || flag.startsWith("--dedupe-report=")) {
+                String file = flag.contains("=") ? flag.substring(flag.indexOf('=') + 1) : "duplicates.csv";
+                try {
+                    DuplicateIndex.report(lib, file);
+                } catch (IOException e) {
+                    System.err.println("Report failed: " + e.getMessage());
+                }
+                lib.close();
+                return;
+            }
+            if (flag.equals("--serve") || flag.startsWith("--serve=")) {
+                int port = flag.contains("=") ? Integer.parseInt(flag.substring(flag.indexOf('=') + 1)) : 8080;
+                serve(lib, port);
+                return;
+            }
+        }
         lib.run();     // start interactive menu loop
     }
 
+    // runs until the process is stopped (Ctrl+C), then checkpoints like the menu's Exit
+    private static void serve(Library lib, int port) {
+        try {
+            LibraryServer server = LibraryServer.start(lib, new InetSocketAddress(port), 1024);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                lib.close();
+            }));
+            System.out.println("Serving the library on http://localhost:" + server.port() + "/ (Ctrl+C to stop)");
+        } catch (IOException e) {
+            System.err.println("Failed to start server: " + e.getMessage());
+            lib.close();
+        }
+    }
+
     // -------------------------
     // Library manager class
     // -------------------------
     static class Library {
         private final Scanner scanner = new Scanner(System.in);
-        private final List<Borrower> borrowers = new ArrayList<>();
-        private final List<Material> materials = new ArrayList<>();
-        private final List<Transaction> transactions = new ArrayList<>();
+        // ID <-> surrogate key; edges (prompts, files) use the IDs, indexes use the keys
+        private final IdDictionary borrowerIds = new IdDictionary();
+        private final IdDictionary materialIds = new IdDictionary();
+        private final BorrowerRepository borrowers = new BorrowerRepository(borrowerIds);
+        private final MaterialRepository materials = new MaterialRepository(materialIds);
+        private TransactionStore transactions = new ObjectTransactionStore(borrowerIds, materialIds);
+        // returned loans moved out of the store; its segment list is swapped under the transactions monitor
+        private TransactionArchive archive = new TransactionArchive(COLD_DIR, borrowerIds, materialIds);
+        private int coldAfterDays = -1; // --cold-after: archive loans returned longer ago than this
+        private final ChangeJournal journal = new ChangeJournal(JOURNAL_FILE);
+        private final LibrarySnapshot snapshot =
+                new LibrarySnapshot(SNAPSHOT_FILE, BORROWERS_FILE, MATERIALS_FILE, TRANSACTIONS_FILE);
+        private boolean journalMode = false;
+        private boolean persistent = true; // false: nothing is written (stress test, embedding)
+        // Borrow/return/edit may run on several threads (desks). Lock order, outermost first:
+        // borrower stripe, material stripe, journal, borrowers, materials, transactions.
+        // The stripes keep each operation's check-then-act atomic; the monitors only guard
+        // the shared structures for the duration of one lookup, update or file write.
+        private final StripedLocks locks = new StripedLocks(64);
+        private MaterialRecordFile materialFile; // set in binary materials mode
+        // title/author/publisher search; innermost lock, taken after the material stripe
+        private MaterialSearchIndex searchIndex = new MaterialSearchIndex();
+        private boolean persistIndex = false;
+        private boolean materialsReplayed = false; // the journal changed the catalogue at startup
+        // name/birthday blocks for duplicate checks; innermost lock, like the search index
+        private final DuplicateIndex duplicates = new DuplicateIndex();
+        // running report counters; innermost lock
+        private final CirculationStats stats = new CirculationStats();
+        private OperationMetrics metrics = OperationMetrics.DISABLED;
 
         Library() {
             // nothing
         }
 
-        void loadAll() {
+        void enableJournal() { journalMode = true; }
+
+        void enableBinaryMaterials() { materialFile = new MaterialRecordFile(MATERIALS_DAT_FILE); }
+
+        void disablePersistence() { persistent = false; }
+
+        void enablePersistentIndex() { persistIndex = true; }
+
+        void enableColumnarTransactions() { transactions = new ColumnarTransactionStore(borrowerIds, materialIds); }
+
+        void enableColdStorage(int days) { coldAfterDays = days; }
+
+        // times every operation from here on and publishes the results over JMX
+        void enableMetrics() {
+            metrics = new OperationMetrics(true);
+            metrics.register();
+        }
+
+        // throws only when journal.log cannot be replayed; starting anyway would lose the
+        // changes recorded after the damaged line at the next checkpoint
+        void loadAll() throws IOException {
+            FlightEvents.Load event = new FlightEvents.Load();
+            event.begin();
             try {
                 Files.createFileIfNotExists(BORROWERS_FILE);
                 Files.createFileIfNotExists(MATERIALS_FILE);
@@ -58,9 +336,296 @@ public class LibrarySystem {
                 System.err.println("Error ensuring data files exist: " + e.getMessage());
             }
 
-            loadBorrowers();
-            loadMaterials();
-            loadTransactions();
+            boolean fromSnapshot = loadSnapshot();
+            if (fromSnapshot) {
+                // materials.dat is updated in place, so it stays the source of truth in binary mode
+                if (materialFile != null) loadMaterials();
+            } else {
+                loadBorrowers();
+                loadMaterials();
+                loadTransactions();
+            }
+            openArchive();
+            replayJournal();
+            if (!archive.isEmpty()) dropArchived(); // the journal may have re-added an archived loan
+            if (coldAfterDays >= 0 && persistent && archiveColdLoans(LocalDate.now())) {
+                saveTransactions();
+                saveSnapshot();
+            }
+            indexMaterials();
+            duplicates.clear();
+            for (Borrower b : borrowers) duplicates.add(b);
+            CirculationStats.Tally all;
+            synchronized (transactions) { all = CirculationStats.tally(transactions, materials, null, null); }
+            all.merge(CirculationStats.tallyArchived(archive, archive.segments(), materialIds, materials, null, null));
+            stats.reset(all, CirculationStats.strikeCounts(borrowers));
+            event.end();
+            if (event.shouldCommit()) {
+                event.source = fromSnapshot ? SNAPSHOT_FILE : "text files";
+                event.borrowers = borrowers.size();
+                event.materials = materials.size();
+                event.transactions = transactions.size();
+                event.commit();
+            }
+        }
+
+        // reuses materials.idx when it was written for exactly these materials, otherwise
+        // tokenizes the catalogue again
+        private void indexMaterials() {
+            long start = System.nanoTime();
+            if (persistIndex && materialFile == null && !materialsReplayed) {
+                try {
+                    MaterialSearchIndex loaded = MaterialSearchIndex.read(INDEX_FILE, MATERIALS_FILE, materialIdHash());
+                    if (loaded != null) {
+                        searchIndex = loaded;
+                        System.out.printf("Loaded search index (%,d terms) in %d ms%n",
+                                loaded.termCount(), (System.nanoTime() - start) / 1_000_000);
+                        return;
+                    }
+                } catch (IOException e) {
+                    System.err.println("Ignoring " + INDEX_FILE + " (" + e.getMessage() + "); rebuilding it.");
+                }
+            }
+            searchIndex.clear();
+            for (Material m : materials) searchIndex.add(m);
+            if (!materials.isEmpty()) {
+                System.out.printf("Indexed %,d materials (%,d terms) in %d ms%n",
+                        materials.size(), searchIndex.termCount(), (System.nanoTime() - start) / 1_000_000);
+            }
+        }
+
+        private void saveSearchIndex() {
+            try {
+                searchIndex.write(INDEX_FILE, MATERIALS_FILE, materialIdHash());
+            } catch (IOException e) {
+                System.err.println("Failed to write " + INDEX_FILE + ": " + e.getMessage());
+            }
+        }
+
+        // identifies the key -> ID assignment the index's postings refer to
+        private long materialIdHash() {
+            long h = materials.size();
+            for (Material m : materials) h = h * 31 + ((long) m.getKey() << 32 ^ m.getId().hashCode());
+            return h;
+        }
+
+        // reads the cold segment headers and drops the store rows an interrupted archiving
+        // pass left behind; archiving stays off if the segments cannot be read
+        private void openArchive() {
+            if (!persistent) return;
+            long start = System.nanoTime();
+            try {
+                archive.open();
+            } catch (IOException e) {
+                System.err.println("Failed to open " + COLD_DIR + " (" + e.getMessage() + "); archived history is unavailable.");
+                coldAfterDays = -1;
+                return;
+            }
+            if (archive.isEmpty()) return;
+            dropArchived();
+            System.out.printf("Opened %d cold segment(s) (%,d transactions) in %d ms%n",
+                    archive.segments().size(), archive.size(), (System.nanoTime() - start) / 1_000_000);
+        }
+
+        private void dropArchived() {
+            synchronized (transactions) { transactions.removeIf(returnedBefore(archive.cutoffDay())); }
+        }
+
+        // moves the loans returned more than coldAfterDays before today into new segments;
+        // false if there were none. The segments are written before the store lets go of
+        // the rows, and the data files are rewritten after (by the caller).
+        private boolean archiveColdLoans(LocalDate today) {
+            return archiveReturnedBefore((int) today.minusDays(coldAfterDays).toEpochDay());
+        }
+
+        private boolean archiveReturnedBefore(int cutoff) {
+            int archived = archive.cutoffDay(); // returned before this: already in a segment
+            List<Transaction> cold = new ArrayList<>();
+            synchronized (transactions) {
+                for (Transaction t : transactions) if (isCold(t, cutoff) && !isCold(t, archived)) cold.add(t);
+            }
+            if (cold.isEmpty()) return false;
+            long start = System.nanoTime();
+            List<TransactionArchive.Segment> written;
+            try {
+                written = archive.write(cold, cutoff);
+            } catch (IOException e) {
+                System.err.println("Failed to archive transactions: " + e.getMessage());
+                return false;
+            }
+            // returned loans never change, so the same test picks out exactly the rows written
+            synchronized (transactions) {
+                transactions.removeIf(returnedBefore(Math.max(cutoff, archived)));
+                archive.publish(written);
+            }
+            System.out.printf("Archived %,d returned loans to %s in %d ms%n",
+                    cold.size(), COLD_DIR, (System.nanoTime() - start) / 1_000_000);
+            return true;
+        }
+
+        private static boolean isCold(Transaction t, int cutoffDay) {
+            return t.isReturned() && t.getReturnedDate() != null && t.getReturnedDate().toEpochDay() < cutoffDay;
+        }
+
+        // isCold for TransactionStore.removeIf
+        private static TransactionStore.LoanFilter returnedBefore(int cutoffDay) {
+            return (borrowerKey, materialKey, borrowedDay, dueDay, returned, returnedDay) ->
+                    returned && returnedDay != TransactionStore.NO_DATE && returnedDay < cutoffDay;
+        }
+
+        // false when the text files have to be parsed instead
+        private boolean loadSnapshot() {
+            long start = System.nanoTime();
+            LibrarySnapshot.State s;
+            try {
+                s = snapshot.read();
+            } catch (IOException e) {
+                metrics.error(OperationMetrics.Op.LOAD_SNAPSHOT);
+                System.err.println("Ignoring " + SNAPSHOT_FILE + " (" + e.getMessage() + "); loading text files.");
+                return false;
+            }
+            if (s == null) return false;
+            borrowers.clear();
+            for (Borrower b : s.borrowers) borrowers.load(b);
+            materials.clear();
+            for (Material m : s.materials) materials.load(m);
+            transactions.load(s.transactions);
+            System.out.printf("Loaded snapshot (%,d borrowers, %,d materials, %,d transactions) in %d ms%n",
+                    s.borrowers.size(), s.materials.size(), s.transactions.size(), (System.nanoTime() - start) / 1_000_000);
+            metrics.stop(OperationMetrics.Op.LOAD_SNAPSHOT, start);
+            return true;
+        }
+
+        private void saveSnapshot() {
+            long started = metrics.start();
+            FlightEvents.Save event = new FlightEvents.Save();
+            event.begin();
+            int rows = 0;
+            try {
+                synchronized (borrowers) {
+                    synchronized (materials) {
+                        synchronized (transactions) {
+                            rows = borrowers.size() + materials.size() + transactions.size();
+                            snapshot.write(borrowers, borrowers.size(), materials, materials.size(), transactions, transactions.size());
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                metrics.error(OperationMetrics.Op.SAVE_SNAPSHOT);
+                System.err.println("Failed to write snapshot: " + e.getMessage());
+            }
+            metrics.stop(OperationMetrics.Op.SAVE_SNAPSHOT, started, SNAPSHOT_FILE);
+            event.finish(SNAPSHOT_FILE, rows);
+        }
+
+        // applies journal.log on top of the last checkpoint; without journal mode the
+        // replayed changes are folded straight back into the data files. A damaged journal
+        // throws before anything is checkpointed, so journal.log is left as it was.
+        private void replayJournal() throws IOException {
+            int applied = journal.replay(this::applyJournalRecord);
+            if (applied > 0) System.out.println("Recovered " + applied + " journal record(s).");
+            // materials.dat is not rewritten by a checkpoint; it takes the replayed copy counts here
+            if (materialFile != null) flushMaterialFile();
+            if (!journalMode && applied > 0) checkpoint();
+            // replayed changes are already durable in the journal (or were just checkpointed)
+            borrowers.markClean();
+            materials.markClean();
+        }
+
+        private void applyJournalRecord(RecordCodec.FieldReader r) {
+            String type = r.string();
+            switch (type) {
+                case ChangeJournal.BORROW: {
+                    // BORROW|txId|borrowerId|materialId|borrowedDate|dueDate|borrowedCopies
+                    // (the title's count after the borrow, absolute; older journals end at dueDate
+                    // and carry it in a COPIES record)
+                    Transaction t = new Transaction(r.string(), r.string(), r.string(), r.date(), r.date(), false, null);
+                    if (transactions.get(t.getId()) == null) transactions.add(t);
+                    if (r.hasMore()) {
+                        Material m = findMaterialById(t.getMaterialId());
+                        int borrowedCopies = r.integer();
+                        if (m != null) m.setBorrowedCopies(borrowedCopies);
+                    }
+                    break;
+                }
+                case ChangeJournal.RETURN: {
+                    // RETURN|txId|returnedDate|violations|borrowedCopies
+                    // (the borrower's strikes and the title's count after the return, absolute;
+                    // older journals end at returnedDate and use STRIKE/COPIES records)
+                    Transaction t = transactions.get(r.string());
+                    LocalDate returnedOn = r.date();
+                    if (t != null && !t.isReturned()) transactions.markReturned(t, returnedOn);
+                    if (t != null && r.hasMore()) {
+                        Borrower b = findBorrowerById(t.getBorrowerId());
+                        int violations = r.integer();
+                        if (b != null) b.setViolations(violations);
+                        Material m = findMaterialById(t.getMaterialId());
+                        int borrowedCopies = r.integer();
+                        if (m != null) m.setBorrowedCopies(borrowedCopies);
+                    }
+                    break;
+                }
+                case ChangeJournal.STRIKE: {
+                    // STRIKE|borrowerId|violations (absolute, so replaying twice is harmless)
+                    Borrower b = findBorrowerById(r.string());
+                    int violations = r.integer();
+                    if (b != null) b.setViolations(violations);
+                    break;
+                }
+                case ChangeJournal.COPIES: {
+                    // COPIES|materialId|borrowedCopies (absolute)
+                    Material m = findMaterialById(r.string());
+                    int borrowedCopies = r.integer();
+                    if (m != null) m.setBorrowedCopies(borrowedCopies);
+                    break;
+                }
+                case ChangeJournal.BORROWER:
+                    // BORROWER|<borrowers.txt line>
+                    borrowers.add(readBorrower(r));
+                    break;
+                case ChangeJournal.MATERIAL:
+                    // MATERIAL|<materials.txt line>
+                    materials.add(readMaterial(r));
+                    materialsReplayed = true;
+                    break;
+                case ChangeJournal.REMOVE_BORROWER:
+                    borrowers.remove(r.string());
+                    break;
+                case ChangeJournal.REMOVE_MATERIAL:
+                    materials.remove(r.string());
+                    materialsReplayed = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown journal record " + type);
+            }
+        }
+
+        // archives what is past --cold-after, regenerates the three data files and the
+        // snapshot, and starts an empty journal;
+        // holds the journal so no record can land between the saves and the truncate
+        void checkpoint() {
+            if (!persistent) return;
+            synchronized (journal) {
+                if (coldAfterDays >= 0) archiveColdLoans(LocalDate.now());
+                saveBorrowers();
+                saveMaterials();
+                saveTransactions();
+                saveSnapshot();
+                // materials.dat, not materials.txt, is authoritative in binary mode
+                if (persistIndex && materialFile == null) saveSearchIndex();
+                try {
+                    journal.truncate();
+                } catch (IOException e) {
+                    System.err.println("Failed to reset journal: " + e.getMessage());
+                }
+            }
+        }
+
+        // final checkpoint; the library must not be used afterwards
+        void close() {
+            checkpoint();
+            journal.close();
+            if (materialFile != null) materialFile.close();
         }
 
         void run() {
@@ -85,18 +650,19 @@ public class LibrarySystem {
                         case "5": showBorrowerHistory(); break;
                         case "6": showMaterialHistory(); break;
                         case "7": exit(); running = false; break;
+                        // not listed: an operator command, see --metrics
+                        case "metrics": System.out.print("\n" + metrics.getReport()); break;
                         default: System.out.println("Invalid choice. Please choose between 1 and 7."); break;
                     }
                 } catch (Exception ex) {
+                    metrics.unhandledError();
                     System.err.println("An unexpected error occurred: " + ex.getMessage());
                 }
             }
         }
 
         private void exit() {
-            saveBorrowers();
-            saveMaterials();
-            saveTransactions();
+            close();
             System.out.println("\n--- Exiting Library System ---");
             System.out.println("Group: Fantastic4");
             System.out.println("Members: Alice, Bob, Charlie, Daryl (edit names in code if needed)");
@@ -136,26 +702,41 @@ public class LibrarySystem {
                     System.out.println("Borrower with this ID already exists.");
                     return;
                 }
-                String first = promptValidated("First name: ", Library::validateName, "Name must only contain letters, spaces, hyphen or apostrophe.");
-                String middle = promptOptionalValidated("Middle name (or leave blank): ", Library::validateName, "Invalid name.");
-                String last = promptValidated("Last name: ", Library::validateName, "Name must only contain letters, spaces, hyphen or apostrophe.");
-                String gender = promptValidated("Gender (M/F): ", s -> s.equalsIgnoreCase("M") || s.equalsIgnoreCase("F"), "Enter M or F.");
+                String first = promptValidated("First name: ", Validators::name, "Name must only contain letters, spaces, hyphen or apostrophe.");
+                String middle = promptOptionalValidated("Middle name (or leave blank): ", Validators::name, "Invalid name.");
+                String last = promptValidated("Last name: ", Validators::name, "Name must only contain letters, spaces, hyphen or apostrophe.");
+                String gender = promptValidated("Gender (M/F): ", Validators::gender, "Enter M or F.");
                 LocalDate birthday = promptDate("Birthday (YYYY-MM-DD): ");
-                String contact = promptValidated("Contact number (digits only): ", Library::validatePhone, "Phone must contain digits only (7-15 digits).");
-                String email = promptValidated("Email: ", Library::validateEmail, "Invalid email format.");
+                String contact = promptValidated("Contact number (digits only): ", Validators::phone, "Phone must contain digits only (7-15 digits).");
+                String email = promptValidated("Email: ", Validators::email, "Invalid email format.");
                 String address = promptNonEmpty("Address: ");
                 int violations = 0;
 
                 // prevent duplicate by same full name + email
-                if (borrowers.stream().anyMatch(b -> b.getFirstName().equalsIgnoreCase(first)
-                        && b.getLastName().equalsIgnoreCase(last) && b.getEmail().equalsIgnoreCase(email))) {
+                if (isRegistered(first, last, email)) {
                     System.out.println("This borrower seems already registered (same name & email).");
                     return;
                 }
+                // same birthday and a same or similar name: let staff decide
+                List<DuplicateIndex.Match> similar = possibleDuplicates(first, last, birthday, null);
+                if (!similar.isEmpty()) {
+                    System.out.println("Possible duplicate of:");
+                    for (DuplicateIndex.Match m : similar) {
+                        Borrower other = findBorrowerById(m.otherId);
+                        if (other != null) System.out.println("  " + other + (m.exact ? " [same name]" : " [similar name]"));
+                    }
+                    String answer = promptNonEmpty("Register anyway? (y/n): ");
+                    if (!answer.equalsIgnoreCase("y")) {
+                        System.out.println("Borrower not added.");
+                        return;
+                    }
+                }
 
                 Borrower b = new Borrower(id, first, middle, last, gender.toUpperCase(), birthday, contact, email, address, violations);
-                borrowers.add(b);
-                saveBorrowers();
+                if (!insertBorrower(b)) {
+                    System.out.println("Borrower with this ID already exists.");
+                    return;
+                }
                 System.out.println("Borrower added.");
             } catch (Exception ex) {
                 System.out.println("Failed to add borrower: " + ex.getMessage());
@@ -170,46 +751,34 @@ public class LibrarySystem {
             System.out.println("Editing borrower: " + b.getFullName() + " (leave blank to keep current)");
 
             try {
+                // everything is collected and validated first, then applied in one locked step
                 String first = promptMaybe("First name [" + b.getFirstName() + "]: ");
-                if (!first.isBlank()) {
-                    if (!validateName(first)) { System.out.println("Invalid name format. Edit aborted."); return; }
-                    b.setFirstName(first);
-                }
+                if (!first.isBlank() && !Validators.name(first)) { System.out.println("Invalid name format. Edit aborted."); return; }
                 String middle = promptMaybe("Middle name [" + b.getMiddleName() + "]: ");
-                if (!middle.isBlank()) {
-                    if (!validateName(middle)) { System.out.println("Invalid name format. Edit aborted."); return; }
-                    b.setMiddleName(middle);
-                }
+                if (!middle.isBlank() && !Validators.name(middle)) { System.out.println("Invalid name format. Edit aborted."); return; }
                 String last = promptMaybe("Last name [" + b.getLastName() + "]: ");
-                if (!last.isBlank()) {
-                    if (!validateName(last)) { System.out.println("Invalid name format. Edit aborted."); return; }
-                    b.setLastName(last);
-                }
+                if (!last.isBlank() && !Validators.name(last)) { System.out.println("Invalid name format. Edit aborted."); return; }
                 String gender = promptMaybe("Gender (M/F) [" + b.getGender() + "]: ");
-                if (!gender.isBlank()) {
-                    if (!gender.equalsIgnoreCase("M") && !gender.equalsIgnoreCase("F")) { System.out.println("Invalid gender. Edit aborted."); return; }
-                    b.setGender(gender.toUpperCase());
-                }
+                if (!gender.isBlank() && !Validators.gender(gender)) { System.out.println("Invalid gender. Edit aborted."); return; }
                 String bd = promptMaybe("Birthday [" + b.getBirthday().format(DATE_FMT) + "]: ");
-                if (!bd.isBlank()) {
-                    b.setBirthday(LocalDate.parse(bd));
-                }
+                LocalDate birthday = bd.isBlank() ? null : LocalDate.parse(bd);
                 String contact = promptMaybe("Contact [" + b.getContactNumber() + "]: ");
-                if (!contact.isBlank()) {
-                    if (!validatePhone(contact)) { System.out.println("Invalid contact. Edit aborted."); return; }
-                    b.setContactNumber(contact);
-                }
+                if (!contact.isBlank() && !Validators.phone(contact)) { System.out.println("Invalid contact. Edit aborted."); return; }
                 String email = promptMaybe("Email [" + b.getEmail() + "]: ");
-                if (!email.isBlank()) {
-                    if (!validateEmail(email)) { System.out.println("Invalid email. Edit aborted."); return; }
-                    b.setEmail(email);
-                }
+                if (!email.isBlank() && !Validators.email(email)) { System.out.println("Invalid email. Edit aborted."); return; }
                 String address = promptMaybe("Address [" + b.getAddress() + "]: ");
-                if (!address.isBlank()) {
-                    b.setAddress(address);
-                }
-                saveBorrowers();
-                System.out.println("Borrower updated.");
+
+                boolean updated = updateBorrower(id, x -> {
+                    if (!first.isBlank()) x.setFirstName(first);
+                    if (!middle.isBlank()) x.setMiddleName(middle);
+                    if (!last.isBlank()) x.setLastName(last);
+                    if (!gender.isBlank()) x.setGender(gender.toUpperCase());
+                    if (birthday != null) x.setBirthday(birthday);
+                    if (!contact.isBlank()) x.setContactNumber(contact);
+                    if (!email.isBlank()) x.setEmail(email);
+                    if (!address.isBlank()) x.setAddress(address);
+                });
+                System.out.println(updated ? "Borrower updated." : "Borrower not found.");
             } catch (Exception ex) {
                 System.out.println("Error updating borrower: " + ex.getMessage());
             }
@@ -218,17 +787,11 @@ public class LibrarySystem {
         private void deleteBorrower() {
             System.out.println("\n-- Delete Borrower --");
             String id = promptNonEmpty("Borrower ID to delete: ");
-            Borrower b = findBorrowerById(id);
-            if (b == null) { System.out.println("Not found."); return; }
-            // ensure borrower currently has no active borrowings
-            boolean hasActive = transactions.stream().anyMatch(t -> t.getBorrowerId().equals(id) && !t.isReturned());
-            if (hasActive) {
-                System.out.println("Borrower has active borrowed materials and cannot be deleted.");
-                return;
+            switch (removeBorrower(id)) {
+                case NOT_FOUND: System.out.println("Not found."); break;
+                case HAS_ACTIVE_LOANS: System.out.println("Borrower has active borrowed materials and cannot be deleted."); break;
+                default: System.out.println("Borrower deleted.");
             }
-            borrowers.removeIf(x -> x.getId().equals(id));
-            saveBorrowers();
-            System.out.println("Borrower deleted.");
         }
 
         private void viewBorrowers() {
@@ -250,7 +813,8 @@ public class LibrarySystem {
                 System.out.println("2. Edit Material");
                 System.out.println("3. Delete Material");
                 System.out.println("4. View All Materials");
-                System.out.println("5. Back");
+                System.out.println("5. Search Materials");
+                System.out.println("6. Back");
                 System.out.print("Choice: ");
                 String ch = scanner.nextLine().trim();
                 switch (ch) {
@@ -258,7 +822,8 @@ public class LibrarySystem {
                     case "2": editMaterial(); break;
                     case "3": deleteMaterial(); break;
                     case "4": viewMaterials(); break;
-                    case "5": back = true; break;
+                    case "5": findMaterials(); break;
+                    case "6": back = true; break;
                     default: System.out.println("Invalid choice."); break;
                 }
             }
@@ -302,8 +867,10 @@ public class LibrarySystem {
                     default: System.out.println("Invalid type."); return;
                 }
 
-                materials.add(mat);
-                saveMaterials();
+                if (!insertMaterial(mat)) {
+                    System.out.println("Material with this ID already exists.");
+                    return;
+                }
                 System.out.println("Material added.");
             } catch (NumberFormatException nfe) {
                 System.out.println("Invalid number entered. Add material aborted.");
@@ -320,17 +887,21 @@ public class LibrarySystem {
             System.out.println("Editing: " + m.getDisplayTitle() + " (leave blank to keep current)");
             try {
                 String title = promptMaybe("Title/Name [" + m.getDisplayTitle() + "]: ");
-                if (!title.isBlank()) { m.setTitle(title); }
                 String author = promptMaybe("Author (if applicable) [" + (m.getAuthor()==null? "N/A":m.getAuthor()) + "]: ");
-                if (!author.isBlank()) m.setAuthor(author);
                 String pub = promptMaybe("Publisher [" + m.getPublisher() + "]: ");
-                if (!pub.isBlank()) m.setPublisher(pub);
                 String year = promptMaybe("Year [" + m.getYearPublished() + "]: ");
-                if (!year.isBlank()) m.setYearPublished(Integer.parseInt(year));
+                Integer yearValue = year.isBlank() ? null : Integer.parseInt(year);
                 String copies = promptMaybe("Total copies [" + m.getTotalCopies() + "]: ");
-                if (!copies.isBlank()) m.setTotalCopies(Integer.parseInt(copies));
-                saveMaterials();
-                System.out.println("Material updated.");
+                Integer copiesValue = copies.isBlank() ? null : Integer.parseInt(copies);
+
+                boolean updated = updateMaterial(id, x -> {
+                    if (!title.isBlank()) x.setTitle(title);
+                    if (!author.isBlank()) x.setAuthor(author);
+                    if (!pub.isBlank()) x.setPublisher(pub);
+                    if (yearValue != null) x.setYearPublished(yearValue);
+                    if (copiesValue != null) x.setTotalCopies(copiesValue);
+                });
+                System.out.println(updated ? "Material updated." : "Material not found.");
             } catch (NumberFormatException nfe) {
                 System.out.println("Invalid number. Edit aborted.");
             } catch (Exception ex) {
@@ -341,17 +912,11 @@ public class LibrarySystem {
         private void deleteMaterial() {
             System.out.println("\n-- Delete Material --");
             String id = promptNonEmpty("Enter Material ID to delete: ");
-            Material m = findMaterialById(id);
-            if (m == null) { System.out.println("Not found."); return; }
-            // ensure no active borrowings of this material
-            boolean hasActive = transactions.stream().anyMatch(t -> t.getMaterialId().equals(id) && !t.isReturned());
-            if (hasActive) {
-                System.out.println("This material has active borrowings and cannot be deleted.");
-                return;
+            switch (removeMaterial(id)) {
+                case NOT_FOUND: System.out.println("Not found."); break;
+                case HAS_ACTIVE_LOANS: System.out.println("This material has active borrowings and cannot be deleted."); break;
+                default: System.out.println("Material deleted.");
             }
-            materials.removeIf(x -> x.getId().equals(id));
-            saveMaterials();
-            System.out.println("Material deleted.");
         }
 
         private void viewMaterials() {
@@ -362,6 +927,17 @@ public class LibrarySystem {
             }
         }
 
+        private void findMaterials() {
+            System.out.println("\n-- Search Materials --");
+            System.out.println("Matches title, author and publisher words; use OR between alternatives and * for a prefix.");
+            String query = promptNonEmpty("Search: ");
+            List<Material> found = searchMaterials(query, 20);
+            if (found.isEmpty()) { System.out.println("No matching materials."); return; }
+            for (Material m : found) {
+                System.out.println(m);
+            }
+        }
+
         // --------------------------
         // Borrowing Logic
         // --------------------------
@@ -369,31 +945,14 @@ public class LibrarySystem {
             try {
                 System.out.println("\n-- Borrow Material --");
                 String borrowerId = promptNonEmpty("Borrower ID: ");
-                Borrower b = findBorrowerById(borrowerId);
-                if (b == null) { System.out.println("Borrower not registered."); return; }
-                if (b.getViolations() >= 3) { System.out.println("Borrower has 3 or more strikes and cannot borrow."); return; }
-                // check borrower doesn't have an active borrow already (requirement: any borrower can only borrow one material at moment)
-                boolean hasActive = transactions.stream().anyMatch(t -> t.getBorrowerId().equals(borrowerId) && !t.isReturned());
-                if (hasActive) { System.out.println("Borrower already has a borrowed material. Return it first to borrow another."); return; }
+                // early answer before asking for the material; borrow() checks again under its locks
+                CirculationResult.Status early = borrowerCheck(findBorrowerById(borrowerId));
+                if (early != null) { System.out.println(early.message); return; }
 
                 String materialId = promptNonEmpty("Material ID to borrow: ");
-                Material m = findMaterialById(materialId);
-                if (m == null) { System.out.println("Material not found."); return; }
-                if (m.getAvailableCopies() <= 0) { System.out.println("No available copies to borrow."); return; }
-
-                LocalDate borrowedDate = LocalDate.now();
-                LocalDate dueDate = borrowedDate.plusDays(m.getLoanDays());
-
-                // create transaction
-                Transaction t = new Transaction(UUID.randomUUID().toString(), borrowerId, materialId, borrowedDate, dueDate, false, null);
-                transactions.add(t);
-
-                // decrement available copy (we represent availability via total copies vs active borrows)
-                m.incrementBorrowedCopies(1);
-
-                saveMaterials();
-                saveTransactions();
-                System.out.println("Borrow successful. Due date: " + dueDate.format(DATE_FMT));
+                CirculationResult r = borrow(borrowerId, materialId, LocalDate.now());
+                if (r.status != CirculationResult.Status.OK) { System.out.println(r.status.message); return; }
+                System.out.println("Borrow successful. Due date: " + r.transaction.getDueDate().format(DATE_FMT));
             } catch (Exception ex) {
                 System.out.println("Error during borrow: " + ex.getMessage());
             }
@@ -403,37 +962,13 @@ public class LibrarySystem {
             try {
                 System.out.println("\n-- Return Material --");
                 String borrowerId = promptNonEmpty("Borrower ID: ");
-                Borrower b = findBorrowerById(borrowerId);
-                if (b == null) { System.out.println("Borrower not registered."); return; }
-
-                // find active transaction for this borrower
-                Optional<Transaction> opt = transactions.stream()
-                        .filter(t -> t.getBorrowerId().equals(borrowerId) && !t.isReturned())
-                        .findFirst();
-                if (opt.isEmpty()) { System.out.println("This borrower has no active borrowed materials."); return; }
-
-                Transaction t = opt.get();
-                Material m = findMaterialById(t.getMaterialId());
-                if (m == null) { System.out.println("Material record not found (data inconsistency)."); return; }
-
-                LocalDate returnedOn = LocalDate.now();
-                t.setReturned(true);
-                t.setReturnedDate(returnedOn);
-
-                // check lateness
-                if (returnedOn.isAfter(t.getDueDate())) {
-                    b.incrementViolations(1);
-                    System.out.println("Material returned late. Borrower receives 1 strike. Total strikes: " + b.getViolations());
+                CirculationResult r = returnLoan(borrowerId, LocalDate.now());
+                if (r.status != CirculationResult.Status.OK) { System.out.println(r.status.message); return; }
+                if (r.late) {
+                    System.out.println("Material returned late. Borrower receives 1 strike. Total strikes: " + r.strikes);
                 } else {
                     System.out.println("Material returned on time. No strike.");
                 }
-
-                // reduce borrowed copies count
-                m.incrementBorrowedCopies(-1);
-
-                saveBorrowers();
-                saveMaterials();
-                saveTransactions();
                 System.out.println("Return processed.");
             } catch (Exception ex) {
                 System.out.println("Error processing return: " + ex.getMessage());
@@ -441,274 +976,6134 @@ public class LibrarySystem {
         }
 
         // --------------------------
-        // History views
+        // Circulation engine (safe to call from several desk threads)
         // --------------------------
-        private void showBorrowerHistory() {
-            System.out.println("\n-- Borrower History --");
-            String id = promptNonEmpty("Enter Borrower ID: ");
-            Borrower b = findBorrowerById(id);
-            if (b == null) { System.out.println("Borrower not found."); return; }
-            System.out.println("History for: " + b.getFullName());
 
-            List<Transaction> list = new ArrayList<>();
-            for (Transaction t : transactions) if (t.getBorrowerId().equals(id)) list.add(t);
-            if (list.isEmpty()) { System.out.println("No transactions for this borrower."); return; }
-            for (Transaction t : list) {
-                Material m = findMaterialById(t.getMaterialId());
-                System.out.printf("Material: %s | Borrowed: %s | Due: %s | Returned: %s | ReturnedDate: %s\n",
-                        (m==null? t.getMaterialId(): m.getDisplayTitle()),
-                        t.getBorrowedDate().format(DATE_FMT),
-                        t.getDueDate().format(DATE_FMT),
-                        t.isReturned() ? "Yes":"No",
-                        t.getReturnedDate() == null ? "-" : t.getReturnedDate().format(DATE_FMT));
+        // Lends one copy of materialId to borrowerId. The borrower stripe is taken first, then
+        // the material stripe in shared mode, and both are held until the loan is persisted:
+        // a borrower never gets two loans, desks lending the same title only contend on its
+        // copy counter, and edits or deletes of the title (exclusive mode) wait for them.
+        CirculationResult borrow(String borrowerId, String materialId, LocalDate today) throws IOException {
+            long started = metrics.start();
+            FlightEvents.Borrow event = new FlightEvents.Borrow();
+            event.begin();
+            CirculationResult r = null;
+            try {
+                return r = lend(borrowerId, materialId, today);
+            } finally {
+                metrics.stop(OperationMetrics.Op.BORROW, started);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.borrowerId = borrowerId;
+                    event.materialId = materialId;
+                    event.status = r == null ? "ERROR" : r.status.name();
+                    event.commit();
+                }
             }
         }
 
-        private void showMaterialHistory() {
-            System.out.println("\n-- Material History --");
-            String id = promptNonEmpty("Enter Material ID: ");
-            Material m = findMaterialById(id);
-            if (m == null) { System.out.println("Material not found."); return; }
-            System.out.println("History for: " + m.getDisplayTitle());
-            List<Transaction> list = new ArrayList<>();
-            for (Transaction t : transactions) if (t.getMaterialId().equals(id)) list.add(t);
-            if (list.isEmpty()) { System.out.println("No transactions for this material."); return; }
-            for (Transaction t : list) {
-                Borrower b = findBorrowerById(t.getBorrowerId());
-                System.out.printf("Borrower: %s | Borrowed: %s | Due: %s | Returned: %s | ReturnedDate: %s\n",
-                        (b==null? t.getBorrowerId(): b.getFullName()),
-                        t.getBorrowedDate().format(DATE_FMT),
-                        t.getDueDate().format(DATE_FMT),
-                        t.isReturned() ? "Yes":"No",
-                        t.getReturnedDate() == null ? "-" : t.getReturnedDate().format(DATE_FMT)
-                );
+        private CirculationResult lend(String borrowerId, String materialId, LocalDate today) throws IOException {
+            Lock borrowerLock = locks.borrower(borrowerId);
+            Lock materialLock = locks.material(materialId).readLock();
+            borrowerLock.lock();
+            try {
+                materialLock.lock();
+                try {
+                    Borrower b = findBorrowerById(borrowerId);
+                    CirculationResult.Status refused = borrowerCheck(b);
+                    if (refused != null) return new CirculationResult(refused);
+                    Material m = findMaterialById(materialId);
+                    if (m == null) return new CirculationResult(CirculationResult.Status.MATERIAL_NOT_FOUND);
+                    if (!journalMode) return openLoan(b, m, today);
+                    // a checkpoint sees all of the borrow or none of it
+                    synchronized (journal) { return openLoan(b, m, today); }
+                } finally {
+                    materialLock.unlock();
+                }
+            } finally {
+                borrowerLock.unlock();
             }
         }
 
-        // --------------------------
-        // File I/O
-        // --------------------------
-        private void loadBorrowers() {
-            borrowers.clear();
-            try (BufferedReader br = new BufferedReader(new FileReader(BORROWERS_FILE))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    line = line.trim();
-                    if (line.isEmpty()) continue;
-                    // CSV: id|first|middle|last|gender|birthday|contact|email|address|violations
-                    String[] parts = line.split("\\|", -1);
-                    if (parts.length < 10) continue;
-                    Borrower b = new Borrower(parts[0], parts[1], parts[2], parts[3], parts[4],
-                            LocalDate.parse(parts[5]), parts[6], parts[7], parts[8], Integer.parseInt(parts[9]));
-                    borrowers.add(b);
-                }
+        private CirculationResult openLoan(Borrower b, Material m, LocalDate today) throws IOException {
+            // availability is total copies vs. active borrows
+            if (!m.tryAcquireCopy()) return new CirculationResult(CirculationResult.Status.NO_COPIES);
+
+            LocalDate dueDate = today.plusDays(m.getLoanDays());
+            Transaction t = new Transaction(UUID.randomUUID().toString(), b.getId(), m.getId(), today, dueDate, false, null);
+            try {
+                persistLoan(t, b.getViolations(), m.getBorrowedCopies(), () -> transactions.add(t));
             } catch (IOException e) {
-                System.err.println("Failed to load borrowers: " + e.getMessage());
-            } catch (Exception e) {
-                System.err.println("Malformed borrower data: " + e.getMessage());
+                m.releaseCopy();
+                throw e;
             }
+            if (journalMode) countersJournaled(b, m);
+            stats.loaned(m);
+            flushChanges();
+            return new CirculationResult(t, false, b.getViolations());
         }
 
-        private void saveBorrowers() {
-            try (PrintWriter pw = new PrintWriter(new FileWriter(BORROWERS_FILE))) {
-                for (Borrower b : borrowers) {
-                    // id|first|middle|last|gender|birthday|contact|email|address|violations
-                    pw.printf("%s|%s|%s|%s|%s|%s|%s|%s|%s|%d%n",
-                            b.getId(), escape(b.getFirstName()), escape(b.getMiddleName()), escape(b.getLastName()), b.getGender(),
-                            b.getBirthday().format(DATE_FMT), b.getContactNumber(), b.getEmail(), escape(b.getAddress()), b.getViolations());
+        // Closes the borrower's active loan; a return after the due date adds a strike.
+        CirculationResult returnLoan(String borrowerId, LocalDate today) throws IOException {
+            long started = metrics.start();
+            FlightEvents.Return event = new FlightEvents.Return();
+            event.begin();
+            CirculationResult r = null;
+            try {
+                return r = closeLoan(borrowerId, today);
+            } finally {
+                metrics.stop(OperationMetrics.Op.RETURN, started);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.borrowerId = borrowerId;
+                    event.materialId = r != null && r.transaction != null ? r.transaction.getMaterialId() : null;
+                    event.status = r == null ? "ERROR" : r.status.name();
+                    event.late = r != null && r.late;
+                    event.commit();
                 }
-            } catch (IOException e) {
-                System.err.println("Failed to save borrowers: " + e.getMessage());
             }
         }
 
-        private void loadMaterials() {
-            materials.clear();
-            try (BufferedReader br = new BufferedReader(new FileReader(MATERIALS_FILE))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    line = line.trim();
-                    if (line.isEmpty()) continue;
-                    // CSV: type|id|title|author|year|publisher|totalCopies|borrowedCopies
-                    String[] parts = line.split("\\|", -1);
-                    if (parts.length < 8) continue;
-                    String type = parts[0];
-                    String id = parts[1];
-                    String title = unescape(parts[2]);
-                    String author = unescape(parts[3]);
-                    int year = Integer.parseInt(parts[4]);
-                    String publisher = unescape(parts[5]);
-                    int totalCopies = Integer.parseInt(parts[6]);
-                    int borrowedCopies = Integer.parseInt(parts[7]);
-
-                    Material m = null;
-                    switch (type) {
-                        case "BOOK": m = new Book(id, title, author, year, publisher, totalCopies); break;
-                        case "JOURNAL": m = new Journal(id, title, year, publisher, totalCopies); break;
-                        case "MAGAZINE": m = new Magazine(id, title, year, publisher, totalCopies); break;
-                        case "THESIS": m = new ThesisBook(id, title, author, year, publisher, totalCopies); break;
-                        default: continue;
-                    }
-                    m.setBorrowedCopies(borrowedCopies);
-                    materials.add(m);
+        private CirculationResult closeLoan(String borrowerId, LocalDate today) throws IOException {
+            Lock borrowerLock = locks.borrower(borrowerId);
+            borrowerLock.lock();
+            try {
+                Borrower b = findBorrowerById(borrowerId);
+                if (b == null) return new CirculationResult(CirculationResult.Status.BORROWER_NOT_FOUND);
+
+                // stable while we hold the borrower stripe: only this borrower's desk can open or close it
+                Transaction t;
+                synchronized (transactions) { t = transactions.activeLoan(b.getKey()); }
+                if (t == null) return new CirculationResult(CirculationResult.Status.NO_ACTIVE_LOAN);
+
+                Lock materialLock = locks.material(t.getMaterialId()).readLock();
+                materialLock.lock();
+                try {
+                    Material m = materials.get(t.getMaterialKey());
+                    if (m == null) return new CirculationResult(CirculationResult.Status.MATERIAL_MISSING);
+                    if (!journalMode) return endLoan(b, m, t, today);
+                    // a checkpoint sees all of the return or none of it
+                    synchronized (journal) { return endLoan(b, m, t, today); }
+                } finally {
+                    materialLock.unlock();
                 }
-            } catch (IOException e) {
-                System.err.println("Failed to load materials: " + e.getMessage());
-            } catch (Exception e) {
-                System.err.println("Malformed material data: " + e.getMessage());
+            } finally {
+                borrowerLock.unlock();
             }
         }
 
-        private void saveMaterials() {
-            try (PrintWriter pw = new PrintWriter(new FileWriter(MATERIALS_FILE))) {
-                for (Material m : materials) {
-                    // type|id|title|author|year|publisher|totalCopies|borrowedCopies
-                    pw.printf("%s|%s|%s|%s|%d|%s|%d|%d%n",
-                            m.getTypeTag(), m.getId(), escape(m.getTitle()), escape(m.getAuthor()==null? "": m.getAuthor()),
-                            m.getYearPublished(), escape(m.getPublisher()), m.getTotalCopies(), m.getBorrowedCopies());
-                }
-            } catch (IOException e) {
-                System.err.println("Failed to save materials: " + e.getMessage());
+        private CirculationResult endLoan(Borrower b, Material m, Transaction t, LocalDate today) throws IOException {
+            boolean late = today.isAfter(t.getDueDate());
+            persistLoan(new Transaction(t.getId(), t.getBorrowerId(), t.getMaterialId(), t.getBorrowedDate(),
+                            t.getDueDate(), true, today), b.getViolations() + (late ? 1 : 0),
+                    Math.max(0, m.getBorrowedCopies() - 1), () -> transactions.markReturned(t, today));
+            if (late) {
+                b.incrementViolations(1);
+                stats.strikesChanged(b.getViolations() - 1, b.getViolations());
             }
+            stats.returned(late);
+            m.releaseCopy();
+            if (journalMode) countersJournaled(b, m);
+            flushChanges();
+            return new CirculationResult(t, late, b.getViolations());
         }
 
-        private void loadTransactions() {
-            transactions.clear();
-            try (BufferedReader br = new BufferedReader(new FileReader(TRANSACTIONS_FILE))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    line = line.trim();
-                    if (line.isEmpty()) continue;
-                    // CSV: txId|borrowerId|materialId|borrowedDate|dueDate|returned(true/false)|returnedDate or ""
-                    String[] parts = line.split("\\|", -1);
-                    if (parts.length < 7) continue;
-                    String txId = parts[0];
-                    String borrowerId = parts[1];
-                    String materialId = parts[2];
-                    LocalDate borrowedDate = LocalDate.parse(parts[3]);
-                    LocalDate dueDate = LocalDate.parse(parts[4]);
-                    boolean returned = Boolean.parseBoolean(parts[5]);
-                    LocalDate returnedDate = parts[6].isBlank() ? null : LocalDate.parse(parts[6]);
-
-                    Transaction t = new Transaction(txId, borrowerId, materialId, borrowedDate, dueDate, returned, returnedDate);
-                    transactions.add(t);
+        // Writes a new or just-returned loan, then applies it to the store (storeChange), as one
+        // step: the journal, or in text mode the store monitor writeTransactions takes, stays
+        // held from the write to the change. A checkpoint or another desk's rewrite of
+        // transactions.txt in between would save the store without the loan, and a checkpoint
+        // would then truncate the record away. In journal mode lend and closeLoan hold the
+        // journal for the copy count and strikes too, and the record carries their values once
+        // the change is applied (strikes, borrowedCopies), so a crash can not replay the loan
+        // without them. An IOException leaves memory exactly as it was.
+        private void persistLoan(Transaction t, int strikes, int borrowedCopies, Runnable storeChange) throws IOException {
+            if (!journalMode) {
+                synchronized (transactions) {
+                    writeTransactions(t);
+                    storeChange.run();
                 }
-            } catch (IOException e) {
-                System.err.println("Failed to load transactions: " + e.getMessage());
-            } catch (Exception e) {
-                System.err.println("Malformed transaction data: " + e.getMessage());
+                return;
             }
-        }
-
-        private void saveTransactions() {
-            try (PrintWriter pw = new PrintWriter(new FileWriter(TRANSACTIONS_FILE))) {
-                for (Transaction t : transactions) {
-                    // txId|borrowerId|materialId|borrowedDate|dueDate|returned|returnedDate
-                    pw.printf("%s|%s|%s|%s|%s|%b|%s%n",
-                            t.getId(), t.getBorrowerId(), t.getMaterialId(),
+            synchronized (journal) {
+                if (t.isReturned()) {
+                    journal.write(ChangeJournal.RETURN, t.getId(), t.getReturnedDate().format(DATE_FMT),
+                            String.valueOf(strikes), String.valueOf(borrowedCopies));
+                } else {
+                    journal.write(ChangeJournal.BORROW, t.getId(), t.getBorrowerId(), t.getMaterialId(),
                             t.getBorrowedDate().format(DATE_FMT), t.getDueDate().format(DATE_FMT),
-                            t.isReturned(), t.getReturnedDate() == null ? "" : t.getReturnedDate().format(DATE_FMT));
+                            String.valueOf(borrowedCopies));
                 }
-            } catch (IOException e) {
-                System.err.println("Failed to save transactions: " + e.getMessage());
+                synchronized (transactions) { storeChange.run(); }
             }
         }
 
-        // --------------------------
-        // Utilities & helpers
-        // --------------------------
-        private Borrower findBorrowerById(String id) {
-            return borrowers.stream().filter(b -> b.getId().equals(id)).findFirst().orElse(null);
+        // journal mode, journal held: the BORROW/RETURN record just written has b's strikes and
+        // m's copy count, so flushChanges need not append STRIKE/COPIES records for them
+        private void countersJournaled(Borrower b, Material m) {
+            borrowers.markClean(b, Borrower.VIOLATIONS);
+            // flushMaterialFile still needs the dirty counter to update materials.dat
+            if (materialFile == null) materials.markClean(m, Material.BORROWED_COPIES);
         }
 
-        private Material findMaterialById(String id) {
-            return materials.stream().filter(m -> m.getId().equals(id)).findFirst().orElse(null);
+        enum RemoveResult { REMOVED, NOT_FOUND, HAS_ACTIVE_LOANS }
+
+        // adds and persists b; false (nothing changed) when the ID is taken
+        boolean insertBorrower(Borrower b) {
+            long started = metrics.start();
+            try {
+                if (!borrowers.addIfAbsent(b)) return false;
+                duplicates.add(b);
+                stats.borrowerAdded(b.getViolations());
+                flushChanges();
+                return true;
+            } finally {
+                metrics.stop(OperationMetrics.Op.ADD_BORROWER, started);
+            }
         }
 
-        // Prompts & input helpers
-        private String promptNonEmpty(String prompt) {
-            while (true) {
-                System.out.print(prompt);
-                String s = scanner.nextLine().trim();
+        boolean insertMaterial(Material m) {
+            long started = metrics.start();
+            try {
+                if (!materials.addIfAbsent(m)) return false;
+                searchIndex.add(m);
+                flushChanges();
+                return true;
+            } finally {
+                metrics.stop(OperationMetrics.Op.ADD_MATERIAL, started);
+            }
+        }
+
+        // adds rows that passed a bulk import (IDs already checked) and persists them in one
+        // step; with the journal that is a checkpoint rather than one record per row
+        void addImported(List<Borrower> newBorrowers, List<Material> newMaterials) {
+            if (newBorrowers.isEmpty() && newMaterials.isEmpty()) return;
+            for (Borrower b : newBorrowers) {
+                borrowers.add(b);
+                duplicates.add(b);
+                stats.borrowerAdded(b.getViolations());
+            }
+            for (Material m : newMaterials) {
+                materials.add(m);
+                searchIndex.add(m);
+            }
+            if (journalMode) checkpoint(); else flushChanges();
+        }
+
+        // same full name + email as an existing borrower
+        boolean isRegistered(String first, String last, String email) {
+            return duplicates.isRegistered(first, last, email);
+        }
+
+        // borrowers with this birthday and the same or a similar name, closest first
+        List<DuplicateIndex.Match> possibleDuplicates(String first, String last, LocalDate birthday, String excludeId) {
+            return duplicates.candidates(first, last, birthday, excludeId);
+        }
+
+        // a borrower with an active loan is kept
+        RemoveResult removeBorrower(String id) {
+            long started = metrics.start();
+            Lock lock = locks.borrower(id);
+            lock.lock();
+            try {
+                Borrower b = findBorrowerById(id);
+                if (b == null) return RemoveResult.NOT_FOUND;
+                if (hasActiveLoan(b)) return RemoveResult.HAS_ACTIVE_LOANS;
+                borrowers.remove(id);
+                duplicates.remove(b);
+                stats.borrowerRemoved(b.getViolations());
+                flushChanges();
+                return RemoveResult.REMOVED;
+            } finally {
+                lock.unlock();
+                metrics.stop(OperationMetrics.Op.DELETE_BORROWER, started);
+            }
+        }
+
+        // a material with copies out is kept
+        RemoveResult removeMaterial(String id) {
+            long started = metrics.start();
+            Lock lock = locks.material(id).writeLock();
+            lock.lock();
+            try {
+                Material m = findMaterialById(id);
+                if (m == null) return RemoveResult.NOT_FOUND;
+                if (activeLoanCount(m) > 0) return RemoveResult.HAS_ACTIVE_LOANS;
+                materials.remove(id);
+                searchIndex.remove(m);
+                flushChanges();
+                return RemoveResult.REMOVED;
+            } finally {
+                lock.unlock();
+                metrics.stop(OperationMetrics.Op.DELETE_MATERIAL, started);
+            }
+        }
+
+        // open loans overdue on today and those due tomorrow; proportional to the loans found
+        DueDateSweep sweepDueDates(LocalDate today) {
+            int day = (int) today.toEpochDay();
+            synchronized (transactions) {
+                return new DueDateSweep(today, transactions.openLoansDue(Integer.MIN_VALUE, day),
+                        transactions.openLoansDue(day + 1, day + 2));
+            }
+        }
+
+        int openLoanCount() {
+            synchronized (transactions) { return transactions.openLoanCount(); }
+        }
+
+        // the running counters: no pass over the history
+        CirculationStats.Report liveStats() {
+            return stats.live(materialIds, openLoanCount());
+        }
+
+        // recount of the loans borrowed in [from, to] (null: unbounded), in parallel;
+        // the strike distribution is always the current one
+        CirculationStats.Report statsFor(LocalDate from, LocalDate to) {
+            CirculationStats.Tally t;
+            List<TransactionArchive.Segment> cold;
+            synchronized (transactions) {
+                t = CirculationStats.tally(transactions, materials, from, to);
+                cold = archive.segments();
+            }
+            t.merge(CirculationStats.tallyArchived(archive, cold, materialIds, materials, from, to));
+            return CirculationStats.report(t, materialIds, from, to, CirculationStats.strikeCounts(borrowers));
+        }
+
+        // best matches first; see MaterialSearchIndex for the query syntax
+        List<Material> searchMaterials(String query, int limit) {
+            List<Material> found = new ArrayList<>();
+            for (int key : searchIndex.search(query, limit)) {
+                Material m = materials.get(key);
+                if (m != null) found.add(m);
+            }
+            return found;
+        }
+
+        // copies of the borrower's / material's loans, oldest first, archived ones included;
+        // the store rows and the segment list are taken together, the segments read after
+        List<Transaction> borrowerHistory(Borrower b) {
+            long started = metrics.start();
+            FlightEvents.History event = new FlightEvents.History();
+            event.begin();
+            List<Transaction> rows;
+            List<TransactionArchive.Segment> cold;
+            synchronized (transactions) {
+                rows = new ArrayList<>(transactions.byBorrower(b.getKey()));
+                cold = archive.segments();
+            }
+            if (!cold.isEmpty()) {
+                try {
+                    rows = oldestFirst(archive.byBorrower(cold, b.getId()), rows);
+                } catch (IOException e) {
+                    System.err.println("Failed to read archived transactions: " + e.getMessage());
+                }
+            }
+            metrics.stop(OperationMetrics.Op.BORROWER_HISTORY, started);
+            event.finish("borrower", b.getId(), rows.size());
+            return rows;
+        }
+
+        List<Transaction> materialHistory(Material m) {
+            long started = metrics.start();
+            FlightEvents.History event = new FlightEvents.History();
+            event.begin();
+            List<Transaction> rows;
+            List<TransactionArchive.Segment> cold;
+            synchronized (transactions) {
+                rows = new ArrayList<>(transactions.byMaterial(m.getKey()));
+                cold = archive.segments();
+            }
+            if (!cold.isEmpty()) {
+                try {
+                    rows = oldestFirst(archive.byMaterial(cold, m.getId()), rows);
+                } catch (IOException e) {
+                    System.err.println("Failed to read archived transactions: " + e.getMessage());
+                }
+            }
+            metrics.stop(OperationMetrics.Op.MATERIAL_HISTORY, started);
+            event.finish("material", m.getId(), rows.size());
+            return rows;
+        }
+
+        // archived rows then store rows, by borrow date (the sort is stable, so that order holds within a day)
+        private static List<Transaction> oldestFirst(List<Transaction> archived, List<Transaction> rows) {
+            if (archived.isEmpty()) return rows;
+            archived.addAll(rows);
+            archived.sort(Comparator.comparing(Transaction::getBorrowedDate));
+            return archived;
+        }
+
+        // applies edit to the borrower under its stripe and persists it; false if there is no such borrower
+        boolean updateBorrower(String id, java.util.function.Consumer<Borrower> edit) {
+            long started = metrics.start();
+            Lock lock = locks.borrower(id);
+            lock.lock();
+            try {
+                Borrower b = findBorrowerById(id);
+                if (b == null) return false;
+                duplicates.remove(b);
+                edit.accept(b);
+                duplicates.add(b);
+                flushChanges();
+                return true;
+            } finally {
+                lock.unlock();
+                metrics.stop(OperationMetrics.Op.EDIT_BORROWER, started);
+            }
+        }
+
+        boolean updateMaterial(String id, java.util.function.Consumer<Material> edit) {
+            long started = metrics.start();
+            Lock lock = locks.material(id).writeLock();
+            lock.lock();
+            try {
+                Material m = findMaterialById(id);
+                if (m == null) return false;
+                // re-indexed with the edited words (a search in between does not find it)
+                searchIndex.remove(m);
+                edit.accept(m);
+                searchIndex.add(m);
+                flushChanges();
+                return true;
+            } finally {
+                lock.unlock();
+                metrics.stop(OperationMetrics.Op.EDIT_MATERIAL, started);
+            }
+        }
+
+        // why b may not borrow right now, or null if it may
+        private CirculationResult.Status borrowerCheck(Borrower b) {
+            if (b == null) return CirculationResult.Status.BORROWER_NOT_FOUND;
+            if (b.getViolations() >= 3) return CirculationResult.Status.TOO_MANY_STRIKES;
+            // any borrower can only borrow one material at a time
+            if (hasActiveLoan(b)) return CirculationResult.Status.HAS_ACTIVE_LOAN;
+            return null;
+        }
+
+        private boolean hasActiveLoan(Borrower b) {
+            synchronized (transactions) { return transactions.hasActiveLoan(b.getKey()); }
+        }
+
+        private int activeLoanCount(Material m) {
+            synchronized (transactions) { return transactions.activeLoanCount(m.getKey()); }
+        }
+
+        // --------------------------
+        // History views
+        // --------------------------
+        private void showBorrowerHistory() {
+            System.out.println("\n-- Borrower History --");
+            String id = promptNonEmpty("Enter Borrower ID: ");
+            Borrower b = findBorrowerById(id);
+            if (b == null) { System.out.println("Borrower not found."); return; }
+            System.out.println("History for: " + b.getFullName());
+
+            List<Transaction> list = borrowerHistory(b);
+            if (list.isEmpty()) { System.out.println("No transactions for this borrower."); return; }
+            for (Transaction t : list) {
+                Material m = materials.get(t.getMaterialKey());
+                System.out.printf("Material: %s | Borrowed: %s | Due: %s | Returned: %s | ReturnedDate: %s\n",
+                        (m==null? t.getMaterialId(): m.getDisplayTitle()),
+                        t.getBorrowedDate().format(DATE_FMT),
+                        t.getDueDate().format(DATE_FMT),
+                        t.isReturned() ? "Yes":"No",
+                        t.getReturnedDate() == null ? "-" : t.getReturnedDate().format(DATE_FMT));
+            }
+        }
+
+        private void showMaterialHistory() {
+            System.out.println("\n-- Material History --");
+            String id = promptNonEmpty("Enter Material ID: ");
+            Material m = findMaterialById(id);
+            if (m == null) { System.out.println("Material not found."); return; }
+            System.out.println("History for: " + m.getDisplayTitle());
+            List<Transaction> list = materialHistory(m);
+            if (list.isEmpty()) { System.out.println("No transactions for this material."); return; }
+            for (Transaction t : list) {
+                Borrower b = borrowers.get(t.getBorrowerKey());
+                System.out.printf("Borrower: %s | Borrowed: %s | Due: %s | Returned: %s | ReturnedDate: %s\n",
+                        (b==null? t.getBorrowerId(): b.getFullName()),
+                        t.getBorrowedDate().format(DATE_FMT),
+                        t.getDueDate().format(DATE_FMT),
+                        t.isReturned() ? "Yes":"No",
+                        t.getReturnedDate() == null ? "-" : t.getReturnedDate().format(DATE_FMT)
+                );
+            }
+        }
+
+        // --------------------------
+        // File I/O
+        // --------------------------
+        private void loadBorrowers() {
+            long started = metrics.start();
+            borrowers.clear();
+            try {
+                ParallelLineLoader.Result<Borrower> r = ParallelLineLoader.load(BORROWERS_FILE,
+                        RecordCodec.parser(BORROWERS_FILE, Library::readBorrower));
+                for (Borrower b : r.rows) borrowers.load(b);
+                r.report("borrowers");
+            } catch (IOException e) {
+                metrics.error(OperationMetrics.Op.LOAD_BORROWERS);
+                System.err.println("Failed to load borrowers: " + e.getMessage());
+            }
+            metrics.stop(OperationMetrics.Op.LOAD_BORROWERS, started);
+        }
+
+        void saveBorrowers() {
+            if (!persistent) return;
+            long started = metrics.start();
+            FlightEvents.Save event = new FlightEvents.Save();
+            event.begin();
+            int rows;
+            synchronized (borrowers) {
+                rows = borrowers.size();
+                try (RecordCodec.FieldWriter w = new RecordCodec.FieldWriter(new FileOutputStream(BORROWERS_FILE))) {
+                    w.formatLine();
+                    for (Borrower b : borrowers) {
+                        writeBorrower(w, b);
+                        w.endRecord();
+                    }
+                    borrowers.markClean();
+                } catch (IOException e) {
+                    metrics.error(OperationMetrics.Op.SAVE_BORROWERS);
+                    System.err.println("Failed to save borrowers: " + e.getMessage());
+                }
+            }
+            metrics.stop(OperationMetrics.Op.SAVE_BORROWERS, started, BORROWERS_FILE);
+            event.finish(BORROWERS_FILE, rows);
+        }
+
+
+        // CSV: id|first|middle|last|gender|birthday|contact|email|address|violations
+        // (arguments are evaluated left to right, i.e. in field order)
+        static Borrower readBorrower(RecordCodec.FieldReader in) {
+            return new Borrower(in.string(), in.string(), in.string(), in.string(), in.string(),
+                    in.date(), in.string(), in.string(), in.string(), in.integer());
+        }
+
+        static void writeBorrower(RecordCodec.FieldWriter out, Borrower b) {
+            out.string(b.getId()).string(b.getFirstName()).string(b.getMiddleName()).string(b.getLastName())
+                    .string(b.getGender()).date(b.getBirthday()).string(b.getContactNumber()).string(b.getEmail())
+                    .string(b.getAddress()).integer(b.getViolations());
+        }
+
+        private void loadMaterials() {
+            long started = metrics.start();
+            materials.clear();
+            if (materialFile != null) {
+                try {
+                    if (!java.nio.file.Files.exists(Paths.get(MATERIALS_DAT_FILE))) {
+                        MaterialRecordFile.convertTextToBinary(MATERIALS_FILE, MATERIALS_DAT_FILE);
+                    }
+                    for (Material m : materialFile.open()) materials.load(m);
+                } catch (IOException e) {
+                    metrics.error(OperationMetrics.Op.LOAD_MATERIALS);
+                    System.err.println("Failed to load " + MATERIALS_DAT_FILE + ": " + e.getMessage());
+                }
+            } else {
+                try {
+                    ParallelLineLoader.Result<Material> r = ParallelLineLoader.load(MATERIALS_FILE,
+                            RecordCodec.parser(MATERIALS_FILE, Library::readMaterial));
+                    for (Material m : r.rows) materials.load(m);
+                    r.report("materials");
+                } catch (IOException e) {
+                    metrics.error(OperationMetrics.Op.LOAD_MATERIALS);
+                    System.err.println("Failed to load materials: " + e.getMessage());
+                }
+            }
+            metrics.stop(OperationMetrics.Op.LOAD_MATERIALS, started);
+        }
+
+        void saveMaterials() {
+            if (!persistent) return;
+            long started = metrics.start();
+            FlightEvents.Save event = new FlightEvents.Save();
+            event.begin();
+            int rows;
+            synchronized (materials) {
+                rows = materials.size();
+                try (RecordCodec.FieldWriter w = new RecordCodec.FieldWriter(new FileOutputStream(MATERIALS_FILE))) {
+                    w.formatLine();
+                    for (Material m : materials) {
+                        writeMaterial(w, m);
+                        w.endRecord();
+                    }
+                    materials.markClean();
+                } catch (IOException e) {
+                    metrics.error(OperationMetrics.Op.SAVE_MATERIALS);
+                    System.err.println("Failed to save materials: " + e.getMessage());
+                }
+            }
+            metrics.stop(OperationMetrics.Op.SAVE_MATERIALS, started, MATERIALS_FILE);
+            event.finish(MATERIALS_FILE, rows);
+        }
+
+        // CSV: type|id|title|author|year|publisher|totalCopies|borrowedCopies
+        static Material readMaterial(RecordCodec.FieldReader in) {
+            String type = in.string();
+            String id = in.string();
+            String title = in.string();
+            String author = in.string();
+            int year = in.integer();
+            String publisher = in.string();
+            int totalCopies = in.integer();
+            int borrowedCopies = in.integer();
+
+            Material m = newMaterial(type, id, title, author, year, publisher, totalCopies);
+            m.setBorrowedCopies(borrowedCopies);
+            return m;
+        }
+
+        // type is the materials.txt tag (BOOK, JOURNAL, MAGAZINE, THESIS)
+        static Material newMaterial(String type, String id, String title, String author, int year, String publisher, int totalCopies) {
+            switch (type) {
+                case "BOOK": return new Book(id, title, author, year, publisher, totalCopies);
+                case "JOURNAL": return new Journal(id, title, year, publisher, totalCopies);
+                case "MAGAZINE": return new Magazine(id, title, year, publisher, totalCopies);
+                case "THESIS": return new ThesisBook(id, title, author, year, publisher, totalCopies);
+                default: throw new IllegalArgumentException("unknown material type " + type);
+            }
+        }
+
+        static void writeMaterial(RecordCodec.FieldWriter out, Material m) {
+            out.string(m.getTypeTag()).string(m.getId()).string(m.getTitle()).string(m.getAuthor())
+                    .integer(m.getYearPublished()).string(m.getPublisher())
+                    .integer(m.getTotalCopies()).integer(m.getBorrowedCopies());
+        }
+
+        private void loadTransactions() {
+            long started = metrics.start();
+            List<Transaction> loaded = Collections.emptyList();
+            try {
+                ParallelLineLoader.Result<Transaction> r = ParallelLineLoader.load(TRANSACTIONS_FILE,
+                        RecordCodec.parser(TRANSACTIONS_FILE, Library::readTransaction));
+                loaded = r.rows;
+                r.report("transactions");
+            } catch (IOException e) {
+                metrics.error(OperationMetrics.Op.LOAD_TRANSACTIONS);
+                System.err.println("Failed to load transactions: " + e.getMessage());
+            }
+            // indexes are built once for the whole file rather than per row
+            transactions.load(loaded);
+            metrics.stop(OperationMetrics.Op.LOAD_TRANSACTIONS, started);
+        }
+
+        // CSV: txId|borrowerId|materialId|borrowedDate|dueDate|returned(true/false)|returnedDate or ""
+        static Transaction readTransaction(RecordCodec.FieldReader in) {
+            return new Transaction(in.string(), in.string(), in.string(), in.date(), in.date(),
+                    in.bool(), in.optionalDate());
+        }
+
+        static void writeTransaction(RecordCodec.FieldWriter out, Transaction t) {
+            out.string(t.getId()).string(t.getBorrowerId()).string(t.getMaterialId())
+                    .date(t.getBorrowedDate()).date(t.getDueDate())
+                    .bool(t.isReturned()).date(t.getReturnedDate());
+        }
+
+        void saveTransactions() {
+            try {
+                writeTransactions(null);
+            } catch (IOException e) {
+                System.err.println("Failed to save transactions: " + e.getMessage());
+            }
+        }
+
+        // Rewrites transactions.txt. changed, when given, is written in place of the stored loan
+        // with the same ID, or after them all when it is new.
+        private void writeTransactions(Transaction changed) throws IOException {
+            if (!persistent) return;
+            long started = metrics.start();
+            FlightEvents.Save event = new FlightEvents.Save();
+            event.begin();
+            int rows;
+            synchronized (transactions) {
+                rows = transactions.size();
+                boolean pending = changed != null;
+                try (RecordCodec.FieldWriter w = new RecordCodec.FieldWriter(new FileOutputStream(TRANSACTIONS_FILE))) {
+                    w.formatLine();
+                    for (Transaction t : transactions) {
+                        if (pending && t.getId().equals(changed.getId())) {
+                            t = changed;
+                            pending = false;
+                        }
+                        writeTransaction(w, t);
+                        w.endRecord();
+                    }
+                    if (pending) {
+                        writeTransaction(w, changed);
+                        w.endRecord();
+                        rows++;
+                    }
+                } catch (IOException e) {
+                    metrics.error(OperationMetrics.Op.SAVE_TRANSACTIONS);
+                    throw e;
+                } finally {
+                    metrics.stop(OperationMetrics.Op.SAVE_TRANSACTIONS, started, TRANSACTIONS_FILE);
+                    event.finish(TRANSACTIONS_FILE, rows);
+                }
+            }
+        }
+
+        // Persists only the borrowers/materials changed since the last flush, so several
+        // field edits of one operation become a single write. In journal mode each changed
+        // record is appended (a strike or copy-count change as its compact record, unless a
+        // BORROW/RETURN record already carried it); otherwise only the files that actually
+        // changed are rewritten.
+        private void flushChanges() {
+            if (!persistent) {
+                borrowers.markClean();
+                materials.markClean();
+                return;
+            }
+            if (materialFile != null) flushMaterialFile();
+            if (!journalMode) {
+                if (borrowers.hasChanges()) saveBorrowers();
+                if (materials.hasChanges()) saveMaterials();
+                return;
+            }
+            // a change made by another desk meanwhile waits on the repository monitor, so it
+            // is either written here or stays dirty for that desk's own flush
+            synchronized (journal) {
+                synchronized (borrowers) {
+                    synchronized (materials) {
+                        try {
+                            for (String id : borrowers.removedIds()) journal.append(ChangeJournal.REMOVE_BORROWER, id);
+                            for (Borrower b : borrowers.dirtyRecords()) {
+                                if (b.getDirtyFields() == Borrower.VIOLATIONS) {
+                                    journal.append(ChangeJournal.STRIKE, b.getId(), String.valueOf(b.getViolations()));
+                                } else {
+                                    journal.append(ChangeJournal.BORROWER, w -> writeBorrower(w, b));
+                                }
+                            }
+                            for (String id : materials.removedIds()) journal.append(ChangeJournal.REMOVE_MATERIAL, id);
+                            for (Material m : materials.dirtyRecords()) {
+                                if (m.getDirtyFields() == Material.BORROWED_COPIES) {
+                                    journal.append(ChangeJournal.COPIES, m.getId(), String.valueOf(m.getBorrowedCopies()));
+                                } else {
+                                    journal.append(ChangeJournal.MATERIAL, w -> writeMaterial(w, m));
+                                }
+                            }
+                            journal.flush();
+                            borrowers.markClean();
+                            materials.markClean();
+                        } catch (IOException e) {
+                            System.err.println("Failed to write journal: " + e.getMessage());
+                            return;
+                        }
+                    }
+                }
+                if (journal.getRecordCount() >= JOURNAL_CHECKPOINT_RECORDS) checkpoint();
+            }
+        }
+
+        // binary materials mode: a borrow or return rewrites just the 4-byte counter of one record
+        private void flushMaterialFile() {
+            synchronized (materials) {
+                try {
+                    for (String id : materials.removedIds()) materialFile.remove(id);
+                    for (Material m : materials.dirtyRecords()) {
+                        if (m.getDirtyFields() == Material.BORROWED_COPIES && materialFile.contains(m.getId())) {
+                            materialFile.updateBorrowedCopies(m.getId(), m.getBorrowedCopies());
+                        } else {
+                            materialFile.put(m);
+                        }
+                    }
+                    materials.markClean();
+                } catch (IOException | IllegalArgumentException e) {
+                    System.err.println("Failed to update " + MATERIALS_DAT_FILE + ": " + e.getMessage());
+                }
+            }
+        }
+
+        // --------------------------
+        // Utilities & helpers
+        // --------------------------
+        Borrower findBorrowerById(String id) {
+            return borrowers.get(id);
+        }
+
+        Material findMaterialById(String id) {
+            return materials.get(id);
+        }
+
+        // Prompts & input helpers
+        private String promptNonEmpty(String prompt) {
+            while (true) {
+                System.out.print(prompt);
+                String s = scanner.nextLine().trim();
                 if (!s.isEmpty()) return s;
                 System.out.println("Input cannot be empty.");
             }
         }
 
-        private String promptMaybe(String prompt) {
-            System.out.print(prompt);
-            return scanner.nextLine();
+        private String promptMaybe(String prompt) {
+            System.out.print(prompt);
+            return scanner.nextLine();
+        }
+
+        private String promptValidated(String prompt, ValidateFn fn, String errorMsg) {
+            while (true) {
+                System.out.print(prompt);
+                String s = scanner.nextLine().trim();
+                if (fn.test(s)) return s;
+                System.out.println(errorMsg);
+            }
+        }
+
+        private String promptOptionalValidated(String prompt, ValidateFn fn, String errorMsg) {
+            System.out.print(prompt);
+            String s = scanner.nextLine().trim();
+            if (s.isEmpty()) return "";
+            if (fn.test(s)) return s;
+            System.out.println(errorMsg);
+            return promptOptionalValidated(prompt, fn, errorMsg);
+        }
+
+        private LocalDate promptDate(String prompt) {
+            while (true) {
+                System.out.print(prompt);
+                String s = scanner.nextLine().trim();
+                try {
+                    return LocalDate.parse(s);
+                } catch (Exception e) {
+                    System.out.println("Invalid date format. Use YYYY-MM-DD.");
+                }
+            }
+        }
+
+        // small functional interface for validation
+        private interface ValidateFn { boolean test(String s); }
+    }
+
+    // -------------------------
+    // Field validation
+    //
+    // Single-pass checks with the same rules as the regexes they replace (so nothing is
+    // compiled per call), plus Schema: a record type's fields and their checks, which
+    // reports every failing field at once instead of stopping at the first.
+    // -------------------------
+    static final class Validators {
+        private Validators() {}
+
+        // letters, whitespace, hyphen, apostrophe: [A-Za-z\s\-']+ after trimming
+        static boolean name(String s) {
+            if (s == null) return false;
+            int from = trimStart(s), to = trimEnd(s, from);
+            if (from == to) return false;
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                if (!isAsciiLetter(c) && !isRegexSpace(c) && c != '-' && c != '\'') return false;
+            }
+            return true;
+        }
+
+        // ^[A-Za-z0-9+_.-]+@[A-Za-z0-9.-]+$ after trimming
+        static boolean email(String s) {
+            if (s == null) return false;
+            int from = trimStart(s), to = trimEnd(s, from);
+            int at = -1;
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                if (c == '@') {
+                    if (at >= 0) return false;
+                    at = i;
+                } else if (!isAsciiLetter(c) && !isDigit(c) && c != '.' && c != '-' && (at >= 0 || (c != '+' && c != '_'))) {
+                    return false;
+                }
+            }
+            return at > from && at < to - 1;
+        }
+
+        // 7-15 digits after trimming
+        static boolean phone(String s) {
+            if (s == null) return false;
+            int from = trimStart(s), to = trimEnd(s, from);
+            if (to - from < 7 || to - from > 15) return false;
+            for (int i = from; i < to; i++) {
+                if (!isDigit(s.charAt(i))) return false;
+            }
+            return true;
+        }
+
+        // yyyy-MM-dd naming a real calendar day
+        static boolean isoDate(String s) {
+            if (s == null || s.length() != 10 || s.charAt(4) != '-' || s.charAt(7) != '-') return false;
+            int y = digits(s, 0, 4), m = digits(s, 5, 7), d = digits(s, 8, 10);
+            if (y < 0 || m < 1 || m > 12 || d < 1) return false;
+            return d <= java.time.YearMonth.of(y, m).lengthOfMonth();
+        }
+
+        static boolean gender(String s) {
+            return s != null && s.length() == 1 && "MmFf".indexOf(s.charAt(0)) >= 0;
+        }
+
+        private static boolean isAsciiLetter(char c) { return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z'); }
+        private static boolean isDigit(char c) { return c >= '0' && c <= '9'; }
+        // \s in java.util.regex: [ \t\n\x0B\f\r]
+        private static boolean isRegexSpace(char c) { return c == ' ' || (c >= '\t' && c <= '\r'); }
+
+        // same bounds as String.trim
+        private static int trimStart(String s) {
+            int i = 0;
+            while (i < s.length() && s.charAt(i) <= ' ') i++;
+            return i;
+        }
+
+        private static int trimEnd(String s, int from) {
+            int i = s.length();
+            while (i > from && s.charAt(i - 1) <= ' ') i--;
+            return i;
+        }
+
+        private static int digits(String s, int from, int to) {
+            int v = 0;
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                if (!isDigit(c)) return -1;
+                v = v * 10 + (c - '0');
+            }
+            return v;
+        }
+
+        static final class FieldError {
+            final String field;
+            final String message;
+
+            FieldError(String field, String message) {
+                this.field = field;
+                this.message = message;
+            }
+
+            @Override
+            public String toString() { return field + ": " + message; }
+        }
+
+        // the errors of one record in a batch; index is its position in the input list
+        static final class RecordErrors {
+            final int index;
+            final List<FieldError> errors;
+
+            RecordErrors(int index, List<FieldError> errors) {
+                this.index = index;
+                this.errors = errors;
+            }
+        }
+
+        static final class Schema<T> {
+            private final List<String> fields = new ArrayList<>();
+            private final List<java.util.function.Function<T, String>> getters = new ArrayList<>();
+            private final List<java.util.function.Predicate<String>> checks = new ArrayList<>();
+            private final List<String> messages = new ArrayList<>();
+            private final List<Boolean> optional = new ArrayList<>();
+
+            Schema<T> required(String field, java.util.function.Function<T, String> getter,
+                               java.util.function.Predicate<String> check, String message) {
+                return add(field, getter, check, message, false);
+            }
+
+            // an empty or missing value passes
+            Schema<T> optional(String field, java.util.function.Function<T, String> getter,
+                               java.util.function.Predicate<String> check, String message) {
+                return add(field, getter, check, message, true);
+            }
+
+            private Schema<T> add(String field, java.util.function.Function<T, String> getter,
+                                  java.util.function.Predicate<String> check, String message, boolean isOptional) {
+                fields.add(field);
+                getters.add(getter);
+                checks.add(check);
+                messages.add(message);
+                optional.add(isOptional);
+                return this;
+            }
+
+            // empty when the record is valid
+            List<FieldError> validate(T record) {
+                List<FieldError> errors = null;
+                for (int i = 0; i < fields.size(); i++) {
+                    String value = getters.get(i).apply(record);
+                    boolean blank = value == null || value.isBlank();
+                    if (blank ? optional.get(i) : checks.get(i).test(value)) continue;
+                    if (errors == null) errors = new ArrayList<>(2);
+                    errors.add(new FieldError(fields.get(i), blank ? "Missing " + fields.get(i) + "." : messages.get(i)));
+                }
+                return errors == null ? Collections.emptyList() : errors;
+            }
+        }
+
+        // validates a batch (in parallel when it is large); only invalid records are returned, in input order
+        static <T> List<RecordErrors> validateAll(List<T> records, Schema<T> schema) {
+            java.util.stream.IntStream indexes = java.util.stream.IntStream.range(0, records.size());
+            if (records.size() >= 10_000) indexes = indexes.parallel();
+            return indexes.mapToObj(i -> {
+                        List<FieldError> errors = schema.validate(records.get(i));
+                        return errors.isEmpty() ? null : new RecordErrors(i, errors);
+                    })
+                    .filter(Objects::nonNull)
+                    .collect(java.util.stream.Collectors.toList());
+        }
+
+        // borrower CSV rows (BulkImport column order)
+        static final Schema<String[]> BORROWER_ROW = new Schema<String[]>()
+                .required("id", f -> f[0], s -> true, "")
+                .required("firstName", f -> f[1], Validators::name, "Name must only contain letters, spaces, hyphen or apostrophe.")
+                .optional("middleName", f -> f[2], Validators::name, "Name must only contain letters, spaces, hyphen or apostrophe.")
+                .required("lastName", f -> f[3], Validators::name, "Name must only contain letters, spaces, hyphen or apostrophe.")
+                .required("gender", f -> f[4], Validators::gender, "Enter M or F.")
+                .required("birthday", f -> f[5], Validators::isoDate, "Invalid date format. Use YYYY-MM-DD.")
+                .required("contactNumber", f -> f[6], Validators::phone, "Phone must contain digits only (7-15 digits).")
+                .required("email", f -> f[7], Validators::email, "Invalid email format.")
+                .required("address", f -> f[8], s -> true, "");
+
+        static final Schema<Borrower> BORROWER = new Schema<Borrower>()
+                .required("id", Borrower::getId, s -> true, "")
+                .required("firstName", Borrower::getFirstName, Validators::name, "Name must only contain letters, spaces, hyphen or apostrophe.")
+                .optional("middleName", Borrower::getMiddleName, Validators::name, "Name must only contain letters, spaces, hyphen or apostrophe.")
+                .required("lastName", Borrower::getLastName, Validators::name, "Name must only contain letters, spaces, hyphen or apostrophe.")
+                .required("gender", Borrower::getGender, Validators::gender, "Enter M or F.")
+                .required("birthday", b -> b.getBirthday() == null ? null : b.getBirthday().format(DATE_FMT), s -> true, "")
+                .required("contactNumber", Borrower::getContactNumber, Validators::phone, "Phone must contain digits only (7-15 digits).")
+                .required("email", Borrower::getEmail, Validators::email, "Invalid email format.")
+                .required("address", Borrower::getAddress, s -> true, "");
+    }
+
+    // -------------------------
+    // Outcome of a borrow or return
+    // -------------------------
+    static final class CirculationResult {
+        enum Status {
+            OK(""),
+            BORROWER_NOT_FOUND("Borrower not registered."),
+            TOO_MANY_STRIKES("Borrower has 3 or more strikes and cannot borrow."),
+            HAS_ACTIVE_LOAN("Borrower already has a borrowed material. Return it first to borrow another."),
+            MATERIAL_NOT_FOUND("Material not found."),
+            NO_COPIES("No available copies to borrow."),
+            NO_ACTIVE_LOAN("This borrower has no active borrowed materials."),
+            MATERIAL_MISSING("Material record not found (data inconsistency).");
+
+            final String message;
+
+            Status(String message) { this.message = message; }
+        }
+
+        final Status status;
+        final Transaction transaction; // the new or closed loan when OK
+        final boolean late;            // return only
+        final int strikes;             // the borrower's strikes afterwards
+
+        CirculationResult(Status status) {
+            this(status, null, false, 0);
+        }
+
+        CirculationResult(Transaction transaction, boolean late, int strikes) {
+            this(Status.OK, transaction, late, strikes);
+        }
+
+        private CirculationResult(Status status, Transaction transaction, boolean late, int strikes) {
+            this.status = status;
+            this.transaction = transaction;
+            this.late = late;
+            this.strikes = strikes;
+        }
+    }
+
+    // -------------------------
+    // Striped locks: a fixed pool of locks picked by ID hash, so unrelated borrowers
+    // and materials proceed in parallel without a lock object per record. Borrower and
+    // material stripes are separate arrays, always taken borrower first. Material stripes
+    // are read/write: circulation shares them (the copy counter arbitrates), edits and
+    // deletes take them exclusively.
+    // -------------------------
+    static final class StripedLocks {
+        private final ReentrantLock[] borrowerStripes;
+        private final ReentrantReadWriteLock[] materialStripes;
+
+        StripedLocks(int stripes) {
+            borrowerStripes = new ReentrantLock[stripes];
+            materialStripes = new ReentrantReadWriteLock[stripes];
+            for (int i = 0; i < stripes; i++) {
+                borrowerStripes[i] = new ReentrantLock();
+                materialStripes[i] = new ReentrantReadWriteLock();
+            }
+        }
+
+        Lock borrower(String id) { return borrowerStripes[index(id, borrowerStripes.length)]; }
+        ReadWriteLock material(String id) { return materialStripes[index(id, materialStripes.length)]; }
+
+        private static int index(String id, int stripes) {
+            int h = id.hashCode();
+            h ^= h >>> 16;
+            return Math.floorMod(h, stripes);
+        }
+    }
+
+    // -------------------------
+    // Material search: an inverted index from each lowercased word of a title, author or
+    // publisher to the materials containing it (by dictionary key). A posting list is one
+    // byte[] of varint (key gap << 3 | field mask) entries in key order, so a material
+    // costs one or two bytes per word instead of a boxed map entry; new materials get
+    // ascending keys and are appended, other changes re-encode that one list. Terms sit
+    // in a TreeMap so a prefix is a sub-map scan.
+    //
+    // Queries: words must all match, "a OR b" matches either, a trailing * matches a
+    // prefix ("tolk* OR lewis hobbit"). A hit scores the sum over its words of the field
+    // weight (title 3, author 2, publisher 1) times the word's idf; prefix matches count half.
+    // -------------------------
+    static final class MaterialSearchIndex {
+        static final int TITLE = 1, AUTHOR = 2, PUBLISHER = 4;
+        private static final int MAGIC = 0x4C494458; // "LIDX"
+        private static final int VERSION = 1;
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final TreeMap<String, Posting> terms = new TreeMap<>();
+        private final BitSet indexed = new BitSet();
+        private int docCount;
+        // per-thread score accumulator indexed by key, reset through the touched list
+        private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+        private static final class Scratch {
+            float[] scores = new float[0];
+            IntList touched = new IntList(256);
+        }
+
+        private interface PostingVisitor {
+            void visit(int key, int fields);
+        }
+
+        // one term's materials, varint encoded in key order
+        private static final class Posting {
+            byte[] data = new byte[4];
+            int length; // bytes used
+            int count;  // entries
+            int lastKey = -1;
+
+            void put(int key, int fields) {
+                if (key > lastKey) {
+                    append(key, fields);
+                    return;
+                }
+                int[] keys = new int[count + 1], masks = new int[count + 1];
+                int[] n = new int[1];
+                boolean[] merged = new boolean[1];
+                forEach((k, f) -> {
+                    if (!merged[0] && k >= key) {
+                        keys[n[0]] = key;
+                        masks[n[0]++] = k == key ? f | fields : fields;
+                        merged[0] = true;
+                        if (k == key) return;
+                    }
+                    keys[n[0]] = k;
+                    masks[n[0]++] = f;
+                });
+                reencode(keys, masks, n[0]);
+            }
+
+            // false when key was not in the list
+            boolean remove(int key) {
+                int[] keys = new int[count], masks = new int[count];
+                int[] n = new int[1];
+                forEach((k, f) -> {
+                    if (k == key) return;
+                    keys[n[0]] = k;
+                    masks[n[0]++] = f;
+                });
+                if (n[0] == count) return false;
+                reencode(keys, masks, n[0]);
+                return true;
+            }
+
+            void forEach(PostingVisitor v) {
+                int key = -1;
+                for (int pos = 0; pos < length; ) {
+                    int value = 0;
+                    for (int shift = 0; ; shift += 7) {
+                        byte b = data[pos++];
+                        value |= (b & 0x7F) << shift;
+                        if (b >= 0) break;
+                    }
+                    key += value >>> 3;
+                    v.visit(key, value & 7);
+                }
+            }
+
+            private void append(int key, int fields) {
+                if (length + 5 > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+                int value = (key - lastKey) << 3 | fields;
+                while ((value & ~0x7F) != 0) {
+                    data[length++] = (byte) (value & 0x7F | 0x80);
+                    value >>>= 7;
+                }
+                data[length++] = (byte) value;
+                lastKey = key;
+                count++;
+            }
+
+            private void reencode(int[] keys, int[] masks, int n) {
+                length = 0;
+                count = 0;
+                lastKey = -1;
+                for (int i = 0; i < n; i++) append(keys[i], masks[i]);
+                if (data.length > 2 * length + 8) data = Arrays.copyOf(data, length + 4);
+            }
+        }
+
+        // one query word: an exact term or a prefix
+        private static final class Term {
+            final String text;
+            final boolean prefix;
+
+            Term(String text, boolean prefix) {
+                this.text = text;
+                this.prefix = prefix;
+            }
+        }
+
+        // matches of one clause (an OR group), ascending keys
+        private static final class Hits {
+            final int[] keys;
+            final float[] scores;
+            final int size;
+
+            Hits(int[] keys, float[] scores, int size) {
+                this.keys = keys;
+                this.scores = scores;
+                this.size = size;
+            }
+        }
+
+        void add(Material m) { add(m.getKey(), m.getTitle(), m.getAuthor(), m.getPublisher()); }
+
+        void remove(Material m) { remove(m.getKey(), m.getTitle(), m.getAuthor(), m.getPublisher()); }
+
+        void add(int key, String title, String author, String publisher) {
+            Map<String, Integer> words = words(title, author, publisher);
+            lock.writeLock().lock();
+            try {
+                if (!indexed.get(key)) {
+                    indexed.set(key);
+                    docCount++;
+                }
+                for (Map.Entry<String, Integer> w : words.entrySet()) {
+                    terms.computeIfAbsent(w.getKey(), t -> new Posting()).put(key, w.getValue());
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // the strings must be the ones the material was added with
+        void remove(int key, String title, String author, String publisher) {
+            Map<String, Integer> words = words(title, author, publisher);
+            lock.writeLock().lock();
+            try {
+                if (!indexed.get(key)) return;
+                indexed.clear(key);
+                docCount--;
+                for (String w : words.keySet()) {
+                    Posting p = terms.get(w);
+                    if (p != null && p.remove(key) && p.count == 0) terms.remove(w);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void clear() {
+            lock.writeLock().lock();
+            try {
+                terms.clear();
+                indexed.clear();
+                docCount = 0;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        int termCount() {
+            lock.readLock().lock();
+            try { return terms.size(); } finally { lock.readLock().unlock(); }
+        }
+
+        // keys of the best matches, best first (ties: lower key first); empty for a blank query
+        int[] search(String query, int limit) {
+            List<List<Term>> clauses = parse(query);
+            if (clauses.isEmpty() || limit <= 0) return new int[0];
+            lock.readLock().lock();
+            try {
+                Hits result = null;
+                // rarest clause first keeps the intersections small
+                List<Hits> hits = new ArrayList<>();
+                for (List<Term> clause : clauses) {
+                    Hits h = match(clause);
+                    if (h.size == 0) return new int[0];
+                    hits.add(h);
+                }
+                hits.sort(Comparator.comparingInt(h -> h.size));
+                for (Hits h : hits) result = result == null ? h : intersect(result, h);
+                return top(result, limit);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // words ANDed, "OR" joining its neighbours into one clause
+        private static List<List<Term>> parse(String query) {
+            List<List<Term>> clauses = new ArrayList<>();
+            boolean or = false;
+            for (String word : query.trim().split("\\s+")) {
+                if (word.equals("OR")) {
+                    or = !clauses.isEmpty();
+                    continue;
+                }
+                boolean prefix = word.endsWith("*");
+                List<String> tokens = tokens(prefix ? word.substring(0, word.length() - 1) : word);
+                for (int i = 0; i < tokens.size(); i++) {
+                    Term t = new Term(tokens.get(i), prefix && i == tokens.size() - 1);
+                    if (or && i == 0) {
+                        clauses.get(clauses.size() - 1).add(t);
+                    } else {
+                        clauses.add(new ArrayList<>(Collections.singletonList(t)));
+                    }
+                }
+                if (!tokens.isEmpty()) or = false;
+            }
+            return clauses;
+        }
+
+        private Hits match(List<Term> clause) {
+            if (clause.size() == 1 && !clause.get(0).prefix) {
+                // the common case needs no accumulator: the posting is already in key order
+                Posting p = terms.get(clause.get(0).text);
+                if (p == null) return new Hits(new int[0], new float[0], 0);
+                int[] keys = new int[p.count];
+                float[] scores = new float[p.count];
+                float idf = idf(p);
+                int[] n = new int[1];
+                p.forEach((k, f) -> {
+                    keys[n[0]] = k;
+                    scores[n[0]++] = weight(f) * idf;
+                });
+                return new Hits(keys, scores, n[0]);
+            }
+            Scratch s = SCRATCH.get();
+            int capacity = indexed.length();
+            if (s.scores.length < capacity) s.scores = new float[Math.max(capacity, s.scores.length * 2)];
+            float[] acc = s.scores;
+            IntList touched = s.touched;
+            touched.clear();
+            for (Term t : clause) {
+                Collection<Posting> postings = t.prefix
+                        ? terms.subMap(t.text, true, t.text + Character.MAX_VALUE, false).values()
+                        : Collections.singletonList(terms.get(t.text));
+                for (Posting p : postings) {
+                    if (p == null) continue;
+                    float idf = idf(p) * (t.prefix ? 0.5f : 1f);
+                    p.forEach((k, f) -> {
+                        if (acc[k] == 0f) touched.add(k);
+                        acc[k] += weight(f) * idf;
+                    });
+                }
+            }
+            int[] keys = new int[touched.size()];
+            for (int i = 0; i < keys.length; i++) keys[i] = touched.get(i);
+            Arrays.sort(keys);
+            float[] scores = new float[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                scores[i] = acc[keys[i]];
+                acc[keys[i]] = 0f;
+            }
+            return new Hits(keys, scores, keys.length);
+        }
+
+        private static Hits intersect(Hits a, Hits b) {
+            int n = Math.min(a.size, b.size);
+            int[] keys = new int[n];
+            float[] scores = new float[n];
+            int size = 0;
+            for (int i = 0, j = 0; i < a.size && j < b.size; ) {
+                if (a.keys[i] < b.keys[j]) {
+                    i++;
+                } else if (a.keys[i] > b.keys[j]) {
+                    j++;
+                } else {
+                    keys[size] = a.keys[i];
+                    scores[size++] = a.scores[i++] + b.scores[j++];
+                }
+            }
+            return new Hits(keys, scores, size);
+        }
+
+        private static int[] top(Hits h, int limit) {
+            // min-heap of indexes into h: the weakest of the best-so-far on top
+            PriorityQueue<Integer> heap = new PriorityQueue<>(Math.min(limit, h.size) + 1, (x, y) -> {
+                int c = Float.compare(h.scores[x], h.scores[y]);
+                return c != 0 ? c : Integer.compare(h.keys[y], h.keys[x]);
+            });
+            for (int i = 0; i < h.size; i++) {
+                if (heap.size() < limit) {
+                    heap.add(i);
+                } else if (h.scores[i] > h.scores[heap.peek()]) {
+                    heap.poll();
+                    heap.add(i);
+                }
+            }
+            int[] keys = new int[heap.size()];
+            for (int i = keys.length - 1; i >= 0; i--) keys[i] = h.keys[heap.poll()];
+            return keys;
+        }
+
+        private float idf(Posting p) {
+            return (float) Math.log(1 + (double) docCount / p.count);
+        }
+
+        private static float weight(int fields) {
+            return ((fields & TITLE) != 0 ? 3 : 0) + ((fields & AUTHOR) != 0 ? 2 : 0) + ((fields & PUBLISHER) != 0 ? 1 : 0);
+        }
+
+        // word -> fields it occurs in
+        private static Map<String, Integer> words(String title, String author, String publisher) {
+            Map<String, Integer> words = new HashMap<>();
+            for (String t : tokens(title)) words.merge(t, TITLE, (a, b) -> a | b);
+            for (String t : tokens(author)) words.merge(t, AUTHOR, (a, b) -> a | b);
+            for (String t : tokens(publisher)) words.merge(t, PUBLISHER, (a, b) -> a | b);
+            return words;
+        }
+
+        // lowercased runs of letters and digits
+        static List<String> tokens(String text) {
+            List<String> out = new ArrayList<>();
+            if (text == null) return out;
+            StringBuilder word = new StringBuilder();
+            for (int i = 0; i <= text.length(); i++) {
+                char c = i < text.length() ? text.charAt(i) : ' ';
+                if (Character.isLetterOrDigit(c)) {
+                    word.append(Character.toLowerCase(c));
+                } else if (word.length() > 0) {
+                    out.add(word.toString());
+                    word.setLength(0);
+                }
+            }
+            return out;
+        }
+
+        // Written to a temp file and moved into place. source (materials.txt) is stamped
+        // like in LibrarySnapshot, and idHash identifies the key -> ID mapping the postings
+        // refer to; read() gives null unless both still match.
+        void write(String filename, String source, long idHash) throws IOException {
+            Path tmp = Paths.get(filename + ".tmp");
+            java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+            lock.readLock().lock();
+            try (OutputStream raw = new FileOutputStream(tmp.toFile())) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new java.util.zip.CheckedOutputStream(raw, crc), 64 << 10));
+                File f = new File(source);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(f.length());
+                out.writeLong(f.lastModified());
+                out.writeLong(idHash);
+                out.writeInt(docCount);
+                long[] docs = indexed.toLongArray();
+                out.writeInt(docs.length);
+                for (long word : docs) out.writeLong(word);
+                out.writeInt(terms.size());
+                for (Map.Entry<String, Posting> e : terms.entrySet()) {
+                    Posting p = e.getValue();
+                    LibrarySnapshot.writeString(out, e.getKey());
+                    out.writeInt(p.count);
+                    out.writeInt(p.lastKey);
+                    out.writeInt(p.length);
+                    out.write(p.data, 0, p.length);
+                }
+                out.flush();
+                raw.write(ByteBuffer.allocate(8).putLong(crc.getValue()).array());
+            } finally {
+                lock.readLock().unlock();
+            }
+            java.nio.file.Files.move(tmp, Paths.get(filename), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        // null when there is no index file or it was written for other materials;
+        // IOException when it is unreadable
+        static MaterialSearchIndex read(String filename, String source, long idHash) throws IOException {
+            Path p = Paths.get(filename);
+            if (!java.nio.file.Files.exists(p)) return null;
+            byte[] data = java.nio.file.Files.readAllBytes(p);
+            if (data.length < 16) throw new IOException("index truncated");
+            java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+            crc.update(data, 0, data.length - 8);
+            ByteBuffer in = ByteBuffer.wrap(data);
+            if (in.getLong(data.length - 8) != crc.getValue()) throw new IOException("index checksum mismatch");
+            in.limit(data.length - 8);
+            try {
+                if (in.getInt() != MAGIC) throw new IOException("not an index file");
+                int version = in.getInt();
+                if (version != VERSION) throw new IOException("unsupported index version " + version);
+                File f = new File(source);
+                if (in.getLong() != f.length() || in.getLong() != f.lastModified() || in.getLong() != idHash) return null;
+                MaterialSearchIndex index = new MaterialSearchIndex();
+                index.docCount = in.getInt();
+                long[] docs = new long[in.getInt()];
+                for (int i = 0; i < docs.length; i++) docs[i] = in.getLong();
+                index.indexed.or(BitSet.valueOf(docs));
+                for (int i = in.getInt(); i > 0; i--) {
+                    String term = LibrarySnapshot.readString(in);
+                    Posting posting = new Posting();
+                    posting.count = in.getInt();
+                    posting.lastKey = in.getInt();
+                    posting.length = in.getInt();
+                    posting.data = new byte[posting.length + 4];
+                    in.get(posting.data, 0, posting.length);
+                    index.terms.put(term, posting);
+                }
+                return index;
+            } catch (java.nio.BufferUnderflowException e) {
+                throw new IOException("index truncated");
+            }
+        }
+    }
+
+    // -------------------------
+    // Duplicate borrowers. Names are normalized (lowercase letters only, so "O'Neil" and
+    // "oneil" agree) and every borrower is filed under two blocks: birthday + Soundex of
+    // the last name, and birthday + Soundex of the first name. A new registration is only
+    // compared with the borrowers in its two blocks, so a typo in either name still finds
+    // the other. Inside a block two people match when both names are equal, within a
+    // small edit distance, or (first names) sound the same: "Jon"/"John", "Smith"/"Smyth".
+    // The same-name-and-email rule of registration is a separate hash lookup.
+    // -------------------------
+    static final class DuplicateIndex {
+        // one indexed borrower, normalized
+        private static final class Entry {
+            final String id;
+            final String first;
+            final String last;
+            final LocalDate birthday;
+
+            Entry(String id, String first, String last, LocalDate birthday) {
+                this.id = id;
+                this.first = first;
+                this.last = last;
+                this.birthday = birthday;
+            }
+        }
+
+        // a borrower who may be the same person
+        static final class Match {
+            final String id;
+            final String otherId;
+            final boolean exact; // same normalized names and birthday
+            final int distance;  // edits between the names (first + last)
+
+            Match(String id, String otherId, boolean exact, int distance) {
+                this.id = id;
+                this.otherId = otherId;
+                this.exact = exact;
+                this.distance = distance;
+            }
+        }
+
+        private final Map<String, List<Entry>> blocks = new HashMap<>();
+        private final Map<String, Integer> registered = new HashMap<>(); // first|last|email -> count
+
+        synchronized void add(Borrower b) {
+            Entry e = entry(b);
+            for (String block : blockKeys(e)) blocks.computeIfAbsent(block, k -> new ArrayList<>(2)).add(e);
+            registered.merge(registrationKey(b.getFirstName(), b.getLastName(), b.getEmail()), 1, Integer::sum);
+        }
+
+        // b must still hold the fields it was added with
+        synchronized void remove(Borrower b) {
+            Entry e = entry(b);
+            for (String block : blockKeys(e)) {
+                List<Entry> list = blocks.get(block);
+                if (list == null) continue;
+                list.removeIf(x -> x.id.equals(e.id));
+                if (list.isEmpty()) blocks.remove(block);
+            }
+            registered.computeIfPresent(registrationKey(b.getFirstName(), b.getLastName(), b.getEmail()),
+                    (k, n) -> n == 1 ? null : n - 1);
+        }
+
+        synchronized void clear() {
+            blocks.clear();
+            registered.clear();
+        }
+
+        // same full name + email (case-insensitive) as an indexed borrower
+        synchronized boolean isRegistered(String first, String last, String email) {
+            return registered.containsKey(registrationKey(first, last, email));
+        }
+
+        // indexed borrowers who may be this person, exact matches first, then by distance;
+        // excludeId (may be null) is left out, e.g. the borrower being edited
+        synchronized List<Match> candidates(String first, String last, LocalDate birthday, String excludeId) {
+            Entry probe = new Entry(excludeId, normalize(first), normalize(last), birthday);
+            Map<String, Match> found = new LinkedHashMap<>();
+            for (String block : blockKeys(probe)) {
+                for (Entry e : blocks.getOrDefault(block, Collections.emptyList())) {
+                    if (e.id.equals(excludeId) || found.containsKey(e.id)) continue;
+                    Match m = compare(probe, e);
+                    if (m != null) found.put(e.id, m);
+                }
+            }
+            List<Match> out = new ArrayList<>(found.values());
+            out.sort(ORDER);
+            return out;
+        }
+
+        // every likely pair in the index, each once; blocks are compared in parallel
+        List<Match> allPairs() {
+            List<List<Entry>> snapshot;
+            synchronized (this) {
+                snapshot = new ArrayList<>();
+                for (List<Entry> list : blocks.values()) if (list.size() > 1) snapshot.add(new ArrayList<>(list));
+            }
+            Map<String, Match> pairs = snapshot.parallelStream()
+                    .flatMap(list -> {
+                        List<Match> out = new ArrayList<>();
+                        for (int i = 0; i < list.size(); i++) {
+                            for (int j = i + 1; j < list.size(); j++) {
+                                Entry a = list.get(i), b = list.get(j);
+                                boolean swap = a.id.compareTo(b.id) > 0;
+                                Match m = swap ? compare(b, a) : compare(a, b);
+                                if (m != null) out.add(m);
+                            }
+                        }
+                        return out.stream();
+                    })
+                    // a pair sharing both blocks is found twice
+                    .collect(java.util.stream.Collectors.toMap(m -> m.id + '\0' + m.otherId, m -> m, (x, y) -> x));
+            List<Match> out = new ArrayList<>(pairs.values());
+            out.sort(ORDER.thenComparing(m -> m.id).thenComparing(m -> m.otherId));
+            return out;
+        }
+
+        private static final Comparator<Match> ORDER =
+                Comparator.comparing((Match m) -> !m.exact).thenComparingInt(m -> m.distance);
+
+        // null unless a and b look like the same person (their block guarantees the birthday)
+        private static Match compare(Entry a, Entry b) {
+            int last = distance(a.last, b.last, maxEdits(a.last, b.last));
+            if (last > maxEdits(a.last, b.last)) return null;
+            int first = distance(a.first, b.first, maxEdits(a.first, b.first));
+            if (first > maxEdits(a.first, b.first) && !soundex(a.first).equals(soundex(b.first))) return null;
+            return new Match(a.id, b.id, first == 0 && last == 0, first + last);
+        }
+
+        // edits tolerated between two names: none for initials, one up to five letters, else two
+        private static int maxEdits(String a, String b) {
+            int len = Math.max(a.length(), b.length());
+            return len <= 2 ? 0 : len <= 5 ? 1 : 2;
+        }
+
+        // optimal string alignment distance (adjacent swaps count once); max + 1 once it exceeds max
+        static int distance(String a, String b, int max) {
+            if (Math.abs(a.length() - b.length()) > max) return max + 1;
+            int[] prev2 = new int[b.length() + 1], prev = new int[b.length() + 1], cur = new int[b.length() + 1];
+            for (int j = 0; j <= b.length(); j++) prev[j] = j;
+            for (int i = 1; i <= a.length(); i++) {
+                cur[0] = i;
+                int rowMin = i;
+                for (int j = 1; j <= b.length(); j++) {
+                    int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                    int d = Math.min(Math.min(prev[j] + 1, cur[j - 1] + 1), prev[j - 1] + cost);
+                    if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                        d = Math.min(d, prev2[j - 2] + 1);
+                    }
+                    cur[j] = d;
+                    rowMin = Math.min(rowMin, d);
+                }
+                if (rowMin > max) return max + 1;
+                int[] t = prev2;
+                prev2 = prev;
+                prev = cur;
+                cur = t;
+            }
+            return Math.min(prev[b.length()], max + 1);
+        }
+
+        // American Soundex of a normalized name ("robert" -> R163); "" for an empty name
+        static String soundex(String name) {
+            if (name.isEmpty()) return "";
+            final String codes = "01230120022455012623010202"; // a..z
+            StringBuilder out = new StringBuilder(4).append(Character.toUpperCase(name.charAt(0)));
+            char last = codes.charAt(name.charAt(0) - 'a');
+            for (int i = 1; i < name.length() && out.length() < 4; i++) {
+                char c = name.charAt(i);
+                char code = codes.charAt(c - 'a');
+                if (code != '0' && code != last) out.append(code);
+                // h and w do not separate equal codes; vowels do
+                if (c != 'h' && c != 'w') last = code;
+            }
+            while (out.length() < 4) out.append('0');
+            return out.toString();
+        }
+
+        // lowercase ASCII letters only; accents are dropped, other characters removed
+        static String normalize(String name) {
+            if (name == null) return "";
+            String s = java.text.Normalizer.normalize(name, java.text.Normalizer.Form.NFD);
+            StringBuilder out = new StringBuilder(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                char c = Character.toLowerCase(s.charAt(i));
+                if (c >= 'a' && c <= 'z') out.append(c);
+            }
+            return out.toString();
+        }
+
+        private static Entry entry(Borrower b) {
+            return new Entry(b.getId(), normalize(b.getFirstName()), normalize(b.getLastName()), b.getBirthday());
+        }
+
+        private static String[] blockKeys(Entry e) {
+            String day = String.valueOf(e.birthday);
+            return new String[] { day + "|L" + soundex(e.last), day + "|F" + soundex(e.first) };
+        }
+
+        private static String registrationKey(String first, String last, String email) {
+            return first.toLowerCase() + '\0' + last.toLowerCase() + '\0' + email.toLowerCase();
+        }
+
+        // --dedupe-report[=FILE]: every likely duplicate pair in the library, as CSV
+        static void report(Library lib, String file) throws IOException {
+            long start = System.nanoTime();
+            List<Match> pairs = lib.duplicates.allPairs();
+            try (BufferedWriter w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+                w.write("match,distance,id,name,otherId,otherName,birthday");
+                w.newLine();
+                for (Match m : pairs) {
+                    Borrower a = lib.findBorrowerById(m.id), b = lib.findBorrowerById(m.otherId);
+                    if (a == null || b == null) continue;
+                    w.write((m.exact ? "exact" : "similar") + "," + m.distance + ","
+                            + BulkImport.quoteCsv(a.getId()) + "," + BulkImport.quoteCsv(a.getFullName()) + ","
+                            + BulkImport.quoteCsv(b.getId()) + "," + BulkImport.quoteCsv(b.getFullName()) + ","
+                            + a.getBirthday());
+                    w.newLine();
+                }
+            }
+            long exact = pairs.stream().filter(m -> m.exact).count();
+            System.out.printf("Found %,d possible duplicate pair(s) (%,d exact) among %,d borrowers in %d ms; see %s%n",
+                    pairs.size(), exact, lib.borrowers.size(), (System.nanoTime() - start) / 1_000_000, file);
+        }
+    }
+
+    // -------------------------
+    // Circulation statistics. CirculationStats holds running counters that the borrow and
+    // return paths bump (loans per material type, loans per title with a top-10 board,
+    // returns, late returns, borrowers per strike count), so the everyday report is read
+    // without touching the history. tally() derives the same figures for any range of
+    // borrow dates with one parallel pass over the transactions, and tallyArchived() adds
+    // the cold segments; together they also seed the counters at startup.
+    // -------------------------
+    static final class CirculationStats {
+        static final int TOP = 10;
+        static final String[] TYPES = { "BOOK", "JOURNAL", "MAGAZINE", "THESIS" };
+        static final int STRIKE_BUCKETS = 4; // 0, 1, 2, 3+ (3 blocks borrowing)
+
+        private long loans;
+        private long returns;
+        private long lateReturns;
+        private final long[] loansByType = new long[TYPES.length];
+        private int[] loansByMaterial = new int[0]; // by material key
+        private int[] top = new int[0];             // material keys, most borrowed first
+        private final long[] strikes = new long[STRIKE_BUCKETS];
+
+        // a report: live counters (from/to null) or a recomputed date range
+        static final class Report {
+            final LocalDate from;
+            final LocalDate to;
+            final long loans;
+            final long returns;
+            final long lateReturns;
+            final long activeLoans;
+            final long[] loansByType;
+            final List<String> topIds;      // most borrowed first
+            final List<Integer> topCounts;
+            final long[] strikes;           // borrowers per strike bucket (current, not ranged)
+
+            Report(LocalDate from, LocalDate to, long loans, long returns, long lateReturns, long activeLoans,
+                   long[] loansByType, List<String> topIds, List<Integer> topCounts, long[] strikes) {
+                this.from = from;
+                this.to = to;
+                this.loans = loans;
+                this.returns = returns;
+                this.lateReturns = lateReturns;
+                this.activeLoans = activeLoans;
+                this.loansByType = loansByType;
+                this.topIds = topIds;
+                this.topCounts = topCounts;
+                this.strikes = strikes;
+            }
+
+            double lateRate() { return returns == 0 ? 0 : (double) lateReturns / returns; }
+
+            void print(Library lib) {
+                String range = from == null && to == null ? "all time"
+                        : (from == null ? "first loan" : from.format(DATE_FMT)) + " to " + (to == null ? "latest loan" : to.format(DATE_FMT));
+                System.out.println("\n--- Circulation Report (" + range + ") ---");
+                System.out.printf("Loans: %,d | Active: %,d | Returned: %,d | Late returns: %,d (%.1f%%)%n",
+                        loans, activeLoans, returns, lateReturns, 100 * lateRate());
+                System.out.println("Loans by type:");
+                for (int i = 0; i < TYPES.length; i++) System.out.printf("  %-9s %,d%n", TYPES[i], loansByType[i]);
+                System.out.println("Top borrowed titles:");
+                if (topIds.isEmpty()) System.out.println("  (none)");
+                for (int i = 0; i < topIds.size(); i++) {
+                    Material m = lib.findMaterialById(topIds.get(i));
+                    System.out.printf("  %2d. %s (%s) - %,d loans%n", i + 1,
+                            m == null ? "(removed)" : m.getDisplayTitle(), topIds.get(i), topCounts.get(i));
+                }
+                System.out.printf("Borrowers by strikes: 0: %,d | 1: %,d | 2: %,d | 3+: %,d%n",
+                        strikes[0], strikes[1], strikes[2], strikes[3]);
+            }
+
+            String toJson() {
+                Json.ObjectBuilder types = new Json.ObjectBuilder();
+                for (int i = 0; i < TYPES.length; i++) types.raw(TYPES[i], Long.toString(loansByType[i]));
+                StringBuilder topJson = new StringBuilder("[");
+                for (int i = 0; i < topIds.size(); i++) {
+                    if (i > 0) topJson.append(',');
+                    topJson.append(new Json.ObjectBuilder().field("materialId", topIds.get(i)).field("loans", topCounts.get(i)).build());
+                }
+                Json.ObjectBuilder strikeJson = new Json.ObjectBuilder();
+                for (int i = 0; i < STRIKE_BUCKETS; i++) strikeJson.raw(i == STRIKE_BUCKETS - 1 ? i + "+" : Integer.toString(i), Long.toString(strikes[i]));
+                return new Json.ObjectBuilder()
+                        .field("from", from == null ? null : from.format(DATE_FMT))
+                        .field("to", to == null ? null : to.format(DATE_FMT))
+                        .raw("loans", Long.toString(loans))
+                        .raw("activeLoans", Long.toString(activeLoans))
+                        .raw("returns", Long.toString(returns))
+                        .raw("lateReturns", Long.toString(lateReturns))
+                        .raw("lateReturnRate", String.format(Locale.ROOT, "%.4f", lateRate()))
+                        .raw("loansByType", types.build())
+                        .raw("topBorrowed", topJson.append(']').toString())
+                        .raw("borrowersByStrikes", strikeJson.build())
+                        .build();
+            }
+        }
+
+        // -------- live counters --------
+
+        synchronized void loaned(Material m) {
+            loans++;
+            int type = typeIndex(m.getTypeTag());
+            if (type >= 0) loansByType[type]++;
+            int key = m.getKey();
+            if (key >= loansByMaterial.length) loansByMaterial = Arrays.copyOf(loansByMaterial, Math.max(key + 1, loansByMaterial.length * 2));
+            loansByMaterial[key]++;
+            promote(key);
+        }
+
+        synchronized void returned(boolean late) {
+            returns++;
+            if (late) lateReturns++;
+        }
+
+        synchronized void strikesChanged(int before, int after) {
+            strikes[bucket(before)]--;
+            strikes[bucket(after)]++;
+        }
+
+        synchronized void borrowerAdded(int violations) { strikes[bucket(violations)]++; }
+
+        synchronized void borrowerRemoved(int violations) { strikes[bucket(violations)]--; }
+
+        synchronized Report live(IdDictionary materialIds, long activeLoans) {
+            List<String> ids = new ArrayList<>(top.length);
+            List<Integer> counts = new ArrayList<>(top.length);
+            for (int key : top) {
+                ids.add(materialIds.get(key));
+                counts.add(loansByMaterial[key]);
+            }
+            return new Report(null, null, loans, returns, lateReturns, activeLoans,
+                    loansByType.clone(), ids, counts, strikes.clone());
+        }
+
+        // replaces the counters with a full recount (after loading)
+        synchronized void reset(Tally t, long[] strikeCounts) {
+            loans = t.loans;
+            returns = t.returns;
+            lateReturns = t.late;
+            System.arraycopy(t.byType, 0, loansByType, 0, loansByType.length);
+            loansByMaterial = t.byMaterial.clone();
+            top = topKeys(loansByMaterial, TOP);
+            System.arraycopy(strikeCounts, 0, strikes, 0, strikes.length);
+        }
+
+        // keeps top ordered after key's count went up by one
+        private void promote(int key) {
+            int pos = -1;
+            for (int i = 0; i < top.length; i++) if (top[i] == key) pos = i;
+            if (pos < 0) {
+                if (top.length < TOP) {
+                    top = Arrays.copyOf(top, top.length + 1);
+                } else if (loansByMaterial[top[top.length - 1]] >= loansByMaterial[key]) {
+                    return;
+                }
+                pos = top.length - 1;
+                top[pos] = key;
+            }
+            while (pos > 0 && loansByMaterial[top[pos - 1]] < loansByMaterial[key]) {
+                top[pos] = top[pos - 1];
+                top[--pos] = key;
+            }
+        }
+
+        // -------- full recount --------
+
+        // per-thread partial counts of a parallel pass
+        static final class Tally {
+            long loans, returns, late, open;
+            final long[] byType = new long[TYPES.length];
+            int[] byMaterial;
+
+            Tally(int materials) { byMaterial = new int[materials]; }
+
+            // o may cover more material keys (the dictionary grew between the two counts)
+            Tally merge(Tally o) {
+                loans += o.loans;
+                returns += o.returns;
+                late += o.late;
+                open += o.open;
+                for (int i = 0; i < byType.length; i++) byType[i] += o.byType[i];
+                if (o.byMaterial.length > byMaterial.length) byMaterial = Arrays.copyOf(byMaterial, o.byMaterial.length);
+                for (int i = 0; i < o.byMaterial.length; i++) byMaterial[i] += o.byMaterial[i];
+                return this;
+            }
+        }
+
+        // loans borrowed in [from, to] (null: unbounded); the caller holds the transactions monitor
+        static Tally tally(TransactionStore transactions, MaterialRepository materials, LocalDate from, LocalDate to) {
+            int materialCount = transactions.materialIds().size();
+            byte[] typeOf = typesByKey(materialCount, materials);
+            int fromDay = from == null ? Integer.MIN_VALUE : (int) from.toEpochDay();
+            int toDay = to == null ? Integer.MAX_VALUE : (int) to.toEpochDay();
+            // fixed row ranges scanned in parallel, so neither store builds a Transaction per loan
+            int rows = transactions.size(), chunk = 16_384;
+            java.util.stream.IntStream chunks = java.util.stream.IntStream.range(0, (rows + chunk - 1) / chunk);
+            if (rows >= 10_000) chunks = chunks.parallel();
+            return chunks.mapToObj(c -> {
+                Tally t = new Tally(materialCount);
+                transactions.scanRows(c * chunk, Math.min(rows, (c + 1) * chunk),
+                        (borrowerKey, materialKey, borrowedDay, dueDay, returned, returnedDay) ->
+                                count(t, materialKey, borrowedDay, dueDay, returned, returnedDay, typeOf, fromDay, toDay));
+                return t;
+            }).reduce(Tally::merge).orElseGet(() -> new Tally(materialCount));
+        }
+
+        // the same for the archived loans in segments: a segment entirely inside the range
+        // is added from its header, one straddling it is read block by block, an unreadable
+        // one is reported and left out
+        static Tally tallyArchived(TransactionArchive archive, List<TransactionArchive.Segment> segments,
+                                   IdDictionary materialIds, MaterialRepository materials, LocalDate from, LocalDate to) {
+            int materialCount = materialIds.size(); // segment materials were interned when opened
+            byte[] typeOf = typesByKey(materialCount, materials);
+            int fromDay = from == null ? Integer.MIN_VALUE : (int) from.toEpochDay();
+            int toDay = to == null ? Integer.MAX_VALUE : (int) to.toEpochDay();
+            Tally t = new Tally(materialCount);
+            for (TransactionArchive.Segment s : segments) {
+                if (s.maxBorrowedDay < fromDay || s.minBorrowedDay > toDay) continue;
+                if (s.minBorrowedDay >= fromDay && s.maxBorrowedDay <= toDay) {
+                    t.loans += s.rows;
+                    t.returns += s.rows;
+                    t.late += s.late;
+                    for (int i = 0; i < s.materialKeys.length; i++) {
+                        int key = s.materialKeys[i];
+                        t.byMaterial[key] += s.materialLoans[i];
+                        if (typeOf[key] > 0) t.byType[typeOf[key] - 1] += s.materialLoans[i];
+                    }
+                    continue;
+                }
+                try {
+                    archive.forEach(s, tx -> count(t, tx.getMaterialKey(), TransactionStore.epochDay(tx.getBorrowedDate()),
+                            TransactionStore.epochDay(tx.getDueDate()), tx.isReturned(),
+                            TransactionStore.epochDay(tx.getReturnedDate()), typeOf, fromDay, toDay));
+                } catch (IOException e) {
+                    System.err.println("Leaving " + s.file + " out of the count: " + e.getMessage());
+                }
+            }
+            return t;
+        }
+
+        // days are epoch days, NO_DATE when absent
+        private static void count(Tally t, int key, int borrowedDay, int dueDay, boolean returned, int returnedDay,
+                                  byte[] typeOf, int fromDay, int toDay) {
+            if (borrowedDay < fromDay || borrowedDay > toDay) return;
+            t.loans++;
+            if (key >= 0 && key < typeOf.length) {
+                t.byMaterial[key]++;
+                if (typeOf[key] > 0) t.byType[typeOf[key] - 1]++;
+            }
+            if (!returned) {
+                t.open++;
+            } else {
+                t.returns++;
+                if (returnedDay != TransactionStore.NO_DATE && dueDay != TransactionStore.NO_DATE && returnedDay > dueDay) t.late++;
+            }
+        }
+
+        // type index + 1 by material key, 0 = unknown/removed
+        private static byte[] typesByKey(int materialCount, MaterialRepository materials) {
+            byte[] typeOf = new byte[materialCount];
+            for (Material m : materials) {
+                if (m.getKey() < materialCount) typeOf[m.getKey()] = (byte) (typeIndex(m.getTypeTag()) + 1);
+            }
+            return typeOf;
+        }
+
+        static long[] strikeCounts(BorrowerRepository borrowers) {
+            long[] counts = new long[STRIKE_BUCKETS];
+            for (Borrower b : borrowers) counts[bucket(b.getViolations())]++;
+            return counts;
+        }
+
+        static Report report(Tally t, IdDictionary materialIds, LocalDate from, LocalDate to, long[] strikeCounts) {
+            List<String> ids = new ArrayList<>();
+            List<Integer> counts = new ArrayList<>();
+            for (int key : topKeys(t.byMaterial, TOP)) {
+                ids.add(materialIds.get(key));
+                counts.add(t.byMaterial[key]);
+            }
+            return new Report(from, to, t.loans, t.returns, t.late, t.open, t.byType.clone(), ids, counts, strikeCounts);
+        }
+
+        // keys of the n largest non-zero counts, largest first (ties: lower key)
+        private static int[] topKeys(int[] counts, int n) {
+            int[] best = new int[0];
+            for (int key = 0; key < counts.length; key++) {
+                if (counts[key] == 0) continue;
+                if (best.length == n && counts[best[n - 1]] >= counts[key]) continue;
+                if (best.length < n) best = Arrays.copyOf(best, best.length + 1);
+                int pos = best.length - 1;
+                while (pos > 0 && counts[best[pos - 1]] < counts[key]) {
+                    best[pos] = best[pos - 1];
+                    pos--;
+                }
+                best[pos] = key;
+            }
+            return best;
+        }
+
+        private static int typeIndex(String tag) {
+            for (int i = 0; i < TYPES.length; i++) if (TYPES[i].equals(tag)) return i;
+            return -1;
+        }
+
+        private static int bucket(int violations) {
+            return Math.max(0, Math.min(violations, STRIKE_BUCKETS - 1));
+        }
+    }
+
+    // -------------------------
+    // Due-date sweep (--overdue-sweep[=FILE]): the open loans that are overdue on a day and
+    // those due the day after, read from the stores' due-date index. Meant for a nightly
+    // job; the CSV is one row per loan with the borrower's contact details for reminders.
+    // -------------------------
+    static final class DueDateSweep {
+        final LocalDate day;
+        final List<Transaction> overdue;     // due before day, earliest first
+        final List<Transaction> dueTomorrow;
+
+        DueDateSweep(LocalDate day, List<Transaction> overdue, List<Transaction> dueTomorrow) {
+            this.day = day;
+            this.overdue = overdue;
+            this.dueTomorrow = dueTomorrow;
+        }
+
+        static void report(Library lib, LocalDate day, String file) throws IOException {
+            long start = System.nanoTime();
+            DueDateSweep sweep = lib.sweepDueDates(day);
+            try (BufferedWriter w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+                w.write("status,daysOverdue,dueDate,transactionId,borrowerId,borrower,contactNumber,email,materialId,title");
+                w.newLine();
+                for (Transaction t : sweep.overdue) write(w, lib, "OVERDUE", t, day);
+                for (Transaction t : sweep.dueTomorrow) write(w, lib, "DUE_TOMORROW", t, day);
+            }
+            System.out.printf("%s: %,d overdue, %,d due tomorrow (of %,d open loans) in %d ms; see %s%n",
+                    day, sweep.overdue.size(), sweep.dueTomorrow.size(), lib.openLoanCount(),
+                    (System.nanoTime() - start) / 1_000_000, file);
+        }
+
+        private static void write(BufferedWriter w, Library lib, String status, Transaction t, LocalDate day) throws IOException {
+            Borrower b = lib.findBorrowerById(t.getBorrowerId());
+            Material m = lib.findMaterialById(t.getMaterialId());
+            long late = Math.max(0, day.toEpochDay() - t.getDueDate().toEpochDay());
+            w.write(status + "," + late + "," + t.getDueDate().format(DATE_FMT) + ","
+                    + BulkImport.quoteCsv(t.getId()) + "," + BulkImport.quoteCsv(t.getBorrowerId()) + ","
+                    + BulkImport.quoteCsv(b == null ? "" : b.getFullName()) + ","
+                    + BulkImport.quoteCsv(b == null ? "" : b.getContactNumber()) + ","
+                    + BulkImport.quoteCsv(b == null ? "" : b.getEmail()) + ","
+                    + BulkImport.quoteCsv(t.getMaterialId()) + ","
+                    + BulkImport.quoteCsv(m == null ? "" : m.getDisplayTitle()));
+            w.newLine();
+        }
+    }
+
+    // -------------------------
+    // HTTP/JSON service (--serve[=port]) on the JDK's built-in server. Every request runs
+    // on its own thread against the thread-safe Library operations:
+    //   GET/POST         /borrowers              list / add
+    //   GET/PUT/DELETE   /borrowers/{id}         read / update (fields given) / delete
+    //   GET              /borrowers/{id}/history
+    //   GET/POST         /materials, /materials/{id}, /materials/{id}/history (same shape)
+    //   GET              /materials?q=...&limit=20   ranked search (MaterialSearchIndex syntax)
+    //   POST             /loans    {"borrowerId", "materialId"}   borrow
+    //   GET              /loans?due=overdue|tomorrow             open loans from the due-date sweep
+    //   GET              /stats[?from=yyyy-MM-dd&to=yyyy-MM-dd]  circulation report (a range recounts)
+    //   POST             /returns  {"borrowerId"}                 return the active loan
+    // Errors are {"error": "..."} with 400 (bad input), 404, 405, 409 (refused) or 413 (a
+    // request body over 64 KB).
+    // -------------------------
+    static final class LibraryServer {
+        private static final int MAX_BODY = 64 << 10;
+
+        private final Library lib;
+        private final HttpServer server;
+        private final ExecutorService executor;
+
+        private LibraryServer(Library lib, HttpServer server, ExecutorService executor) {
+            this.lib = lib;
+            this.server = server;
+            this.executor = executor;
+        }
+
+        static LibraryServer start(Library lib, InetSocketAddress address, int backlog) throws IOException {
+            // the server writes headers and body separately; with Nagle on, each small
+            // response waits for the client's delayed ACK (~40 ms). Read once, at first use.
+            if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+                System.setProperty("sun.net.httpserver.nodelay", "true");
+            }
+            HttpServer server = HttpServer.create(address, backlog);
+            ExecutorService executor = threadPerRequestExecutor();
+            LibraryServer s = new LibraryServer(lib, server, executor);
+            server.createContext("/borrowers", s::borrowers);
+            server.createContext("/materials", s::materials);
+            server.createContext("/loans", s::loans);
+            server.createContext("/returns", s::returns);
+            server.createContext("/stats", s::stats);
+            server.setExecutor(executor);
+            server.start();
+            return s;
+        }
+
+        int port() { return server.getAddress().getPort(); }
+
+        void stop() {
+            server.stop(1);
+            executor.shutdown();
+        }
+
+        // a virtual thread per request where the runtime has them (Java 21+), otherwise a
+        // cached pool that likewise gives each in-flight request its own thread
+        static ExecutorService threadPerRequestExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newCachedThreadPool();
+            }
+        }
+
+        // -------- /borrowers --------
+        private void borrowers(HttpExchange ex) throws IOException {
+            respond(ex, () -> {
+                String[] path = segments(ex);
+                String method = ex.getRequestMethod();
+                if (path.length == 1) {
+                    if (method.equals("GET")) {
+                        StringBuilder out = new StringBuilder("[");
+                        for (Borrower b : lib.borrowers) {
+                            if (out.length() > 1) out.append(',');
+                            out.append(borrowerJson(b));
+                        }
+                        return ok(out.append(']').toString());
+                    }
+                    if (method.equals("POST")) return addBorrower(Json.parseObject(body(ex)));
+                    return notAllowed();
+                }
+                String id = path[1];
+                if (path.length == 3 && path[2].equals("history")) {
+                    if (!method.equals("GET")) return notAllowed();
+                    Borrower b = lib.findBorrowerById(id);
+                    if (b == null) return error(404, "Borrower not found.");
+                    return ok(transactionsJson(lib.borrowerHistory(b)));
+                }
+                if (path.length != 2) return error(404, "No such resource.");
+                switch (method) {
+                    case "GET": {
+                        Borrower b = lib.findBorrowerById(id);
+                        return b == null ? error(404, "Borrower not found.") : ok(borrowerJson(b));
+                    }
+                    case "PUT": return updateBorrower(id, Json.parseObject(body(ex)));
+                    case "DELETE": return removed(lib.removeBorrower(id), "Borrower not found.",
+                            "Borrower has active borrowed materials and cannot be deleted.");
+                    default: return notAllowed();
+                }
+            });
+        }
+
+        private Response addBorrower(Map<String, Object> in) {
+            String id = Json.requireString(in, "id");
+            String first = Json.requireString(in, "firstName");
+            String middle = Json.optString(in, "middleName", "");
+            String last = Json.requireString(in, "lastName");
+            String gender = Json.requireString(in, "gender");
+            LocalDate birthday = Json.optDate(in, "birthday");
+            String contact = Json.requireString(in, "contactNumber");
+            String email = Json.requireString(in, "email");
+            String address = Json.requireString(in, "address");
+            if (birthday == null) return error(400, "birthday is required.");
+            String invalid = validateBorrower(first, middle, last, gender, contact, email);
+            if (invalid != null) return error(400, invalid);
+            if (lib.isRegistered(first, last, email)) return error(409, "This borrower seems already registered (same name & email).");
+            List<DuplicateIndex.Match> similar = lib.possibleDuplicates(first, last, birthday, null);
+            if (!similar.isEmpty() && !Json.optBoolean(in, "allowDuplicate", false)) {
+                StringBuilder ids = new StringBuilder("[");
+                for (DuplicateIndex.Match m : similar) {
+                    if (ids.length() > 1) ids.append(',');
+                    ids.append(Json.quote(m.otherId));
+                }
+                return new Response(409, new Json.ObjectBuilder()
+                        .field("error", "Possible duplicate borrower (same birthday, same or similar name); "
+                                + "send \"allowDuplicate\": true to add anyway.")
+                        .raw("possibleDuplicates", ids.append(']').toString())
+                        .build());
+            }
+            Borrower b = new Borrower(id, first, middle, last, gender.toUpperCase(), birthday, contact, email, address, 0);
+            if (!lib.insertBorrower(b)) return error(409, "Borrower with this ID already exists.");
+            return new Response(201, borrowerJson(b));
+        }
+
+        private Response updateBorrower(String id, Map<String, Object> in) {
+            String first = Json.optString(in, "firstName", null);
+            String middle = Json.optString(in, "middleName", null);
+            String last = Json.optString(in, "lastName", null);
+            String gender = Json.optString(in, "gender", null);
+            LocalDate birthday = Json.optDate(in, "birthday");
+            String contact = Json.optString(in, "contactNumber", null);
+            String email = Json.optString(in, "email", null);
+            String address = Json.optString(in, "address", null);
+            String invalid = validateBorrower(first, middle, last, gender, contact, email);
+            if (invalid != null) return error(400, invalid);
+            Borrower[] updated = new Borrower[1];
+            boolean found = lib.updateBorrower(id, b -> {
+                if (first != null) b.setFirstName(first);
+                if (middle != null) b.setMiddleName(middle);
+                if (last != null) b.setLastName(last);
+                if (gender != null) b.setGender(gender.toUpperCase());
+                if (birthday != null) b.setBirthday(birthday);
+                if (contact != null) b.setContactNumber(contact);
+                if (email != null) b.setEmail(email);
+                if (address != null) b.setAddress(address);
+                updated[0] = b;
+            });
+            return found ? ok(borrowerJson(updated[0])) : error(404, "Borrower not found.");
+        }
+
+        // null when every given (non-null) field is valid; middle name may be empty
+        private static String validateBorrower(String first, String middle, String last, String gender,
+                                               String contact, String email) {
+            if (first != null && !Validators.name(first)) return "Invalid first name.";
+            if (middle != null && !middle.isEmpty() && !Validators.name(middle)) return "Invalid middle name.";
+            if (last != null && !Validators.name(last)) return "Invalid last name.";
+            if (gender != null && !Validators.gender(gender)) return "Gender must be M or F.";
+            if (contact != null && !Validators.phone(contact)) return "Phone must contain digits only (7-15 digits).";
+            if (email != null && !Validators.email(email)) return "Invalid email format.";
+            return null;
+        }
+
+        // -------- /materials --------
+        private void materials(HttpExchange ex) throws IOException {
+            respond(ex, () -> {
+                String[] path = segments(ex);
+                String method = ex.getRequestMethod();
+                if (path.length == 1) {
+                    if (method.equals("GET")) {
+                        Map<String, String> params = queryParams(ex);
+                        Iterable<Material> list = lib.materials;
+                        if (params.containsKey("q")) {
+                            int limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : 20;
+                            list = lib.searchMaterials(params.get("q"), limit);
+                        }
+                        StringBuilder out = new StringBuilder("[");
+                        for (Material m : list) {
+                            if (out.length() > 1) out.append(',');
+                            out.append(materialJson(m));
+                        }
+                        return ok(out.append(']').toString());
+                    }
+                    if (method.equals("POST")) return addMaterial(Json.parseObject(body(ex)));
+                    return notAllowed();
+                }
+                String id = path[1];
+                if (path.length == 3 && path[2].equals("history")) {
+                    if (!method.equals("GET")) return notAllowed();
+                    Material m = lib.findMaterialById(id);
+                    if (m == null) return error(404, "Material not found.");
+                    return ok(transactionsJson(lib.materialHistory(m)));
+                }
+                if (path.length != 2) return error(404, "No such resource.");
+                switch (method) {
+                    case "GET": {
+                        Material m = lib.findMaterialById(id);
+                        return m == null ? error(404, "Material not found.") : ok(materialJson(m));
+                    }
+                    case "PUT": return updateMaterial(id, Json.parseObject(body(ex)));
+                    case "DELETE": return removed(lib.removeMaterial(id), "Material not found.",
+                            "This material has active borrowings and cannot be deleted.");
+                    default: return notAllowed();
+                }
+            });
+        }
+
+        private Response addMaterial(Map<String, Object> in) {
+            String type = Json.requireString(in, "type").toUpperCase();
+            String id = Json.requireString(in, "id");
+            String title = Json.requireString(in, "title");
+            String author = Json.optString(in, "author", null);
+            int year = Json.requireInt(in, "yearPublished");
+            String publisher = Json.requireString(in, "publisher");
+            int copies = Json.requireInt(in, "totalCopies");
+            if ((type.equals("BOOK") || type.equals("THESIS")) && (author == null || author.isBlank())) {
+                return error(400, "author is required for " + type + ".");
+            }
+            Material m;
+            try {
+                m = Library.newMaterial(type, id, title, author, year, publisher, copies);
+            } catch (IllegalArgumentException e) {
+                return error(400, "type must be BOOK, JOURNAL, MAGAZINE or THESIS.");
+            }
+            if (!lib.insertMaterial(m)) return error(409, "Material with this ID already exists.");
+            return new Response(201, materialJson(m));
+        }
+
+        private Response updateMaterial(String id, Map<String, Object> in) {
+            String title = Json.optString(in, "title", null);
+            String author = Json.optString(in, "author", null);
+            String publisher = Json.optString(in, "publisher", null);
+            Integer year = Json.optInt(in, "yearPublished");
+            Integer copies = Json.optInt(in, "totalCopies");
+            Material[] updated = new Material[1];
+            boolean found = lib.updateMaterial(id, m -> {
+                if (title != null) m.setTitle(title);
+                if (author != null) m.setAuthor(author);
+                if (publisher != null) m.setPublisher(publisher);
+                if (year != null) m.setYearPublished(year);
+                if (copies != null) m.setTotalCopies(copies);
+                updated[0] = m;
+            });
+            return found ? ok(materialJson(updated[0])) : error(404, "Material not found.");
+        }
+
+        // -------- /loans, /returns --------
+        private void loans(HttpExchange ex) throws IOException {
+            respond(ex, () -> {
+                if (segments(ex).length != 1) return error(404, "No such resource.");
+                if (ex.getRequestMethod().equals("GET")) {
+                    String due = queryParams(ex).get("due");
+                    DueDateSweep sweep = lib.sweepDueDates(LocalDate.now());
+                    if ("overdue".equals(due)) return ok(transactionsJson(sweep.overdue));
+                    if ("tomorrow".equals(due)) return ok(transactionsJson(sweep.dueTomorrow));
+                    return error(400, "due must be overdue or tomorrow.");
+                }
+                if (!ex.getRequestMethod().equals("POST")) return notAllowed();
+                Map<String, Object> in = Json.parseObject(body(ex));
+                CirculationResult r = lib.borrow(Json.requireString(in, "borrowerId"),
+                        Json.requireString(in, "materialId"), LocalDate.now());
+                if (r.status != CirculationResult.Status.OK) return refused(r.status);
+                return new Response(201, transactionJson(r.transaction));
+            });
+        }
+
+        private void returns(HttpExchange ex) throws IOException {
+            respond(ex, () -> {
+                if (segments(ex).length != 1) return error(404, "No such resource.");
+                if (!ex.getRequestMethod().equals("POST")) return notAllowed();
+                Map<String, Object> in = Json.parseObject(body(ex));
+                CirculationResult r = lib.returnLoan(Json.requireString(in, "borrowerId"), LocalDate.now());
+                if (r.status != CirculationResult.Status.OK) return refused(r.status);
+                return ok(new Json.ObjectBuilder()
+                        .raw("transaction", transactionJson(r.transaction))
+                        .field("late", r.late)
+                        .field("strikes", r.strikes)
+                        .build());
+            });
+        }
+
+        // -------- /stats --------
+        private void stats(HttpExchange ex) throws IOException {
+            respond(ex, () -> {
+                if (segments(ex).length != 1) return error(404, "No such resource.");
+                if (!ex.getRequestMethod().equals("GET")) return notAllowed();
+                Map<String, String> params = queryParams(ex);
+                if (!params.containsKey("from") && !params.containsKey("to")) return ok(lib.liveStats().toJson());
+                LocalDate from = params.containsKey("from") ? LocalDate.parse(params.get("from")) : null;
+                LocalDate to = params.containsKey("to") ? LocalDate.parse(params.get("to")) : null;
+                return ok(lib.statsFor(from, to).toJson());
+            });
+        }
+
+        private static Response refused(CirculationResult.Status status) {
+            switch (status) {
+                case BORROWER_NOT_FOUND:
+                case MATERIAL_NOT_FOUND:
+                case NO_ACTIVE_LOAN:
+                    return error(404, status.message);
+                default:
+                    return error(409, status.message);
+            }
+        }
+
+        private static Response removed(Library.RemoveResult result, String notFound, String hasLoans) {
+            switch (result) {
+                case NOT_FOUND: return error(404, notFound);
+                case HAS_ACTIVE_LOANS: return error(409, hasLoans);
+                default: return new Response(204, null);
+            }
+        }
+
+        // -------- JSON views --------
+        private static String borrowerJson(Borrower b) {
+            return new Json.ObjectBuilder()
+                    .field("id", b.getId())
+                    .field("firstName", b.getFirstName())
+                    .field("middleName", b.getMiddleName())
+                    .field("lastName", b.getLastName())
+                    .field("gender", b.getGender())
+                    .field("birthday", b.getBirthday().format(DATE_FMT))
+                    .field("contactNumber", b.getContactNumber())
+                    .field("email", b.getEmail())
+                    .field("address", b.getAddress())
+                    .field("violations", b.getViolations())
+                    .build();
+        }
+
+        private static String materialJson(Material m) {
+            return new Json.ObjectBuilder()
+                    .field("id", m.getId())
+                    .field("type", m.getTypeTag())
+                    .field("title", m.getTitle())
+                    .field("author", m.getAuthor())
+                    .field("yearPublished", m.getYearPublished())
+                    .field("publisher", m.getPublisher())
+                    .field("totalCopies", m.getTotalCopies())
+                    .field("availableCopies", m.getAvailableCopies())
+                    .field("loanDays", m.getLoanDays())
+                    .build();
+        }
+
+        private static String transactionJson(Transaction t) {
+            return new Json.ObjectBuilder()
+                    .field("id", t.getId())
+                    .field("borrowerId", t.getBorrowerId())
+                    .field("materialId", t.getMaterialId())
+                    .field("borrowedDate", t.getBorrowedDate().format(DATE_FMT))
+                    .field("dueDate", t.getDueDate().format(DATE_FMT))
+                    .field("returned", t.isReturned())
+                    .field("returnedDate", t.getReturnedDate() == null ? null : t.getReturnedDate().format(DATE_FMT))
+                    .build();
+        }
+
+        private static String transactionsJson(List<Transaction> list) {
+            StringBuilder out = new StringBuilder("[");
+            for (Transaction t : list) {
+                if (out.length() > 1) out.append(',');
+                out.append(transactionJson(t));
+            }
+            return out.append(']').toString();
+        }
+
+        // -------- plumbing --------
+        private static final class Response {
+            final int status;
+            final String json; // null for an empty body
+
+            Response(int status, String json) {
+                this.status = status;
+                this.json = json;
+            }
+        }
+
+        private interface Handler { Response handle() throws IOException; }
+
+        private static final class BodyTooLarge extends IOException {
+            private static final long serialVersionUID = 1L;
+
+            BodyTooLarge() { super("Request body is larger than " + (MAX_BODY >> 10) + " KB."); }
+        }
+
+        private static Response ok(String json) { return new Response(200, json); }
+        private static Response notAllowed() { return error(405, "Method not allowed."); }
+
+        private static Response error(int status, String message) {
+            return new Response(status, new Json.ObjectBuilder().field("error", message).build());
+        }
+
+        private static void respond(HttpExchange ex, Handler handler) throws IOException {
+            Response r;
+            try {
+                r = handler.handle();
+            } catch (IllegalArgumentException | java.time.DateTimeException e) {
+                // malformed JSON, missing/mistyped fields, bad dates
+                r = error(400, e.getMessage());
+            } catch (BodyTooLarge e) {
+                r = error(413, e.getMessage());
+            } catch (RuntimeException | IOException e) {
+                r = error(500, "Internal error: " + e.getMessage());
+            }
+            try {
+                if (r.json == null) {
+                    ex.sendResponseHeaders(r.status, -1);
+                } else {
+                    byte[] bytes = r.json.getBytes(StandardCharsets.UTF_8);
+                    ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                    ex.sendResponseHeaders(r.status, bytes.length);
+                    try (OutputStream out = ex.getResponseBody()) {
+                        out.write(bytes);
+                    }
+                }
+            } finally {
+                ex.close();
+            }
+        }
+
+        // "/borrowers/B1/history" -> [borrowers, B1, history] (already URL-decoded)
+        private static String[] segments(HttpExchange ex) {
+            String path = ex.getRequestURI().getPath();
+            return Arrays.stream(path.split("/")).filter(p -> !p.isEmpty()).toArray(String[]::new);
+        }
+
+        // ?a=1&b=x+y, decoded; a repeated name keeps its last value
+        private static Map<String, String> queryParams(HttpExchange ex) {
+            Map<String, String> params = new HashMap<>();
+            String query = ex.getRequestURI().getRawQuery();
+            if (query == null) return params;
+            for (String pair : query.split("&")) {
+                if (pair.isEmpty()) continue;
+                int eq = pair.indexOf('=');
+                String name = eq < 0 ? pair : pair.substring(0, eq);
+                String value = eq < 0 ? "" : pair.substring(eq + 1);
+                params.put(java.net.URLDecoder.decode(name, StandardCharsets.UTF_8),
+                        java.net.URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+            return params;
+        }
+
+        // at most MAX_BODY bytes: a larger declared length is refused unread, and a chunked
+        // body is cut off one byte past the limit
+        private static String body(HttpExchange ex) throws IOException {
+            String length = ex.getRequestHeaders().getFirst("Content-Length");
+            if (length != null) {
+                try {
+                    if (Long.parseLong(length.trim()) > MAX_BODY) throw new BodyTooLarge();
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid Content-Length.");
+                }
+            }
+            try (InputStream in = ex.getRequestBody()) {
+                byte[] data = in.readNBytes(MAX_BODY + 1);
+                if (data.length > MAX_BODY) throw new BodyTooLarge();
+                return new String(data, StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    // -------------------------
+    // Minimal JSON: writes objects and parses one flat object of strings, numbers,
+    // booleans and nulls (all the service accepts). Errors are IllegalArgumentException.
+    // -------------------------
+    static final class Json {
+        static final class ObjectBuilder {
+            private final StringBuilder out = new StringBuilder("{");
+
+            ObjectBuilder field(String name, String value) {
+                return raw(name, value == null ? "null" : quote(value));
+            }
+
+            ObjectBuilder field(String name, int value) { return raw(name, Integer.toString(value)); }
+            ObjectBuilder field(String name, boolean value) { return raw(name, Boolean.toString(value)); }
+
+            // value is already JSON
+            ObjectBuilder raw(String name, String json) {
+                if (out.length() > 1) out.append(',');
+                out.append(quote(name)).append(':').append(json);
+                return this;
+            }
+
+            String build() { return out.append('}').toString(); }
+        }
+
+        static String quote(String s) {
+            StringBuilder out = new StringBuilder(s.length() + 2).append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"': out.append("\\\""); break;
+                    case '\\': out.append("\\\\"); break;
+                    case '\n': out.append("\\n"); break;
+                    case '\r': out.append("\\r"); break;
+                    case '\t': out.append("\\t"); break;
+                    default:
+                        if (c < 0x20) out.append(String.format("\\u%04x", (int) c));
+                        else out.append(c);
+                }
+            }
+            return out.append('"').toString();
+        }
+
+        // values are String, Long, Double, Boolean or null
+        static Map<String, Object> parseObject(String text) {
+            Parser p = new Parser(text);
+            Map<String, Object> out = new LinkedHashMap<>();
+            p.expect('{');
+            if (!p.consume('}')) {
+                do {
+                    String name = p.string();
+                    p.expect(':');
+                    out.put(name, p.value());
+                } while (p.consume(','));
+                p.expect('}');
+            }
+            p.skipSpace();
+            if (p.pos != text.length()) throw new IllegalArgumentException("Trailing characters after JSON object.");
+            return out;
+        }
+
+        static String requireString(Map<String, Object> in, String name) {
+            String s = optString(in, name, null);
+            if (s == null || s.isBlank()) throw new IllegalArgumentException(name + " is required.");
+            return s.trim();
+        }
+
+        static String optString(Map<String, Object> in, String name, String fallback) {
+            Object v = in.get(name);
+            if (v == null) return fallback;
+            if (!(v instanceof String)) throw new IllegalArgumentException(name + " must be a string.");
+            return (String) v;
+        }
+
+        static boolean optBoolean(Map<String, Object> in, String name, boolean fallback) {
+            Object v = in.get(name);
+            if (v == null) return fallback;
+            if (!(v instanceof Boolean)) throw new IllegalArgumentException(name + " must be true or false.");
+            return (Boolean) v;
+        }
+
+        static int requireInt(Map<String, Object> in, String name) {
+            Integer v = optInt(in, name);
+            if (v == null) throw new IllegalArgumentException(name + " is required.");
+            return v;
+        }
+
+        static Integer optInt(Map<String, Object> in, String name) {
+            Object v = in.get(name);
+            if (v == null) return null;
+            if (!(v instanceof Long) || (Long) v < Integer.MIN_VALUE || (Long) v > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(name + " must be an integer.");
+            }
+            return ((Long) v).intValue();
+        }
+
+        // yyyy-MM-dd
+        static LocalDate optDate(Map<String, Object> in, String name) {
+            String s = optString(in, name, null);
+            return s == null || s.isBlank() ? null : LocalDate.parse(s.trim());
+        }
+
+        private static final class Parser {
+            private final String s;
+            private int pos;
+
+            Parser(String s) { this.s = s; }
+
+            Object value() {
+                skipSpace();
+                if (pos >= s.length()) throw new IllegalArgumentException("Unexpected end of JSON.");
+                char c = s.charAt(pos);
+                if (c == '"') return string();
+                if (s.startsWith("true", pos)) { pos += 4; return Boolean.TRUE; }
+                if (s.startsWith("false", pos)) { pos += 5; return Boolean.FALSE; }
+                if (s.startsWith("null", pos)) { pos += 4; return null; }
+                if (c == '-' || (c >= '0' && c <= '9')) return number();
+                throw new IllegalArgumentException("Unsupported JSON value at offset " + pos + ".");
+            }
+
+            String string() {
+                expect('"');
+                StringBuilder out = new StringBuilder();
+                while (true) {
+                    if (pos >= s.length()) throw new IllegalArgumentException("Unterminated JSON string.");
+                    char c = s.charAt(pos++);
+                    if (c == '"') return out.toString();
+                    if (c != '\\') {
+                        out.append(c);
+                        continue;
+                    }
+                    if (pos >= s.length()) throw new IllegalArgumentException("Unterminated JSON string.");
+                    char e = s.charAt(pos++);
+                    switch (e) {
+                        case 'n': out.append('\n'); break;
+                        case 'r': out.append('\r'); break;
+                        case 't': out.append('\t'); break;
+                        case 'b': out.append('\b'); break;
+                        case 'f': out.append('\f'); break;
+                        case 'u':
+                            if (pos + 4 > s.length()) throw new IllegalArgumentException("Bad \\u escape.");
+                            out.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                            pos += 4;
+                            break;
+                        default: out.append(e); // \" \\ \/
+                    }
+                }
+            }
+
+            private Object number() {
+                int start = pos;
+                while (pos < s.length() && "+-0123456789.eE".indexOf(s.charAt(pos)) >= 0) pos++;
+                String n = s.substring(start, pos);
+                return n.contains(".") || n.contains("e") || n.contains("E") ? (Object) Double.parseDouble(n) : (Object) Long.parseLong(n);
+            }
+
+            void expect(char c) {
+                if (!consume(c)) throw new IllegalArgumentException("Expected '" + c + "' at offset " + pos + ".");
+            }
+
+            boolean consume(char c) {
+                skipSpace();
+                if (pos < s.length() && s.charAt(pos) == c) {
+                    pos++;
+                    return true;
+                }
+                return false;
+            }
+
+            void skipSpace() {
+                while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+            }
+        }
+    }
+
+    // -------------------------
+    // Operation metrics (--metrics): latency histogram, count, errors and bytes written
+    // for each library operation (borrow, return, borrower/material add/edit/delete,
+    // both histories, every load and save), timed inside the Library so the menu and
+    // the HTTP server are both covered without counting the time spent at a prompt.
+    // Published as MXBeans under "LibrarySystem:" (jconsole, jcmd) and printed by the
+    // hidden menu command "metrics". Off by default: start() and stop() then only
+    // test a final boolean.
+    // -------------------------
+    public interface OperationMXBean {
+        long getCount();
+        long getErrors();
+        long getBytesWritten();
+        double getThroughputPerSecond();
+        double getMeanMillis();
+        double getP50Millis();
+        double getP90Millis();
+        double getP99Millis();
+        double getP999Millis();
+        double getMaxMillis();
+        void reset();
+    }
+
+    public interface OperationsMXBean {
+        // exceptions that reached the menu loop instead of being handled by an operation
+        long getUnhandledErrors();
+        String getReport();
+        void reset();
+    }
+
+    static final class OperationMetrics implements OperationsMXBean {
+        enum Op {
+            BORROW("borrow"), RETURN("return"),
+            ADD_BORROWER("borrower.add"), EDIT_BORROWER("borrower.edit"), DELETE_BORROWER("borrower.delete"),
+            ADD_MATERIAL("material.add"), EDIT_MATERIAL("material.edit"), DELETE_MATERIAL("material.delete"),
+            BORROWER_HISTORY("history.borrower"), MATERIAL_HISTORY("history.material"),
+            LOAD_SNAPSHOT("load.snapshot"), LOAD_BORROWERS("load.borrowers"), LOAD_MATERIALS("load.materials"),
+            LOAD_TRANSACTIONS("load.transactions"),
+            SAVE_SNAPSHOT("save.snapshot"), SAVE_BORROWERS("save.borrowers"), SAVE_MATERIALS("save.materials"),
+            SAVE_TRANSACTIONS("save.transactions");
+
+            final String label;
+
+            Op(String label) { this.label = label; }
+        }
+
+        static final OperationMetrics DISABLED = new OperationMetrics(false);
+
+        private final boolean enabled;
+        private final Operation[] ops = new Operation[Op.values().length];
+        private final LongAdder unhandled = new LongAdder();
+        private volatile long since = System.nanoTime();
+        private volatile LocalDateTime sinceTime = LocalDateTime.now();
+
+        OperationMetrics(boolean enabled) {
+            this.enabled = enabled;
+            for (Op op : Op.values()) ops[op.ordinal()] = new Operation();
+        }
+
+        boolean enabled() { return enabled; }
+
+        // pass the result to stop(); 0 when disabled
+        long start() {
+            return enabled ? System.nanoTime() : 0;
+        }
+
+        void stop(Op op, long started) {
+            if (enabled) ops[op.ordinal()].latency.record(System.nanoTime() - started);
+        }
+
+        // a whole-file write: file's new size counts as bytes written
+        void stop(Op op, long started, String file) {
+            if (!enabled) return;
+            Operation o = ops[op.ordinal()];
+            o.latency.record(System.nanoTime() - started);
+            o.bytes.add(new File(file).length());
+        }
+
+        void error(Op op) {
+            if (enabled) ops[op.ordinal()].errors.increment();
+        }
+
+        void unhandledError() {
+            if (enabled) unhandled.increment();
+        }
+
+        // registers one MXBean per operation plus the summary; replaces earlier registrations
+        void register() {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                register(server, new ObjectName("LibrarySystem:type=Operations"), this);
+                for (Op op : Op.values()) {
+                    register(server, new ObjectName("LibrarySystem:type=Operation,name=" + op.label), ops[op.ordinal()]);
+                }
+            } catch (JMException e) {
+                System.err.println("Failed to publish operation metrics over JMX: " + e.getMessage());
+            }
+        }
+
+        private static void register(MBeanServer server, ObjectName name, Object bean) throws JMException {
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(bean, name);
+        }
+
+        @Override
+        public long getUnhandledErrors() { return unhandled.sum(); }
+
+        @Override
+        public void reset() {
+            for (Operation o : ops) o.clear();
+            unhandled.reset();
+            since = System.nanoTime();
+            sinceTime = LocalDateTime.now();
+        }
+
+        @Override
+        public String getReport() {
+            double seconds = (System.nanoTime() - since) / 1e9;
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("--- Operation Metrics (since %s, %.1f s) ---%n",
+                    sinceTime.withNano(0).toString().replace('T', ' '), seconds));
+            if (!enabled) return sb.append("Off; start with --metrics.").append(System.lineSeparator()).toString();
+            sb.append(String.format("%-18s %9s %6s %9s %9s %9s %9s %9s %9s %9s %12s%n", "operation", "count", "errors",
+                    "ops/s", "mean ms", "p50", "p90", "p99", "p99.9", "max", "bytes"));
+            for (Op op : Op.values()) {
+                Operation o = ops[op.ordinal()];
+                long count = o.getCount();
+                if (count == 0 && o.getErrors() == 0) continue;
+                sb.append(String.format("%-18s %,9d %6d %9.1f %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f %,12d%n", op.label,
+                        count, o.getErrors(), count / seconds, o.getMeanMillis(), o.getP50Millis(), o.getP90Millis(),
+                        o.getP99Millis(), o.getP999Millis(), o.getMaxMillis(), o.getBytesWritten()));
+            }
+            sb.append(String.format("Unhandled errors (menu): %d%n", unhandled.sum()));
+            return sb.toString();
+        }
+
+        private final class Operation implements OperationMXBean {
+            final LatencyRecorder latency = new LatencyRecorder();
+            final LongAdder errors = new LongAdder();
+            final LongAdder bytes = new LongAdder();
+
+            void clear() {
+                latency.clear();
+                errors.reset();
+                bytes.reset();
+            }
+
+            @Override public long getCount() { return latency.count(); }
+            @Override public long getErrors() { return errors.sum(); }
+            @Override public long getBytesWritten() { return bytes.sum(); }
+            @Override public double getThroughputPerSecond() { return getCount() / ((System.nanoTime() - since) / 1e9); }
+            @Override public double getMeanMillis() { return latency.mean() / 1e6; }
+            @Override public double getP50Millis() { return latency.percentile(0.50) / 1e6; }
+            @Override public double getP90Millis() { return latency.percentile(0.90) / 1e6; }
+            @Override public double getP99Millis() { return latency.percentile(0.99) / 1e6; }
+            @Override public double getP999Millis() { return latency.percentile(0.999) / 1e6; }
+            @Override public double getMaxMillis() { return latency.max() / 1e6; }
+            @Override public void reset() { clear(); }
+        }
+    }
+
+    // log-linear histogram: 8 sub-buckets per power of two (about 12% resolution)
+    static final class LatencyRecorder {
+        private static final int SUB_BUCKETS = 8;
+        private final AtomicLongArray counts =
+                new AtomicLongArray(64 * SUB_BUCKETS);
+        private final AtomicLong max = new AtomicLong();
+        private final LongAdder sum = new LongAdder();
+
+        void record(long nanos) {
+            long v = Math.max(1, nanos);
+            counts.incrementAndGet(bucket(v));
+            if (v > max.get()) max.accumulateAndGet(v, Math::max);
+            sum.add(v);
+        }
+
+        long count() {
+            long n = 0;
+            for (int i = 0; i < counts.length(); i++) n += counts.get(i);
+            return n;
+        }
+
+        long max() { return max.get(); }
+
+        double mean() {
+            long n = count();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        // not atomic with concurrent record() calls; a sample may land on either side
+        void clear() {
+            for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+            max.set(0);
+            sum.reset();
+        }
+
+        // upper bound of the bucket holding the q-quantile
+        long percentile(double q) {
+            long rank = (long) Math.ceil(q * count());
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank && seen > 0) return Math.min(upperBound(i), max());
+            }
+            return 0;
+        }
+
+        private static int bucket(long v) {
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            if (exp < 3) return (int) v; // 1..7 exactly
+            int sub = (int) ((v >>> (exp - 3)) & (SUB_BUCKETS - 1));
+            return exp * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            int exp = bucket / SUB_BUCKETS, sub = bucket % SUB_BUCKETS;
+            if (exp < 3) return bucket;
+            return ((long) (SUB_BUCKETS + sub + 1) << (exp - 3)) - 1;
+        }
+    }
+
+    // -------------------------
+    // Flight Recorder events (--jfr[=FILE]): borrow, return, loadAll, every save and the
+    // history scans, with the IDs, rows and bytes involved, so a slow operation can be
+    // lined up with GC pauses and file I/O in the same recording. --jfr starts a
+    // continuous recording with the JDK's "default" settings (plus these events) that is
+    // written to FILE on exit; jcmd <pid> JFR.dump name=LibrarySystem saves it earlier.
+    // Without a recording, begin/end/shouldCommit cost next to nothing.
+    // -------------------------
+    static final class FlightEvents {
+        private FlightEvents() {}
+
+        @jdk.jfr.Name("library.Borrow")
+        @jdk.jfr.Label("Borrow")
+        @jdk.jfr.Category({ "Library", "Circulation" })
+        @jdk.jfr.StackTrace(false)
+        static final class Borrow extends jdk.jfr.Event {
+            @jdk.jfr.Label("Borrower ID") String borrowerId;
+            @jdk.jfr.Label("Material ID") String materialId;
+            @jdk.jfr.Label("Status") String status;
+        }
+
+        @jdk.jfr.Name("library.Return")
+        @jdk.jfr.Label("Return")
+        @jdk.jfr.Category({ "Library", "Circulation" })
+        @jdk.jfr.StackTrace(false)
+        static final class Return extends jdk.jfr.Event {
+            @jdk.jfr.Label("Borrower ID") String borrowerId;
+            @jdk.jfr.Label("Material ID") String materialId;
+            @jdk.jfr.Label("Status") String status;
+            @jdk.jfr.Label("Late") boolean late;
+        }
+
+        @jdk.jfr.Name("library.History")
+        @jdk.jfr.Label("History Scan")
+        @jdk.jfr.Category({ "Library", "Circulation" })
+        @jdk.jfr.StackTrace(false)
+        static final class History extends jdk.jfr.Event {
+            @jdk.jfr.Label("Kind") String kind; // borrower or material
+            @jdk.jfr.Label("ID") String id;
+            @jdk.jfr.Label("Rows") int rows;
+
+            void finish(String kind, String id, int rows) {
+                end();
+                if (!shouldCommit()) return;
+                this.kind = kind;
+                this.id = id;
+                this.rows = rows;
+                commit();
+            }
+        }
+
+        @jdk.jfr.Name("library.Load")
+        @jdk.jfr.Label("Load All")
+        @jdk.jfr.Category({ "Library", "Persistence" })
+        static final class Load extends jdk.jfr.Event {
+            @jdk.jfr.Label("Source") String source;
+            @jdk.jfr.Label("Borrowers") int borrowers;
+            @jdk.jfr.Label("Materials") int materials;
+            @jdk.jfr.Label("Transactions") int transactions;
+        }
+
+        @jdk.jfr.Name("library.Save")
+        @jdk.jfr.Label("Save")
+        @jdk.jfr.Category({ "Library", "Persistence" })
+        static final class Save extends jdk.jfr.Event {
+            @jdk.jfr.Label("File") String file;
+            @jdk.jfr.Label("Rows") int rows;
+            @jdk.jfr.Label("Bytes Written") @jdk.jfr.DataAmount long bytes;
+
+            // a whole-file write: the file's new size is the bytes written
+            void finish(String file, int rows) {
+                end();
+                if (!shouldCommit()) return;
+                this.file = file;
+                this.rows = rows;
+                this.bytes = new File(file).length();
+                commit();
+            }
+        }
+
+        // continuous recording until the JVM exits, then written to file
+        static void startRecording(String file) {
+            try {
+                jdk.jfr.Recording r = new jdk.jfr.Recording(jdk.jfr.Configuration.getConfiguration("default"));
+                r.setName("LibrarySystem");
+                r.setToDisk(true);
+                r.setMaxAge(Duration.ofHours(24));
+                r.setDestination(Paths.get(file));
+                r.setDumpOnExit(true);
+                r.start();
+                System.out.println("Flight recording to " + file + " (written on exit)");
+            } catch (IOException | java.text.ParseException | IllegalStateException | SecurityException e) {
+                System.err.println("Failed to start flight recording: " + e.getMessage());
+            }
+        }
+    }
+
+    // -------------------------
+    // Load generator (--load-test[=clients]): serves a seeded in-memory library on a
+    // loopback port and has each client loop borrow / return / lookup requests over
+    // HTTP for a fixed time, then reports throughput, latency percentiles and statuses.
+    // -------------------------
+    static final class LoadGenerator {
+        private static final int MATERIALS = 200;
+        private static final int COPIES = 5;
+
+        static void run(int clients, int seconds) throws IOException, InterruptedException {
+            Library lib = new Library();
+            lib.disablePersistence();
+            LocalDate birthday = LocalDate.of(2000, 1, 1);
+            int borrowerCount = clients * 4;
+            for (int i = 0; i < borrowerCount; i++) {
+                lib.insertBorrower(new Borrower("B" + i, "Load", "", "Client", "F", birthday,
+                        "1234567", "b" + i + "@x.com", "Street " + i, 0));
+            }
+            for (int i = 0; i < MATERIALS; i++) {
+                lib.insertMaterial(new Book("M" + i, "Title " + i, "Author " + i, 2000, "Pub", COPIES));
+            }
+            LibraryServer server = LibraryServer.start(lib,
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), clients);
+            String base = "http://127.0.0.1:" + server.port();
+            System.out.printf("Serving %d borrowers / %d materials on %s; %d clients for %d s%n",
+                    borrowerCount, MATERIALS, base, clients, seconds);
+
+            ExecutorService httpThreads = LibraryServer.threadPerRequestExecutor();
+            HttpClient http = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .executor(httpThreads)
+                    .build();
+            LatencyRecorder latencies = new LatencyRecorder();
+            AtomicLongArray statuses = new AtomicLongArray(6); // by hundreds; [0] = I/O failures
+            ExecutorService clientThreads = LibraryServer.threadPerRequestExecutor();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            long t0 = System.nanoTime();
+            for (int c = 0; c < clients; c++) {
+                final long seed = c;
+                clientThreads.execute(() -> {
+                    Random rnd = new Random(seed);
+                    while (System.nanoTime() < deadline) {
+                        HttpRequest request = nextRequest(rnd, base, borrowerCount);
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = http.send(request, HttpResponse.BodyHandlers.discarding());
+                            latencies.record(System.nanoTime() - start);
+                            statuses.incrementAndGet(Math.min(5, response.statusCode() / 100));
+                        } catch (IOException e) {
+                            statuses.incrementAndGet(0);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                });
+            }
+            clientThreads.shutdown();
+            clientThreads.awaitTermination(seconds + 60L, TimeUnit.SECONDS);
+            double elapsed = (System.nanoTime() - t0) / 1e9;
+            server.stop();
+            httpThreads.shutdownNow();
+
+            long total = latencies.count();
+            System.out.printf("%d requests in %.1f s: %.0f req/s%n", total, elapsed, total / elapsed);
+            System.out.printf("latency p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                    latencies.percentile(0.50) / 1e6, latencies.percentile(0.90) / 1e6,
+                    latencies.percentile(0.99) / 1e6, latencies.max() / 1e6);
+            System.out.printf("2xx %d, 4xx %d (refused borrows/returns), 5xx %d, failed %d%n",
+                    statuses.get(2), statuses.get(4), statuses.get(5), statuses.get(0));
+        }
+
+        // 40% borrow, 40% return, 20% material lookup
+        private static HttpRequest nextRequest(Random rnd, String base, int borrowerCount) {
+            String borrowerId = "B" + rnd.nextInt(borrowerCount);
+            String materialId = "M" + rnd.nextInt(MATERIALS);
+            int op = rnd.nextInt(10);
+            if (op < 4) {
+                return post(base + "/loans", new Json.ObjectBuilder()
+                        .field("borrowerId", borrowerId).field("materialId", materialId).build());
+            }
+            if (op < 8) {
+                return post(base + "/returns", new Json.ObjectBuilder().field("borrowerId", borrowerId).build());
+            }
+            return HttpRequest.newBuilder(URI.create(base + "/materials/" + materialId)).GET().build();
+        }
+
+        private static HttpRequest post(String url, String json) {
+            return HttpRequest.newBuilder(URI.create(url))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(json))
+                    .build();
+        }
+    }
+
+    // -------------------------
+    // Concurrency stress test (--stress-test[=threads]): desk threads borrow, return and
+    // edit against an in-memory library, then the circulation invariants are checked.
+    // With --journal they write journal.log while checkpoints run back to back, and the
+    // library read back from disk must match.
+    // -------------------------
+    static final class StressTest {
+        private static final int MATERIALS = 8;
+        private static final int COPIES = 3;
+        private static final int BORROWERS_PER_THREAD = 8;
+        private static final LocalDate TODAY = LocalDate.of(2024, 1, 1);
+        private static final int IMAGE_EVERY = 10; // journal run: copy the files at every 10th checkpoint
+        private static final String[] DATA_FILES = { BORROWERS_FILE, MATERIALS_FILE, TRANSACTIONS_FILE,
+                JOURNAL_FILE, MATERIALS_DAT_FILE, SNAPSHOT_FILE, INDEX_FILE, COLD_DIR };
+
+        // what the desks got done; the library must account for exactly this
+        private static final class Tally {
+            final AtomicInteger borrows = new AtomicInteger();
+            final AtomicInteger returns = new AtomicInteger();
+            final AtomicInteger lateReturns = new AtomicInteger();
+            final AtomicInteger errors = new AtomicInteger();
+            long millis;
+        }
+
+        static boolean run(int threads, int opsPerThread, boolean columnar) throws InterruptedException {
+            Library lib = new Library();
+            lib.disablePersistence();
+            if (columnar) lib.enableColumnarTransactions();
+            populate(lib, threads);
+            Tally tally = runDesks(lib, threads, opsPerThread);
+
+            List<String> failures = new ArrayList<>();
+            checkCirculation(lib, tally, failures);
+            // loans returned on today go to the archive, the late ones (returned a month on) stay
+            checkArchiving(lib, TODAY.plusDays(1), failures);
+            return report("Stress test", threads, opsPerThread, tally, failures);
+        }
+
+        // Runs the desks in journal mode against the data files of the working directory,
+        // which must not have any yet, while another thread checkpoints in a loop. Every
+        // IMAGE_EVERY checkpoints the files are copied before the journal is let go, as a crash
+        // right after that checkpoint would leave them; each copy must load consistent. The
+        // final files are read back as after a crash too (no closing checkpoint) and must hold
+        // the same loans, copy counts and strikes as the library that wrote them. The files
+        // are kept if an invariant fails.
+        static boolean runJournal(int threads, int opsPerThread, boolean columnar, boolean binaryMaterials)
+                throws InterruptedException {
+            for (String f : DATA_FILES) {
+                if (java.nio.file.Files.exists(Paths.get(f))) {
+                    System.err.println("Journal stress test: " + f + " exists; run it in an empty directory.");
+                    return false;
+                }
+            }
+            Library lib;
+            Path images;
+            try {
+                images = java.nio.file.Files.createTempDirectory("stress-crash");
+                lib = open(columnar, binaryMaterials);
+                populate(lib, threads);
+            } catch (IOException e) {
+                System.err.println("Journal stress test: " + e.getMessage());
+                return false;
+            }
+            List<String> failures = Collections.synchronizedList(new ArrayList<>());
+            List<Path> taken = new ArrayList<>();
+            java.util.concurrent.CountDownLatch desksDone = new java.util.concurrent.CountDownLatch(1);
+            Thread checkpointer = new Thread(() -> {
+                for (int n = 1; desksDone.getCount() > 0; n++) {
+                    synchronized (lib.journal) {
+                        lib.checkpoint();
+                        if (n % IMAGE_EVERY != 0) continue;
+                        Path image = images.resolve("checkpoint-" + n);
+                        try {
+                            copyDataFiles(Paths.get(""), image);
+                            taken.add(image);
+                        } catch (IOException e) {
+                            failures.add("copying the files at checkpoint " + n + ": " + e.getMessage());
+                        }
+                    }
+                }
+            }, "checkpointer");
+            checkpointer.start();
+            Tally tally;
+            try {
+                tally = runDesks(lib, threads, opsPerThread);
+            } finally {
+                desksDone.countDown();
+                checkpointer.join();
+            }
+            checkCirculation(lib, tally, failures);
+
+            try {
+                Library reloaded = open(columnar, binaryMaterials);
+                checkReload(lib, reloaded, failures);
+                checkCirculation(reloaded, tally, failures);
+                release(reloaded);
+            } catch (IOException e) {
+                failures.add("reload: " + e.getMessage());
+            }
+            release(lib);
+            // the working directory now holds one image after the other
+            boolean imagesHold = true;
+            for (Path image : taken) {
+                List<String> found = new ArrayList<>();
+                try {
+                    removeDataFiles();
+                    copyDataFiles(image, Paths.get(""));
+                    Library crashed = open(columnar, binaryMaterials);
+                    checkConsistency(crashed, found);
+                    release(crashed);
+                } catch (IOException e) {
+                    found.add("load: " + e.getMessage());
+                }
+                for (String f : found) failures.add(image.getFileName() + ": " + f);
+                if (!found.isEmpty()) {
+                    imagesHold = false;
+                    break;
+                }
+            }
+
+            System.out.printf("%d crash image(s) checked%n", taken.size());
+            boolean passed = report("Journal stress test", threads, opsPerThread, tally, failures);
+            if (passed) removeDataFiles();
+            if (imagesHold) removeTree(images); else System.out.println("Crash images kept in " + images);
+            return passed;
+        }
+
+        private static Library open(boolean columnar, boolean binaryMaterials) throws IOException {
+            Library lib = new Library();
+            lib.enableJournal();
+            if (binaryMaterials) lib.enableBinaryMaterials();
+            if (columnar) lib.enableColumnarTransactions();
+            lib.loadAll();
+            return lib;
+        }
+
+        private static void populate(Library lib, int threads) {
+            for (int i = 0; i < threads * BORROWERS_PER_THREAD; i++) {
+                lib.insertBorrower(new Borrower("B" + i, "Desk", "", "Tester", "F", TODAY.minusYears(20),
+                        "1234567", "b" + i + "@x.com", "Street " + i, 0));
+            }
+            for (int i = 0; i < MATERIALS; i++) {
+                lib.insertMaterial(new Book("M" + i, "Title " + i, "Author " + i, 2000, "Pub", COPIES));
+            }
+        }
+
+        private static Tally runDesks(Library lib, int threads, int opsPerThread) throws InterruptedException {
+            Tally tally = new Tally();
+            int borrowerCount = threads * BORROWERS_PER_THREAD;
+            ExecutorService desks = Executors.newFixedThreadPool(threads);
+            java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch(1);
+            long t0 = System.nanoTime();
+            for (int d = 0; d < threads; d++) {
+                final long seed = d;
+                desks.execute(() -> {
+                    Random rnd = new Random(seed);
+                    try {
+                        start.await();
+                        for (int i = 0; i < opsPerThread; i++) {
+                            String borrowerId = "B" + rnd.nextInt(borrowerCount);
+                            String materialId = "M" + rnd.nextInt(MATERIALS);
+                            int op = rnd.nextInt(100);
+                            if (op < 50) {
+                                if (lib.borrow(borrowerId, materialId, TODAY).status == CirculationResult.Status.OK) {
+                                    tally.borrows.incrementAndGet();
+                                }
+                            } else if (op < 95) {
+                                LocalDate on = rnd.nextInt(10) == 0 ? TODAY.plusDays(30) : TODAY;
+                                CirculationResult r = lib.returnLoan(borrowerId, on);
+                                if (r.status == CirculationResult.Status.OK) {
+                                    tally.returns.incrementAndGet();
+                                    if (r.late) tally.lateReturns.incrementAndGet();
+                                }
+                            } else if (op < 98) {
+                                lib.updateBorrower(borrowerId, b -> b.setAddress("Street " + seed));
+                            } else {
+                                lib.updateMaterial(materialId, m -> m.setPublisher("Pub " + seed));
+                            }
+                        }
+                    } catch (Exception e) {
+                        tally.errors.incrementAndGet();
+                        e.printStackTrace();
+                    }
+                });
+            }
+            start.countDown();
+            desks.shutdown();
+            desks.awaitTermination(1, TimeUnit.HOURS);
+            tally.millis = (System.nanoTime() - t0) / 1_000_000;
+            return tally;
+        }
+
+        private static void checkCirculation(Library lib, Tally tally, List<String> failures) {
+            if (tally.errors.get() > 0) failures.add(tally.errors.get() + " desk thread(s) failed");
+            checkConsistency(lib, failures);
+            int strikes = 0;
+            int openLoans = 0;
+            for (Borrower b : lib.borrowers) {
+                strikes += b.getViolations();
+                openLoans += lib.transactions.activeLoans(b.getKey()).size();
+            }
+            int borrows = tally.borrows.get(), returns = tally.returns.get();
+            if (strikes != tally.lateReturns.get()) failures.add("strikes " + strikes + " != late returns " + tally.lateReturns.get());
+            if (lib.transactions.size() != borrows) {
+                failures.add("transactions " + lib.transactions.size() + " != successful borrows " + borrows);
+            }
+            if (openLoans != borrows - returns) {
+                failures.add("open loans " + openLoans + " != borrows - returns " + (borrows - returns));
+            }
+        }
+
+        // what holds at any point between two operations, whatever happened before
+        private static void checkConsistency(Library lib, List<String> failures) {
+            for (Material m : lib.materials) {
+                int open = lib.activeLoanCount(m);
+                if (m.getBorrowedCopies() != open) {
+                    failures.add(m.getId() + ": borrowedCopies " + m.getBorrowedCopies() + " but " + open + " open loans");
+                }
+                if (m.getAvailableCopies() < 0 || m.getAvailableCopies() > m.getTotalCopies()) {
+                    failures.add(m.getId() + ": available copies " + m.getAvailableCopies());
+                }
+            }
+            int strikes = 0;
+            int openLoans = 0;
+            for (Borrower b : lib.borrowers) {
+                strikes += b.getViolations();
+                int open = lib.transactions.activeLoans(b.getKey()).size();
+                openLoans += open;
+                if (open > 1) failures.add(b.getId() + ": " + open + " active loans");
+            }
+            // every strike comes from a late return and nothing has been archived
+            int lateReturned = 0;
+            for (Transaction t : lib.transactions) {
+                if (t.isReturned() && t.getReturnedDate().isAfter(t.getDueDate())) lateReturned++;
+            }
+            if (strikes != lateReturned) failures.add("strikes " + strikes + " != loans returned late " + lateReturned);
+            if (lib.openLoanCount() != openLoans) {
+                failures.add("due-date index holds " + lib.openLoanCount() + " loans, " + openLoans + " are open");
+            }
+            CirculationStats.Report live = lib.liveStats(), recount = lib.statsFor(null, null);
+            if (live.loans != recount.loans || live.returns != recount.returns || live.lateReturns != recount.lateReturns
+                    || !Arrays.equals(live.loansByType, recount.loansByType) || !Arrays.equals(live.strikes, recount.strikes)
+                    || !live.topCounts.equals(recount.topCounts)) {
+                failures.add("running statistics differ from a recount");
+            }
+        }
+
+        // the library read back from disk against the one that wrote it
+        private static void checkReload(Library lib, Library reloaded, List<String> failures) {
+            int lost = 0;
+            for (Transaction t : lib.transactions) {
+                Transaction r = reloaded.transactions.get(t.getId());
+                if (r == null || r.isReturned() != t.isReturned()) lost++;
+            }
+            if (lost > 0) failures.add(lost + " loan(s) lost or changed state on reload");
+            for (Material m : lib.materials) {
+                Material r = reloaded.findMaterialById(m.getId());
+                if (r == null || r.getBorrowedCopies() != m.getBorrowedCopies()) {
+                    failures.add(m.getId() + ": borrowedCopies " + m.getBorrowedCopies() + " reloaded as "
+                            + (r == null ? "missing" : String.valueOf(r.getBorrowedCopies())));
+                }
+            }
+            for (Borrower b : lib.borrowers) {
+                Borrower r = reloaded.findBorrowerById(b.getId());
+                if (r == null || r.getViolations() != b.getViolations()) {
+                    failures.add(b.getId() + ": " + b.getViolations() + " strikes reloaded as "
+                            + (r == null ? "missing" : String.valueOf(r.getViolations())));
+                }
+            }
+        }
+
+        private static boolean report(String name, int threads, int opsPerThread, Tally tally, List<String> failures) {
+            System.out.printf("%s: %d desks x %d ops in %d ms; %d borrows, %d returns (%d late)%n", name,
+                    threads, opsPerThread, tally.millis, tally.borrows.get(), tally.returns.get(), tally.lateReturns.get());
+            if (failures.isEmpty()) {
+                System.out.println("All invariants hold.");
+                return true;
+            }
+            for (String f : failures) System.out.println("FAILED: " + f);
+            return false;
+        }
+
+        // closes the files without the final checkpoint close() would write
+        private static void release(Library lib) {
+            lib.journal.close();
+            if (lib.materialFile != null) lib.materialFile.close();
+        }
+
+        private static void copyDataFiles(Path from, Path to) throws IOException {
+            java.nio.file.Files.createDirectories(to);
+            for (String f : DATA_FILES) {
+                Path source = from.resolve(f);
+                if (java.nio.file.Files.isRegularFile(source)) {
+                    java.nio.file.Files.copy(source, to.resolve(f), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+
+        private static void removeTree(Path dir) {
+            try (java.util.stream.Stream<Path> files = java.nio.file.Files.walk(dir)) {
+                for (Path f : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    java.nio.file.Files.delete(f);
+                }
+            } catch (IOException e) {
+                System.err.println("Could not remove " + dir + ": " + e.getMessage());
+            }
+        }
+
+        private static void removeDataFiles() {
+            for (String f : DATA_FILES) {
+                try {
+                    java.nio.file.Files.deleteIfExists(Paths.get(f));
+                } catch (IOException e) {
+                    System.err.println("Could not remove " + f + ": " + e.getMessage());
+                }
+            }
+        }
+
+        // archives the loans returned before cutoff into a scratch directory: the open and
+        // returned totals, every kept loan and the statistics must come through unchanged
+        private static void checkArchiving(Library lib, LocalDate cutoff, List<String> failures) {
+            int cutoffDay = (int) cutoff.toEpochDay();
+            Map<String, Boolean> kept = new HashMap<>(); // id -> returned
+            int archivable = 0;
+            for (Transaction t : lib.transactions) {
+                if (Library.isCold(t, cutoffDay)) archivable++; else kept.put(t.getId(), t.isReturned());
+            }
+            int open = lib.openLoanCount();
+            CirculationStats.Report before = lib.statsFor(null, null);
+            Path dir;
+            try {
+                dir = java.nio.file.Files.createTempDirectory("stress-cold");
+            } catch (IOException e) {
+                failures.add("archive check: " + e.getMessage());
+                return;
+            }
+            try {
+                lib.archive = new TransactionArchive(dir.toString(), lib.borrowerIds, lib.materialIds);
+                lib.archiveReturnedBefore(cutoffDay);
+                if (lib.archive.size() != archivable) {
+                    failures.add("archived " + lib.archive.size() + " loans, " + archivable + " were returned before " + cutoff);
+                }
+                if (lib.transactions.size() != kept.size()) {
+                    failures.add("store holds " + lib.transactions.size() + " loans after archiving, expected " + kept.size());
+                }
+                if (lib.openLoanCount() != open) failures.add("open loans " + open + " -> " + lib.openLoanCount() + " after archiving");
+                int changed = 0;
+                for (Map.Entry<String, Boolean> e : kept.entrySet()) {
+                    Transaction t = lib.transactions.get(e.getKey());
+                    if (t == null || t.isReturned() != e.getValue()) changed++;
+                }
+                if (changed > 0) failures.add(changed + " kept loan(s) lost or changed state after archiving");
+                for (Material m : lib.materials) {
+                    if (m.getBorrowedCopies() != lib.activeLoanCount(m)) {
+                        failures.add(m.getId() + ": " + lib.activeLoanCount(m) + " open loans after archiving");
+                    }
+                }
+                CirculationStats.Report after = lib.statsFor(null, null);
+                if (after.loans != before.loans || after.returns != before.returns || after.activeLoans != before.activeLoans
+                        || after.lateReturns != before.lateReturns || !Arrays.equals(after.loansByType, before.loansByType)
+                        || !after.topCounts.equals(before.topCounts)) {
+                    failures.add("statistics changed by archiving");
+                }
+            } finally {
+                try (java.util.stream.Stream<Path> files = java.nio.file.Files.list(dir)) {
+                    for (Path f : (Iterable<Path>) files::iterator) java.nio.file.Files.delete(f);
+                    java.nio.file.Files.delete(dir);
+                } catch (IOException e) {
+                    System.err.println("Could not remove " + dir + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // -------------------------
+    // Repositories (records keyed by ID via its surrogate key, kept in key order,
+    // i.e. the order IDs were first seen)
+    // -------------------------
+    static abstract class Repository<T extends TrackedRecord> implements Iterable<T> {
+        private final IdDictionary ids;
+        private final List<T> byKey = new ArrayList<>(); // null where no record
+        private int size;
+        // changes since the last flush
+        private final Set<T> dirty = new LinkedHashSet<>();
+        private final Set<String> removed = new LinkedHashSet<>();
+
+        Repository(IdDictionary ids) {
+            this.ids = ids;
+        }
+
+        abstract String idOf(T item);
+
+        // adds or replaces the record with the same ID; it counts as changed
+        synchronized void add(T item) {
+            put(item);
+            item.markDirty(TrackedRecord.ALL_FIELDS);
+        }
+
+        // like add, but false (and no change) when the ID is already taken
+        synchronized boolean addIfAbsent(T item) {
+            if (contains(idOf(item))) return false;
+            add(item);
+            return true;
+        }
+
+        // adds a record as read from disk (unchanged)
+        synchronized void load(T item) {
+            put(item);
+            item.markClean();
+        }
+
+        synchronized T get(String id) { return id == null ? null : get(ids.lookup(id)); }
+        synchronized T get(int key) { return key < 0 || key >= byKey.size() ? null : byKey.get(key); }
+        synchronized boolean contains(String id) { return get(id) != null; }
+
+        synchronized T remove(String id) {
+            int key = id == null ? -1 : ids.lookup(id);
+            T item = get(key);
+            if (item != null) {
+                byKey.set(key, null);
+                size--;
+                dirty.remove(item);
+                item.setOwner(null);
+                removed.add(id);
+            }
+            return item;
+        }
+
+        synchronized void clear() {
+            for (T item : this) item.setOwner(null);
+            byKey.clear();
+            size = 0;
+            dirty.clear();
+            removed.clear();
+        }
+
+        synchronized boolean hasChanges() { return !dirty.isEmpty() || !removed.isEmpty(); }
+        // live views: iterate while holding this repository's monitor
+        Collection<T> dirtyRecords() { return Collections.unmodifiableSet(dirty); }
+        Collection<String> removedIds() { return Collections.unmodifiableSet(removed); }
+
+        // called once the changes are on disk
+        synchronized void markClean() {
+            for (T item : dirty) item.markClean();
+            dirty.clear();
+            removed.clear();
+        }
+
+        // called once these fields of item are on disk by other means
+        synchronized void markClean(T item, int fields) {
+            if (item.markClean(fields)) dirty.remove(item);
+        }
+
+        @SuppressWarnings("unchecked")
+        void onDirty(TrackedRecord item) { dirty.add((T) item); }
+
+        private void put(T item) {
+            String id = idOf(item);
+            int key = ids.intern(id);
+            while (byKey.size() <= key) byKey.add(null);
+            T previous = byKey.set(key, item);
+            if (previous == null) {
+                size++;
+            } else if (previous != item) {
+                dirty.remove(previous);
+                previous.setOwner(null);
+            }
+            removed.remove(id);
+            item.setOwner(this);
+            item.setKey(key);
+        }
+        synchronized int size() { return size; }
+        synchronized boolean isEmpty() { return size == 0; }
+        java.util.stream.Stream<T> stream() { return records().stream(); }
+
+        // iterates a copy, so callers never see a concurrent add or remove
+        @Override
+        public Iterator<T> iterator() { return records().iterator(); }
+
+        private synchronized List<T> records() {
+            List<T> out = new ArrayList<>(size);
+            for (T item : byKey) if (item != null) out.add(item);
+            return out;
+        }
+    }
+
+    static class BorrowerRepository extends Repository<Borrower> {
+        BorrowerRepository(IdDictionary ids) { super(ids); }
+        @Override String idOf(Borrower b) { return b.getId(); }
+    }
+
+    static class MaterialRepository extends Repository<Material> {
+        MaterialRepository(IdDictionary ids) { super(ids); }
+        @Override String idOf(Material m) { return m.getId(); }
+    }
+
+    // -------------------------
+    // Transaction storage: lookups by id, per-borrower and per-material history
+    // ordered by borrowedDate, and an always-current table of open (not yet returned) loans
+    // -------------------------
+    interface TransactionStore extends Iterable<Transaction> {
+        int NO_DATE = Integer.MIN_VALUE;
+
+        // primitive per-loan callback for bulk scans; keys are the store's dictionary
+        // surrogates, dates are epoch days (NO_DATE when absent)
+        interface LoanVisitor {
+            void visit(int borrowerKey, int materialKey, int borrowedDay, int dueDay, boolean returned, int returnedDay);
+        }
+
+        // the same arguments, for removeIf
+        interface LoanFilter {
+            boolean test(int borrowerKey, int materialKey, int borrowedDay, int dueDay, boolean returned, int returnedDay);
+        }
+
+        void add(Transaction t);
+
+        // the only path that should flip a loan to returned, so the open-loan table stays in step
+        void markReturned(Transaction t, LocalDate returnedDate);
+
+        Transaction get(String txId);
+
+        boolean hasActiveLoan(int borrowerKey);
+
+        // oldest open loan of the borrower, or null
+        Transaction activeLoan(int borrowerKey);
+
+        List<Transaction> activeLoans(int borrowerKey);
+
+        int activeLoanCount(int materialKey);
+
+        // open loans with fromDay <= due day < toDay (epoch days), earliest due first;
+        // costs the number of loans returned, not the size of the store
+        List<Transaction> openLoansDue(int fromDay, int toDay);
+
+        int openLoanCount();
+
+        // replaces the contents and rebuilds the indexes in one pass
+        void load(List<Transaction> loaded);
+
+        // drops the matching loans, keeps the rest in file order and rebuilds the indexes;
+        // the number dropped
+        int removeIf(LoanFilter filter);
+
+        void clear();
+
+        // history of one borrower/material, ordered by borrowedDate (read-only)
+        List<Transaction> byBorrower(int borrowerKey);
+
+        List<Transaction> byMaterial(int materialKey);
+
+        // file order
+        void scanAll(LoanVisitor v);
+
+        // rows [from, to) of file order; several threads may scan disjoint ranges at once
+        void scanRows(int from, int to, LoanVisitor v);
+
+        // borrowedDate order
+        void scanByBorrower(int borrowerKey, LoanVisitor v);
+
+        void scanByMaterial(int materialKey, LoanVisitor v);
+
+        // dictionaries the borrower/material keys refer to
+        IdDictionary borrowerIds();
+
+        IdDictionary materialIds();
+
+        int size();
+
+        java.util.stream.Stream<Transaction> stream();
+
+        // String-keyed forms for the edges (prompts, journal replay)
+        default boolean hasActiveLoan(String borrowerId) { return hasActiveLoan(borrowerIds().lookup(borrowerId)); }
+        default Transaction activeLoan(String borrowerId) { return activeLoan(borrowerIds().lookup(borrowerId)); }
+        default int activeLoanCount(String materialId) { return activeLoanCount(materialIds().lookup(materialId)); }
+        default List<Transaction> byBorrower(String borrowerId) { return byBorrower(borrowerIds().lookup(borrowerId)); }
+        default List<Transaction> byMaterial(String materialId) { return byMaterial(materialIds().lookup(materialId)); }
+
+        static int epochDay(LocalDate d) {
+            return d == null ? NO_DATE : (int) d.toEpochDay();
+        }
+
+        static LocalDate date(int epochDay) {
+            return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+        }
+    }
+
+    // one Transaction object per loan; histories and open loans are indexed by surrogate key
+    static class ObjectTransactionStore implements TransactionStore {
+        private final IdDictionary borrowerIds;
+        private final IdDictionary materialIds;
+        private final List<Transaction> all = new ArrayList<>(); // file order
+        private final Map<String, Integer> rowById = new HashMap<>(); // position in all
+        // indexed by borrower/material key
+        private final List<List<Transaction>> byBorrower = new ArrayList<>();
+        private final List<List<Transaction>> byMaterial = new ArrayList<>();
+        // open loans per borrower (at most one today, but a list so the rule can be relaxed)
+        private final List<List<Transaction>> openByBorrower = new ArrayList<>();
+        private final BitSet borrowersWithOpenLoans = new BitSet();
+        private int[] openCountByMaterial = new int[0];
+        private final DueDateIndex openByDueDate = new DueDateIndex();
+
+        ObjectTransactionStore(IdDictionary borrowerIds, IdDictionary materialIds) {
+            this.borrowerIds = borrowerIds;
+            this.materialIds = materialIds;
+        }
+
+        @Override
+        public void add(Transaction t) {
+            t.bindKeys(borrowerIds, materialIds);
+            all.add(t);
+            rowById.put(t.getId(), all.size() - 1);
+            insertByDate(listAt(byBorrower, t.getBorrowerKey()), t);
+            insertByDate(listAt(byMaterial, t.getMaterialKey()), t);
+            if (!t.isReturned()) openLoan(t, all.size() - 1);
+        }
+
+        @Override
+        public void markReturned(Transaction t, LocalDate returnedDate) {
+            if (!t.isReturned()) closeLoan(t);
+            t.setReturned(true);
+            t.setReturnedDate(returnedDate);
+        }
+
+        @Override
+        public Transaction get(String txId) {
+            Integer row = rowById.get(txId);
+            return row == null ? null : all.get(row);
+        }
+
+        @Override
+        public boolean hasActiveLoan(int borrowerKey) {
+            return borrowerKey >= 0 && borrowersWithOpenLoans.get(borrowerKey);
+        }
+
+        @Override
+        public Transaction activeLoan(int borrowerKey) {
+            return hasActiveLoan(borrowerKey) ? openByBorrower.get(borrowerKey).get(0) : null;
+        }
+
+        @Override
+        public List<Transaction> activeLoans(int borrowerKey) {
+            return readOnly(openByBorrower, borrowerKey);
+        }
+
+        @Override
+        public int activeLoanCount(int materialKey) {
+            return materialKey < 0 || materialKey >= openCountByMaterial.length ? 0 : openCountByMaterial[materialKey];
+        }
+
+        @Override
+        public List<Transaction> openLoansDue(int fromDay, int toDay) {
+            List<Transaction> out = new ArrayList<>();
+            openByDueDate.scan(fromDay, toDay, row -> out.add(all.get(row)));
+            return out;
+        }
+
+        @Override
+        public int openLoanCount() { return openByDueDate.size(); }
+
+        @Override
+        public void load(List<Transaction> loaded) {
+            clear();
+            all.addAll(loaded);
+            for (int row = 0; row < loaded.size(); row++) {
+                Transaction t = loaded.get(row);
+                t.bindKeys(borrowerIds, materialIds);
+                rowById.put(t.getId(), row);
+                listAt(byBorrower, t.getBorrowerKey()).add(t);
+                listAt(byMaterial, t.getMaterialKey()).add(t);
+                if (!t.isReturned()) openLoan(t, row);
+            }
+            Comparator<Transaction> byDate = Comparator.comparing(Transaction::getBorrowedDate);
+            for (List<Transaction> list : byBorrower) if (list != null) list.sort(byDate);
+            for (List<Transaction> list : byMaterial) if (list != null) list.sort(byDate);
+        }
+
+        @Override
+        public int removeIf(LoanFilter filter) {
+            List<Transaction> kept = new ArrayList<>(all.size());
+            for (Transaction t : all) {
+                if (!filter.test(t.getBorrowerKey(), t.getMaterialKey(), TransactionStore.epochDay(t.getBorrowedDate()),
+                        TransactionStore.epochDay(t.getDueDate()), t.isReturned(), TransactionStore.epochDay(t.getReturnedDate()))) {
+                    kept.add(t);
+                }
+            }
+            int removed = all.size() - kept.size();
+            if (removed > 0) load(kept); // kept is a separate list of the store's own objects
+            return removed;
+        }
+
+        @Override
+        public void clear() {
+            all.clear();
+            rowById.clear();
+            byBorrower.clear();
+            byMaterial.clear();
+            openByBorrower.clear();
+            borrowersWithOpenLoans.clear();
+            openCountByMaterial = new int[0];
+            openByDueDate.clear();
+        }
+
+        @Override
+        public List<Transaction> byBorrower(int borrowerKey) { return readOnly(byBorrower, borrowerKey); }
+
+        @Override
+        public List<Transaction> byMaterial(int materialKey) { return readOnly(byMaterial, materialKey); }
+
+        @Override
+        public void scanAll(LoanVisitor v) {
+            for (Transaction t : all) visit(t, v);
+        }
+
+        @Override
+        public void scanRows(int from, int to, LoanVisitor v) {
+            for (int row = from; row < to; row++) visit(all.get(row), v);
+        }
+
+        @Override
+        public void scanByBorrower(int borrowerKey, LoanVisitor v) {
+            for (Transaction t : byBorrower(borrowerKey)) visit(t, v);
+        }
+
+        @Override
+        public void scanByMaterial(int materialKey, LoanVisitor v) {
+            for (Transaction t : byMaterial(materialKey)) visit(t, v);
+        }
+
+        @Override
+        public IdDictionary borrowerIds() { return borrowerIds; }
+
+        @Override
+        public IdDictionary materialIds() { return materialIds; }
+
+        @Override
+        public int size() { return all.size(); }
+
+        @Override
+        public java.util.stream.Stream<Transaction> stream() { return all.stream(); }
+
+        @Override
+        public Iterator<Transaction> iterator() { return Collections.unmodifiableList(all).iterator(); }
+
+        private static void visit(Transaction t, LoanVisitor v) {
+            v.visit(t.getBorrowerKey(), t.getMaterialKey(), TransactionStore.epochDay(t.getBorrowedDate()),
+                    TransactionStore.epochDay(t.getDueDate()), t.isReturned(), TransactionStore.epochDay(t.getReturnedDate()));
+        }
+
+        private void openLoan(Transaction t, int row) {
+            openByDueDate.add(row, TransactionStore.epochDay(t.getDueDate()));
+            int b = t.getBorrowerKey(), m = t.getMaterialKey();
+            while (openByBorrower.size() <= b) openByBorrower.add(null);
+            if (openByBorrower.get(b) == null) openByBorrower.set(b, new ArrayList<>(1));
+            openByBorrower.get(b).add(t);
+            borrowersWithOpenLoans.set(b);
+            if (m >= openCountByMaterial.length) {
+                openCountByMaterial = Arrays.copyOf(openCountByMaterial, Math.max(m + 1, openCountByMaterial.length * 2));
+            }
+            openCountByMaterial[m]++;
+        }
+
+        private void closeLoan(Transaction t) {
+            Integer row = rowById.get(t.getId());
+            if (row != null) openByDueDate.remove(row);
+            int b = t.getBorrowerKey(), m = t.getMaterialKey();
+            List<Transaction> open = b < openByBorrower.size() ? openByBorrower.get(b) : null;
+            if (open != null && open.remove(t) && open.isEmpty()) borrowersWithOpenLoans.clear(b);
+            if (m < openCountByMaterial.length && openCountByMaterial[m] > 0) openCountByMaterial[m]--;
+        }
+
+        private static List<Transaction> listAt(List<List<Transaction>> byKey, int key) {
+            while (byKey.size() <= key) byKey.add(null);
+            List<Transaction> list = byKey.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                byKey.set(key, list);
+            }
+            return list;
+        }
+
+        private static List<Transaction> readOnly(List<List<Transaction>> byKey, int key) {
+            List<Transaction> list = key < 0 || key >= byKey.size() ? null : byKey.get(key);
+            return list == null ? Collections.emptyList() : Collections.unmodifiableList(list);
+        }
+
+        // new loans are normally the latest, so this is an append; older dates are placed by binary search
+        private static void insertByDate(List<Transaction> list, Transaction t) {
+            int i = list.size();
+            if (i > 0 && list.get(i - 1).getBorrowedDate().isAfter(t.getBorrowedDate())) {
+                int lo = 0, hi = i;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (list.get(mid).getBorrowedDate().isAfter(t.getBorrowedDate())) hi = mid; else lo = mid + 1;
+                }
+                i = lo;
+            }
+            list.add(i, t);
+        }
+    }
+
+    // -------------------------
+    // Columnar transaction store (--columnar-transactions)
+    //
+    // One row per loan spread over parallel primitive arrays: borrower/material keys
+    // are the library's dense int surrogates, dates are epoch days and the returned
+    // flags a BitSet. Canonical UUID ids are kept as two longs in an open-addressing
+    // table; any other id text falls back to a map. About 50 bytes per loan instead of
+    // a Transaction object graph. get/byBorrower/... hand out Transaction copies of
+    // rows, which stay valid (and unchanged) whatever the store does afterwards; the
+    // scan* methods visit rows without creating any.
+    // -------------------------
+    static class ColumnarTransactionStore implements TransactionStore {
+        private final IdDictionary borrowerIds;
+        private final IdDictionary materialIds;
+
+        private int size;
+        private long[] idHigh = new long[0];
+        private long[] idLow = new long[0];
+        private int[] borrower = new int[0];
+        private int[] material = new int[0];
+        private int[] borrowedDay = new int[0];
+        private int[] dueDay = new int[0];
+        private int[] returnedDay = new int[0];
+        private final BitSet returned = new BitSet();
+
+        // rows whose id is not a canonical lower-case UUID
+        private final Map<String, Integer> otherIdRows = new HashMap<>();
+        private final Map<Integer, String> otherIds = new HashMap<>();
+        // open addressing over (idHigh, idLow); slot holds row + 1, 0 = empty
+        private int[] idTable = new int[16];
+        private int uuidRows;
+
+        // indexed by borrower/material key
+        private final List<IntList> rowsByBorrower = new ArrayList<>();
+        private final List<IntList> rowsByMaterial = new ArrayList<>();
+        private final List<IntList> openByBorrower = new ArrayList<>();
+        private final BitSet borrowersWithOpenLoans = new BitSet();
+        private int[] openCountByMaterial = new int[0];
+        private final DueDateIndex openByDueDate = new DueDateIndex();
+
+        ColumnarTransactionStore(IdDictionary borrowerIds, IdDictionary materialIds) {
+            this.borrowerIds = borrowerIds;
+            this.materialIds = materialIds;
+        }
+
+        @Override
+        public void add(Transaction t) {
+            int row = append(t);
+            insertByDate(postings(rowsByBorrower, borrower[row]), row);
+            insertByDate(postings(rowsByMaterial, material[row]), row);
+            if (!returned.get(row)) openLoan(row);
+        }
+
+        // t is usually a copy handed out earlier; it is updated along with the row
+        @Override
+        public void markReturned(Transaction t, LocalDate returnedDate) {
+            int row = find(t.getId());
+            if (row < 0) return;
+            if (!returned.get(row)) closeLoan(row);
+            returned.set(row);
+            returnedDay[row] = TransactionStore.epochDay(returnedDate);
+            t.setReturned(true);
+            t.setReturnedDate(returnedDate);
+        }
+
+        @Override
+        public Transaction get(String txId) {
+            int row = find(txId);
+            return row < 0 ? null : copy(row);
+        }
+
+        @Override
+        public boolean hasActiveLoan(int borrowerKey) {
+            return borrowerKey >= 0 && borrowersWithOpenLoans.get(borrowerKey);
+        }
+
+        @Override
+        public Transaction activeLoan(int borrowerKey) {
+            return hasActiveLoan(borrowerKey) ? copy(openByBorrower.get(borrowerKey).get(0)) : null;
+        }
+
+        @Override
+        public List<Transaction> activeLoans(int borrowerKey) {
+            return copies(at(openByBorrower, borrowerKey));
+        }
+
+        @Override
+        public int activeLoanCount(int materialKey) {
+            return materialKey < 0 || materialKey >= openCountByMaterial.length ? 0 : openCountByMaterial[materialKey];
+        }
+
+        @Override
+        public List<Transaction> openLoansDue(int fromDay, int toDay) {
+            List<Transaction> out = new ArrayList<>();
+            openByDueDate.scan(fromDay, toDay, row -> out.add(copy(row)));
+            return out;
+        }
+
+        @Override
+        public int openLoanCount() { return openByDueDate.size(); }
+
+        @Override
+        public void load(List<Transaction> loaded) {
+            clear();
+            ensureCapacity(loaded.size());
+            for (Transaction t : loaded) {
+                int row = append(t);
+                postings(rowsByBorrower, borrower[row]).add(row);
+                postings(rowsByMaterial, material[row]).add(row);
+                if (!returned.get(row)) openLoan(row);
+            }
+            for (IntList rows : rowsByBorrower) if (rows != null) sortByDate(rows);
+            for (IntList rows : rowsByMaterial) if (rows != null) sortByDate(rows);
+        }
+
+        // compacts the columns in place, then rebuilds the id table and the indexes from them
+        @Override
+        public int removeIf(LoanFilter filter) {
+            int kept = 0;
+            for (int row = 0; row < size; row++) {
+                String other = otherIds.remove(row);
+                if (filter.test(borrower[row], material[row], borrowedDay[row], dueDay[row], returned.get(row), returnedDay[row])) continue;
+                if (kept != row) {
+                    idHigh[kept] = idHigh[row];
+                    idLow[kept] = idLow[row];
+                    borrower[kept] = borrower[row];
+                    material[kept] = material[row];
+                    borrowedDay[kept] = borrowedDay[row];
+                    dueDay[kept] = dueDay[row];
+                    returnedDay[kept] = returnedDay[row];
+                    returned.set(kept, returned.get(row));
+                }
+                // every key below row has been moved already, so kept is free
+                if (other != null) otherIds.put(kept, other);
+                kept++;
+            }
+            int removed = size - kept;
+            if (removed == 0) return 0;
+            returned.clear(kept, size);
+            size = kept;
+
+            otherIdRows.clear();
+            for (Map.Entry<Integer, String> e : otherIds.entrySet()) otherIdRows.put(e.getValue(), e.getKey());
+            idTable = new int[16];
+            uuidRows = 0;
+            rowsByBorrower.clear();
+            rowsByMaterial.clear();
+            openByBorrower.clear();
+            borrowersWithOpenLoans.clear();
+            openCountByMaterial = new int[0];
+            openByDueDate.clear();
+            for (int row = 0; row < size; row++) {
+                if (!otherIds.containsKey(row)) {
+                    if ((uuidRows + 1) * 2 > idTable.length) rehash(idTable.length * 2);
+                    insertId(row);
+                    uuidRows++;
+                }
+                postings(rowsByBorrower, borrower[row]).add(row);
+                postings(rowsByMaterial, material[row]).add(row);
+                if (!returned.get(row)) openLoan(row);
+            }
+            for (IntList rows : rowsByBorrower) if (rows != null) sortByDate(rows);
+            for (IntList rows : rowsByMaterial) if (rows != null) sortByDate(rows);
+            return removed;
+        }
+
+        @Override
+        public void clear() {
+            size = 0;
+            returned.clear();
+            otherIdRows.clear();
+            otherIds.clear();
+            idTable = new int[16];
+            uuidRows = 0;
+            rowsByBorrower.clear();
+            rowsByMaterial.clear();
+            openByBorrower.clear();
+            borrowersWithOpenLoans.clear();
+            openCountByMaterial = new int[0];
+            openByDueDate.clear();
+        }
+
+        @Override
+        public List<Transaction> byBorrower(int borrowerKey) { return copies(at(rowsByBorrower, borrowerKey)); }
+
+        @Override
+        public List<Transaction> byMaterial(int materialKey) { return copies(at(rowsByMaterial, materialKey)); }
+
+        @Override
+        public void scanAll(LoanVisitor v) {
+            for (int row = 0; row < size; row++) visit(row, v);
+        }
+
+        @Override
+        public void scanRows(int from, int to, LoanVisitor v) {
+            for (int row = from; row < to; row++) visit(row, v);
+        }
+
+        @Override
+        public void scanByBorrower(int borrowerKey, LoanVisitor v) {
+            IntList rows = at(rowsByBorrower, borrowerKey);
+            if (rows != null) scan(rows, v);
+        }
+
+        @Override
+        public void scanByMaterial(int materialKey, LoanVisitor v) {
+            IntList rows = at(rowsByMaterial, materialKey);
+            if (rows != null) scan(rows, v);
+        }
+
+        @Override
+        public IdDictionary borrowerIds() { return borrowerIds; }
+
+        @Override
+        public IdDictionary materialIds() { return materialIds; }
+
+        @Override
+        public int size() { return size; }
+
+        @Override
+        public java.util.stream.Stream<Transaction> stream() {
+            return java.util.stream.IntStream.range(0, size).mapToObj(this::copy);
+        }
+
+        @Override
+        public Iterator<Transaction> iterator() { return stream().iterator(); }
+
+        // the row's values as a detached Transaction, keys already bound
+        private Transaction copy(int row) {
+            Transaction t = new Transaction(idOf(row), borrowerIds.get(borrower[row]), materialIds.get(material[row]),
+                    TransactionStore.date(borrowedDay[row]), TransactionStore.date(dueDay[row]),
+                    returned.get(row), TransactionStore.date(returnedDay[row]));
+            t.bindKeys(borrower[row], material[row]);
+            return t;
+        }
+
+        private int append(Transaction t) {
+            if (size == borrower.length) ensureCapacity(Math.max(16, size * 2));
+            int row = size++;
+            borrower[row] = borrowerIds.intern(t.getBorrowerId());
+            material[row] = materialIds.intern(t.getMaterialId());
+            borrowedDay[row] = TransactionStore.epochDay(t.getBorrowedDate());
+            dueDay[row] = TransactionStore.epochDay(t.getDueDate());
+            returnedDay[row] = TransactionStore.epochDay(t.getReturnedDate());
+            if (t.isReturned()) returned.set(row);
+            putId(row, t.getId());
+            return row;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= borrower.length) return;
+            idHigh = Arrays.copyOf(idHigh, capacity);
+            idLow = Arrays.copyOf(idLow, capacity);
+            borrower = Arrays.copyOf(borrower, capacity);
+            material = Arrays.copyOf(material, capacity);
+            borrowedDay = Arrays.copyOf(borrowedDay, capacity);
+            dueDay = Arrays.copyOf(dueDay, capacity);
+            returnedDay = Arrays.copyOf(returnedDay, capacity);
+        }
+
+        private void visit(int row, LoanVisitor v) {
+            v.visit(borrower[row], material[row], borrowedDay[row], dueDay[row], returned.get(row), returnedDay[row]);
+        }
+
+        private void scan(IntList rows, LoanVisitor v) {
+            for (int i = 0; i < rows.size(); i++) visit(rows.get(i), v);
+        }
+
+        private List<Transaction> copies(IntList rows) {
+            if (rows == null) return Collections.emptyList();
+            return new AbstractList<Transaction>() {
+                @Override public Transaction get(int i) { return copy(rows.get(i)); }
+                @Override public int size() { return rows.size(); }
+            };
+        }
+
+        private static IntList at(List<IntList> byKey, int key) {
+            return key < 0 || key >= byKey.size() ? null : byKey.get(key);
+        }
+
+        private void openLoan(int row) {
+            openByDueDate.add(row, dueDay[row]);
+            postings(openByBorrower, borrower[row]).add(row);
+            borrowersWithOpenLoans.set(borrower[row]);
+            int key = material[row];
+            if (key >= openCountByMaterial.length) {
+                openCountByMaterial = Arrays.copyOf(openCountByMaterial, Math.max(key + 1, openCountByMaterial.length * 2));
+            }
+            openCountByMaterial[key]++;
+        }
+
+        private void closeLoan(int row) {
+            openByDueDate.remove(row);
+            IntList open = openByBorrower.get(borrower[row]);
+            if (open != null && open.removeValue(row) && open.size() == 0) borrowersWithOpenLoans.clear(borrower[row]);
+            if (openCountByMaterial[material[row]] > 0) openCountByMaterial[material[row]]--;
+        }
+
+        private static IntList postings(List<IntList> byKey, int key) {
+            while (byKey.size() <= key) byKey.add(null);
+            IntList rows = byKey.get(key);
+            if (rows == null) {
+                rows = new IntList(4);
+                byKey.set(key, rows);
+            }
+            return rows;
+        }
+
+        // new loans are normally the latest, so this is an append; older dates are placed by binary search
+        private void insertByDate(IntList rows, int row) {
+            int i = rows.size();
+            int day = borrowedDay[row];
+            if (i > 0 && borrowedDay[rows.get(i - 1)] > day) {
+                int lo = 0, hi = i;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (borrowedDay[rows.get(mid)] > day) hi = mid; else lo = mid + 1;
+                }
+                i = lo;
+            }
+            rows.insert(i, row);
+        }
+
+        // stable; files are normally in date order already, so this is usually just the check
+        private void sortByDate(IntList rows) {
+            boolean sorted = true;
+            for (int i = 1; i < rows.size() && sorted; i++) sorted = borrowedDay[rows.get(i - 1)] <= borrowedDay[rows.get(i)];
+            if (sorted) return;
+            Integer[] boxed = new Integer[rows.size()];
+            for (int i = 0; i < boxed.length; i++) boxed[i] = rows.get(i);
+            Arrays.sort(boxed, Comparator.comparingInt(r -> borrowedDay[r]));
+            for (int i = 0; i < boxed.length; i++) rows.set(i, boxed[i]);
+        }
+
+        // --- transaction ids ---
+
+        private void putId(int row, String id) {
+            if (!parseUuid(id, row)) {
+                otherIdRows.put(id, row);
+                otherIds.put(row, id);
+                return;
+            }
+            if ((uuidRows + 1) * 2 > idTable.length) rehash(idTable.length * 2);
+            insertId(row);
+            uuidRows++;
+        }
+
+        private int find(String id) {
+            if (id == null) return -1;
+            if (id.length() != 36 || !isUuid(id)) return otherIdRows.getOrDefault(id, -1);
+            long hi = hexLong(id, 0), lo = hexLong(id, 19);
+            int mask = idTable.length - 1;
+            for (int i = slot(hi, lo) & mask; idTable[i] != 0; i = (i + 1) & mask) {
+                int row = idTable[i] - 1;
+                if (idHigh[row] == hi && idLow[row] == lo && !otherIds.containsKey(row)) return row;
+            }
+            return -1;
+        }
+
+        private String idOf(int row) {
+            String other = otherIds.get(row);
+            return other != null ? other : new UUID(idHigh[row], idLow[row]).toString();
+        }
+
+        private void insertId(int row) {
+            int mask = idTable.length - 1;
+            int i = slot(idHigh[row], idLow[row]) & mask;
+            while (idTable[i] != 0) i = (i + 1) & mask;
+            idTable[i] = row + 1;
+        }
+
+        private void rehash(int capacity) {
+            int[] old = idTable;
+            idTable = new int[capacity];
+            for (int slot : old) if (slot != 0) insertId(slot - 1);
+        }
+
+        private static int slot(long hi, long lo) {
+            long h = (hi ^ lo) * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        // stores a canonical lower-case UUID into idHigh/idLow[row]; false for any other text
+        private boolean parseUuid(String id, int row) {
+            if (id == null || id.length() != 36 || !isUuid(id)) return false;
+            idHigh[row] = hexLong(id, 0);
+            idLow[row] = hexLong(id, 19);
+            return true;
+        }
+
+        // 8-4-4-4-12 lower-case hex, i.e. exactly what UUID.toString produces
+        private static boolean isUuid(String s) {
+            for (int i = 0; i < 36; i++) {
+                char c = s.charAt(i);
+                if (i == 8 || i == 13 || i == 18 || i == 23) {
+                    if (c != '-') return false;
+                } else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // 16 hex digits starting at from, skipping dashes
+        private static long hexLong(String s, int from) {
+            long v = 0;
+            for (int i = from, digits = 0; digits < 16; i++) {
+                char c = s.charAt(i);
+                if (c == '-') continue;
+                v = (v << 4) | Character.digit(c, 16);
+                digits++;
+            }
+            return v;
+        }
+    }
+
+    // String id <-> dense int surrogate key (0, 1, 2, ... in first-seen order). One per
+    // entity kind, shared by the repository and the transaction store (hence synchronized);
+    // a key is never reassigned, so a deleted borrower's history still resolves.
+    static class IdDictionary {
+        private final Map<String, Integer> keys = new HashMap<>();
+        private final List<String> ids = new ArrayList<>();
+
+        synchronized int intern(String id) {
+            Integer key = keys.get(id);
+            if (key != null) return key;
+            keys.put(id, ids.size());
+            ids.add(id);
+            return ids.size() - 1;
+        }
+
+        // -1 when the id has never been seen
+        synchronized int lookup(String id) {
+            Integer key = keys.get(id);
+            return key == null ? -1 : key;
+        }
+
+        synchronized String get(int key) { return ids.get(key); }
+
+        synchronized int size() { return ids.size(); }
+    }
+
+    // growable int array
+    static class IntList {
+        private int[] values;
+        private int size;
+
+        IntList(int capacity) {
+            values = new int[Math.max(1, capacity)];
+        }
+
+        int size() { return size; }
+        int get(int i) { return values[i]; }
+        void set(int i, int v) { values[i] = v; }
+        void clear() { size = 0; }
+        void removeLast() { size--; }
+
+        void add(int v) {
+            insert(size, v);
+        }
+
+        void insert(int index, int v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = v;
+            size++;
+        }
+
+        // removes the first occurrence; false when absent
+        boolean removeValue(int v) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] != v) continue;
+                System.arraycopy(values, i + 1, values, i, size - i - 1);
+                size--;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    // Open loans bucketed by due day (epoch day), so the overdue / due-soon sweeps visit
+    // only the loans they report instead of scanning every transaction. Loans are store
+    // rows; each bucket is an unordered IntList and a row remembers its slot, so closing a
+    // loan is a swap-remove. Empty buckets are dropped, so a day range holds only hits.
+    static class DueDateIndex {
+        private final TreeMap<Integer, IntList> buckets = new TreeMap<>();
+        private int[] slotOfRow = new int[0]; // position in its bucket, -1 when not indexed
+        private int[] dayOfRow = new int[0];
+        private int size;
+
+        // a loan without a due date is not indexed
+        void add(int row, int dueDay) {
+            if (dueDay == TransactionStore.NO_DATE) return;
+            if (row >= slotOfRow.length) {
+                int capacity = Math.max(row + 1, slotOfRow.length * 2);
+                int from = slotOfRow.length;
+                slotOfRow = Arrays.copyOf(slotOfRow, capacity);
+                dayOfRow = Arrays.copyOf(dayOfRow, capacity);
+                Arrays.fill(slotOfRow, from, capacity, -1);
+            }
+            if (slotOfRow[row] >= 0) remove(row);
+            IntList bucket = buckets.computeIfAbsent(dueDay, d -> new IntList(4));
+            slotOfRow[row] = bucket.size();
+            dayOfRow[row] = dueDay;
+            bucket.add(row);
+            size++;
+        }
+
+        void remove(int row) {
+            if (row >= slotOfRow.length || slotOfRow[row] < 0) return;
+            IntList bucket = buckets.get(dayOfRow[row]);
+            int slot = slotOfRow[row], last = bucket.get(bucket.size() - 1);
+            bucket.set(slot, last);
+            slotOfRow[last] = slot;
+            bucket.removeLast();
+            if (bucket.size() == 0) buckets.remove(dayOfRow[row]);
+            slotOfRow[row] = -1;
+            size--;
+        }
+
+        // rows due in [fromDay, toDay), earliest day first
+        void scan(int fromDay, int toDay, java.util.function.IntConsumer visitor) {
+            if (fromDay >= toDay) return;
+            for (IntList bucket : buckets.subMap(fromDay, true, toDay, false).values()) {
+                for (int i = 0; i < bucket.size(); i++) visitor.accept(bucket.get(i));
+            }
+        }
+
+        int size() { return size; }
+
+        void clear() {
+            buckets.clear();
+            Arrays.fill(slotOfRow, -1);
+            size = 0;
+        }
+    }
+
+    // -------------------------
+    // Append-only journal of changes since the last checkpoint
+    // -------------------------
+    static class ChangeJournal {
+        static final String BORROW = "BORROW";
+        static final String RETURN = "RETURN";
+        static final String STRIKE = "STRIKE";
+        static final String COPIES = "COPIES";
+        static final String BORROWER = "BORROWER";
+        static final String MATERIAL = "MATERIAL";
+        static final String REMOVE_BORROWER = "REMOVE_BORROWER";
+        static final String REMOVE_MATERIAL = "REMOVE_MATERIAL";
+
+        private final String filename;
+        private FileOutputStream file;
+        private RecordCodec.FieldWriter out; // opened lazily, kept open between operations
+        private long flushedLength;          // file length after the last successful flush
+        private int recordCount = 0, flushedRecords = 0;
+
+        ChangeJournal(String filename) {
+            this.filename = filename;
+        }
+
+        // one record per line: TYPE|field|field...
+        synchronized void append(String type, String... fields) throws IOException {
+            append(type, w -> {
+                for (String f : fields) w.string(f);
+            });
+        }
+
+        // TYPE followed by whatever fields body writes, e.g. a full borrowers.txt record
+        synchronized void append(String type, java.util.function.Consumer<RecordCodec.FieldWriter> body) throws IOException {
+            if (out == null) {
+                file = new FileOutputStream(filename, true);
+                out = new RecordCodec.FieldWriter(file);
+                flushedLength = file.getChannel().size();
+            }
+            try {
+                out.string(type);
+                body.accept(out);
+                out.endRecord();
+            } catch (IOException e) {
+                abandon();
+                throw e;
+            }
+            recordCount++;
+        }
+
+        // appends one record and flushes it; when this throws, none of it is in the journal
+        synchronized void write(String type, String... fields) throws IOException {
+            append(type, fields);
+            flush();
+        }
+
+        // a failed flush drops every record appended since the last one, so the caller can
+        // treat them all as unwritten and append them again
+        synchronized void flush() throws IOException {
+            if (out == null) return;
+            try {
+                out.flush();
+                flushedLength = file.getChannel().size();
+                flushedRecords = recordCount;
+            } catch (IOException e) {
+                abandon();
+                throw e;
+            }
+        }
+
+        // cuts off whatever part of the unflushed records reached the file and discards the
+        // rest, so a failed write never leaves half a line for replay to trip over
+        private void abandon() {
+            try {
+                file.getChannel().truncate(flushedLength);
+            } catch (IOException e) {
+                System.err.println("Failed to roll back journal: " + e.getMessage());
+            }
+            try {
+                file.close(); // not out.close(), which would write the buffered records
+            } catch (IOException ignored) {
+            }
+            file = null;
+            out = null;
+            recordCount = flushedRecords;
+        }
+
+        synchronized int getRecordCount() { return recordCount; }
+
+        // feeds every record to the consumer. Only the last line may be malformed (an append
+        // torn by a crash): it is skipped and cut off so later appends start on a clean line.
+        // A bad record anywhere else, or a journal that cannot be read, is an IOException and
+        // nothing past it is applied - the caller must not checkpoint over what was lost.
+        int replay(java.util.function.Consumer<RecordCodec.FieldReader> apply) throws IOException {
+            Path p = Paths.get(filename);
+            if (!java.nio.file.Files.exists(p)) return 0;
+            int applied = 0, line = 0;
+            byte[] data;
+            try {
+                data = java.nio.file.Files.readAllBytes(p);
+            } catch (IOException e) {
+                throw new IOException("cannot read " + filename + ": " + e.getMessage(), e);
+            }
+            RecordCodec.FieldReader in = new RecordCodec.FieldReader();
+            int lineStart = 0;
+            for (int i = 0; i <= data.length; i++) {
+                if (i < data.length && data[i] != '\n') continue;
+                int from = lineStart, to = i;
+                lineStart = i + 1;
+                line++;
+                if (to > from && data[to - 1] == '\r') to--;
+                if (from == to) continue;
+                try {
+                    apply.accept(in.reset(data, from, to));
+                    applied++;
+                } catch (RuntimeException e) {
+                    if (!blankFrom(data, i)) {
+                        throw new IOException(filename + " line " + line + " is malformed (" + e.getMessage() + ")", e);
+                    }
+                    System.err.println("Skipped a torn record at the end of " + filename + " (line " + line + ").");
+                    try (java.nio.channels.FileChannel ch = java.nio.channels.FileChannel.open(p, java.nio.file.StandardOpenOption.WRITE)) {
+                        ch.truncate(from);
+                    }
+                    break;
+                }
+            }
+            recordCount = flushedRecords = applied;
+            return applied;
+        }
+
+        private static boolean blankFrom(byte[] data, int i) {
+            for (; i < data.length; i++) {
+                if (data[i] != '\n' && data[i] != '\r') return false;
+            }
+            return true;
+        }
+
+        synchronized void truncate() throws IOException {
+            close();
+            new FileWriter(filename, false).close();
+            recordCount = flushedRecords = 0;
+        }
+
+        synchronized void close() {
+            if (out == null) return;
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close journal: " + e.getMessage());
+            }
+            out = null;
+            file = null;
+            flushedRecords = recordCount;
+        }
+    }
+
+    // -------------------------
+    // Byte-level codec for the '|'-separated record lines
+    //
+    // Fields are read straight out of the line's bytes (ints and ISO dates included) and
+    // written through one reusable byte buffer. Escaping is reversible: '|' -> \|,
+    // '\' -> \\, line breaks -> \n / \r.
+    // -------------------------
+    static class RecordCodec {
+        private static final ThreadLocal<FieldReader> READERS = ThreadLocal.withInitial(FieldReader::new);
+
+        // First line of borrowers.txt, materials.txt and transactions.txt. Files written before
+        // fields were escaped lack it and hold every field verbatim (a '\' is just a backslash
+        // and every '|' separates), so they are read that way until the next save rewrites them.
+        static final String FORMAT_LINE = "#escaped-fields";
+        private static final byte[] FORMAT_BYTES = FORMAT_LINE.getBytes(StandardCharsets.ISO_8859_1);
+
+        // adapts a record reader to the parallel loader, in the escaping filename was written
+        // with; each loader thread reuses its own FieldReader
+        static <T> ParallelLineLoader.RecordParser<T> parser(String filename, java.util.function.Function<FieldReader, T> read)
+                throws IOException {
+            boolean escaped = escaped(filename);
+            return (buf, from, to) -> isFormatLine(buf, from, to) ? null
+                    : read.apply(READERS.get().reset(buf, from, to, escaped));
+        }
+
+        // true unless the file has content and does not start with FORMAT_LINE
+        static boolean escaped(String filename) throws IOException {
+            Path p = Paths.get(filename);
+            if (!java.nio.file.Files.exists(p)) return true;
+            try (InputStream in = java.nio.file.Files.newInputStream(p)) {
+                byte[] head = in.readNBytes(FORMAT_BYTES.length);
+                return head.length == 0 || Arrays.equals(head, FORMAT_BYTES);
+            }
+        }
+
+        private static boolean isFormatLine(byte[] buf, int from, int to) {
+            return to - from == FORMAT_BYTES.length && buf[from] == '#'
+                    && Arrays.equals(buf, from, to, FORMAT_BYTES, 0, FORMAT_BYTES.length);
+        }
+
+        // sequential field cursor over one line held in buf[from, to)
+        static final class FieldReader {
+            private byte[] buf;
+            private int pos;
+            private int end;
+            private boolean plain; // current field is pure ASCII without escapes
+            private boolean escaped = true; // false for a file from before FORMAT_LINE: fields verbatim
+            private byte[] scratch = new byte[256];
+
+            FieldReader reset(byte[] buf, int from, int to) {
+                return reset(buf, from, to, true);
+            }
+
+            FieldReader reset(byte[] buf, int from, int to, boolean escaped) {
+                this.buf = buf;
+                this.pos = from;
+                this.end = to;
+                this.escaped = escaped;
+                return this;
+            }
+
+            boolean hasMore() { return pos <= end; }
+
+            String string() {
+                int from = pos, to = nextField();
+                if (plain) return new String(buf, from, to - from, StandardCharsets.ISO_8859_1);
+                if (scratch.length < to - from) scratch = new byte[Math.max(to - from, scratch.length * 2)];
+                int n = 0;
+                for (int i = from; i < to; i++) {
+                    byte c = buf[i];
+                    if (c == '\\' && escaped && i + 1 < to) {
+                        switch (buf[i + 1]) {
+                            case 'n': c = '\n'; i++; break;
+                            case 'r': c = '\r'; i++; break;
+                            case '|': case '\\': c = buf[++i]; break;
+                            default: break; // not an escape FieldWriter writes: the backslash stays
+                        }
+                    }
+                    scratch[n++] = c;
+                }
+                return new String(scratch, 0, n, StandardCharsets.UTF_8);
+            }
+
+            int integer() {
+                int from = pos, to = nextField();
+                int i = from;
+                boolean negative = i < to && buf[i] == '-';
+                if (negative || (i < to && buf[i] == '+')) i++;
+                if (i == to) throw new NumberFormatException("not a number: \"" + text(from, to) + "\"");
+                long v = 0;
+                for (; i < to; i++) {
+                    int d = buf[i] - '0';
+                    if (d < 0 || d > 9 || v > Integer.MAX_VALUE) {
+                        throw new NumberFormatException("not a number: \"" + text(from, to) + "\"");
+                    }
+                    v = v * 10 + d;
+                }
+                v = negative ? -v : v;
+                if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+                    throw new NumberFormatException("out of range: \"" + text(from, to) + "\"");
+                }
+                return (int) v;
+            }
+
+            LocalDate date() {
+                LocalDate d = optionalDate();
+                if (d == null) throw new IllegalArgumentException("missing date");
+                return d;
+            }
+
+            // null for an empty field
+            LocalDate optionalDate() {
+                int from = pos, to = nextField();
+                if (from == to) return null;
+                if (to - from == 10 && buf[from + 4] == '-' && buf[from + 7] == '-') {
+                    int y = digits(from, 4), m = digits(from + 5, 2), d = digits(from + 8, 2);
+                    if (y >= 0 && m >= 0 && d >= 0) return LocalDate.of(y, m, d);
+                }
+                // anything else (e.g. a five-digit year) goes through the full ISO parser
+                return LocalDate.parse(text(from, to));
+            }
+
+            // same rule as Boolean.parseBoolean: "true" in any case, everything else is false
+            boolean bool() {
+                int from = pos, to = nextField();
+                return to - from == 4
+                        && (buf[from] | 0x20) == 't' && (buf[from + 1] | 0x20) == 'r'
+                        && (buf[from + 2] | 0x20) == 'u' && (buf[from + 3] | 0x20) == 'e';
+            }
+
+            // end (exclusive) of the field at pos; moves pos past its separator
+            private int nextField() {
+                if (pos > end) throw new IllegalArgumentException("missing field");
+                boolean ascii = true;
+                int i = pos;
+                while (i < end) {
+                    byte c = buf[i];
+                    if (c == '|') break;
+                    if (c < 0) ascii = false;
+                    else if (c == '\\' && escaped) { ascii = false; i++; }
+                    i++;
+                }
+                int to = Math.min(i, end);
+                plain = ascii;
+                pos = to + 1;
+                return to;
+            }
+
+            private int digits(int from, int count) {
+                int v = 0;
+                for (int i = from; i < from + count; i++) {
+                    int d = buf[i] - '0';
+                    if (d < 0 || d > 9) return -1;
+                    v = v * 10 + d;
+                }
+                return v;
+            }
+
+            private String text(int from, int to) {
+                return new String(buf, from, to - from, StandardCharsets.UTF_8);
+            }
+        }
+
+        // Encodes records into a reusable buffer that is drained to the stream in ~64 KB blocks.
+        static final class FieldWriter implements Closeable {
+            private static final int FLUSH_AT = 64 << 10;
+
+            private final OutputStream out;
+            private byte[] buf = new byte[FLUSH_AT + 1024];
+            private int len;
+            private boolean lineStart = true;
+
+            FieldWriter(OutputStream out) {
+                this.out = out;
+            }
+
+            // null is written as an empty field
+            FieldWriter string(String s) {
+                separator();
+                if (s == null) return this;
+                int n = s.length();
+                ensure(n * 3); // worst case per char: 3 UTF-8 bytes (an escape is 2, a surrogate pair 4 for 2 chars)
+                byte[] b = buf;
+                int p = len;
+                for (int i = 0; i < n; i++) {
+                    char c = s.charAt(i);
+                    if (c < 0x80) {
+                        switch (c) {
+                            case '|': case '\\': b[p++] = '\\'; b[p++] = (byte) c; break;
+                            case '\n': b[p++] = '\\'; b[p++] = 'n'; break;
+                            case '\r': b[p++] = '\\'; b[p++] = 'r'; break;
+                            default: b[p++] = (byte) c;
+                        }
+                    } else if (c < 0x800) {
+                        b[p++] = (byte) (0xC0 | (c >> 6));
+                        b[p++] = (byte) (0x80 | (c & 0x3F));
+                    } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        int cp = Character.toCodePoint(c, s.charAt(++i));
+                        b[p++] = (byte) (0xF0 | (cp >> 18));
+                        b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                        b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                        b[p++] = (byte) (0x80 | (cp & 0x3F));
+                    } else if (Character.isSurrogate(c)) {
+                        b[p++] = '?'; // unpaired surrogate, as String.getBytes would do
+                    } else {
+                        b[p++] = (byte) (0xE0 | (c >> 12));
+                        b[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                        b[p++] = (byte) (0x80 | (c & 0x3F));
+                    }
+                }
+                len = p;
+                return this;
+            }
+
+            // FORMAT_LINE, as the first line of a text data file
+            void formatLine() throws IOException {
+                string(FORMAT_LINE);
+                endRecord();
+            }
+
+            FieldWriter integer(int v) {
+                separator();
+                ensure(11);
+                long x = v;
+                if (x < 0) {
+                    buf[len++] = '-';
+                    x = -x;
+                }
+                int start = len;
+                do {
+                    buf[len++] = (byte) ('0' + x % 10);
+                    x /= 10;
+                } while (x != 0);
+                reverse(start, len - 1);
+                return this;
+            }
+
+            // yyyy-MM-dd; null is written as an empty field
+            FieldWriter date(LocalDate d) {
+                separator();
+                if (d == null) return this;
+                int y = d.getYear();
+                if (y < 0 || y > 9999) return ascii(d.toString());
+                ensure(10);
+                pad(y, 4);
+                buf[len++] = '-';
+                pad(d.getMonthValue(), 2);
+                buf[len++] = '-';
+                pad(d.getDayOfMonth(), 2);
+                return this;
+            }
+
+            FieldWriter bool(boolean v) {
+                separator();
+                return ascii(v ? "true" : "false");
+            }
+
+            void endRecord() throws IOException {
+                ensure(1);
+                buf[len++] = '\n';
+                lineStart = true;
+                if (len >= FLUSH_AT) drain();
+            }
+
+            void flush() throws IOException {
+                drain();
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    flush();
+                } finally {
+                    out.close();
+                }
+            }
+
+            private void drain() throws IOException {
+                out.write(buf, 0, len);
+                len = 0;
+            }
+
+            private void separator() {
+                if (lineStart) {
+                    lineStart = false;
+                } else {
+                    ensure(1);
+                    buf[len++] = '|';
+                }
+            }
+
+            private FieldWriter ascii(String s) {
+                ensure(s.length());
+                for (int i = 0; i < s.length(); i++) buf[len++] = (byte) s.charAt(i);
+                return this;
+            }
+
+            private void pad(int v, int width) {
+                for (int i = len + width - 1; i >= len; i--) {
+                    buf[i] = (byte) ('0' + v % 10);
+                    v /= 10;
+                }
+                len += width;
+            }
+
+            private void reverse(int i, int j) {
+                while (i < j) {
+                    byte t = buf[i];
+                    buf[i++] = buf[j];
+                    buf[j--] = t;
+                }
+            }
+
+            private void ensure(int extra) {
+                if (len + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+            }
+        }
+    }
+
+    // -------------------------
+    // Parallel loader for the line-based data files
+    //
+    // The file is cut into ~4 MB ranges that end on a newline; each range is memory-mapped
+    // and parsed on the fork-join pool, and the per-range results are concatenated in file
+    // order. A line that fails to parse is counted and skipped instead of ending the load.
+    // -------------------------
+    static class ParallelLineLoader {
+        private static final int CHUNK_SIZE = 4 << 20;
+
+        // parses one line (already trimmed, never empty) held in buf[from, to)
+        interface RecordParser<T> {
+            T parse(byte[] buf, int from, int to);
+        }
+
+        static final class Result<T> {
+            final List<T> rows;
+            final long malformed;
+            final long bytes;
+            final long nanos;
+
+            Result(List<T> rows, long malformed, long bytes, long nanos) {
+                this.rows = rows;
+                this.malformed = malformed;
+                this.bytes = bytes;
+                this.nanos = nanos;
+            }
+
+            long rowsPerSecond() { return nanos == 0 ? 0 : rows.size() * 1_000_000_000L / nanos; }
+
+            // one status line per file; silent for an empty file
+            void report(String what) {
+                if (rows.isEmpty() && malformed == 0) return;
+                System.out.printf("Loaded %,d %s in %d ms (%,d rows/s)%n", rows.size(), what, nanos / 1_000_000, rowsPerSecond());
+                if (malformed > 0) System.err.printf("Skipped %,d malformed %s line(s)%n", malformed, what);
+            }
+        }
+
+        private static final class Chunk<T> {
+            final List<T> rows = new ArrayList<>();
+            long malformed;
+        }
+
+        static <T> Result<T> load(String filename, RecordParser<T> parser) throws IOException {
+            long start = System.nanoTime();
+            try (FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+                long size = ch.size();
+                List<long[]> ranges = split(ch, size);
+                List<ForkJoinTask<Chunk<T>>> tasks = new ArrayList<>(ranges.size());
+                for (long[] r : ranges) {
+                    tasks.add(ForkJoinPool.commonPool().submit(() -> parseRange(ch, r[0], r[1], parser)));
+                }
+                List<T> rows = new ArrayList<>();
+                long malformed = 0;
+                for (ForkJoinTask<Chunk<T>> task : tasks) {
+                    Chunk<T> c;
+                    try {
+                        c = task.join();
+                    } catch (UncheckedIOException e) {
+                        throw e.getCause();
+                    }
+                    rows.addAll(c.rows);
+                    malformed += c.malformed;
+                }
+                return new Result<>(rows, malformed, size, System.nanoTime() - start);
+            }
+        }
+
+        // [start, end) ranges of roughly CHUNK_SIZE bytes, each ending just after a newline (or at EOF)
+        private static List<long[]> split(FileChannel ch, long size) throws IOException {
+            List<long[]> ranges = new ArrayList<>();
+            ByteBuffer probe = ByteBuffer.allocate(4096);
+            long start = 0;
+            while (start < size) {
+                long end = Math.min(size, start + CHUNK_SIZE);
+                // extend to the end of the line that straddles the nominal boundary
+                while (end < size) {
+                    probe.clear();
+                    int n = ch.read(probe, end);
+                    if (n <= 0) { end = size; break; }
+                    int nl = -1;
+                    for (int i = 0; i < n; i++) {
+                        if (probe.get(i) == '\n') { nl = i; break; }
+                    }
+                    if (nl >= 0) { end += nl + 1; break; }
+                    end += n;
+                }
+                ranges.add(new long[] { start, Math.min(end, size) });
+                start = end;
+            }
+            return ranges;
+        }
+
+        private static <T> Chunk<T> parseRange(FileChannel ch, long start, long end, RecordParser<T> parser) {
+            Chunk<T> chunk = new Chunk<>();
+            byte[] buf = new byte[(int) (end - start)];
+            try {
+                ch.map(FileChannel.MapMode.READ_ONLY, start, end - start).get(buf);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            int lineStart = 0;
+            for (int i = 0; i <= buf.length; i++) {
+                if (i < buf.length && buf[i] != '\n') continue;
+                int from = lineStart, to = i;
+                lineStart = i + 1;
+                // same trimming as String.trim (drops \r and surrounding blanks)
+                while (from < to && (buf[from] & 0xFF) <= ' ') from++;
+                while (to > from && (buf[to - 1] & 0xFF) <= ' ') to--;
+                if (from == to) continue;
+                try {
+                    T row = parser.parse(buf, from, to);
+                    if (row != null) chunk.rows.add(row);
+                } catch (RuntimeException e) {
+                    chunk.malformed++;
+                }
+            }
+            return chunk;
+        }
+    }
+
+    // -------------------------
+    // Bulk CSV import (--import-borrowers=FILE, --import-materials=FILE)
+    //
+    // Lines are parsed and validated in parallel by ParallelLineLoader (4 MB chunks, so the
+    // file is never held as a whole). A sequential pass in file order then rejects
+    // duplicate IDs and, for borrowers, a second person with the same name and birthday,
+    // using hash sets instead of scanning the repository per row. Accepted rows are added
+    // with a single persistence step; rejected lines go to FILE.rejects.csv, prefixed with
+    // a "reason" column so they can be fixed and imported again.
+    //
+    // borrowers: id,firstName,middleName,lastName,gender,birthday,contactNumber,email,address
+    // materials: type,id,title,author,yearPublished,publisher,totalCopies
+    // (type is BOOK, JOURNAL, MAGAZINE or THESIS; an optional header line is skipped)
+    // -------------------------
+    static final class BulkImport {
+        private static final String[] BORROWER_COLUMNS =
+                { "id", "firstName", "middleName", "lastName", "gender", "birthday", "contactNumber", "email", "address" };
+        private static final String[] MATERIAL_COLUMNS =
+                { "type", "id", "title", "author", "yearPublished", "publisher", "totalCopies" };
+
+        // one input line: the record it describes, or why it was rejected
+        private static final class Row<T> {
+            final String line;
+            final T record;
+            final boolean header;
+            String reason;
+
+            Row(String line, T record, boolean header, String reason) {
+                this.line = line;
+                this.record = record;
+                this.header = header;
+                this.reason = reason;
+            }
+        }
+
+        private interface RowValidator<T> {
+            // the record for a row, or an IllegalArgumentException carrying the reason
+            T validate(String[] fields);
+        }
+
+        static void importBorrowers(Library lib, String file) throws IOException {
+            long start = System.nanoTime();
+            List<Row<Borrower>> rows = parse(file, BORROWER_COLUMNS, BulkImport::borrower);
+
+            // name + birthday of every borrower already registered, then of each accepted row
+            Map<String, String> people = new HashMap<>();
+            for (Borrower b : lib.borrowers) people.putIfAbsent(personKey(b), b.getId());
+            Set<String> ids = new HashSet<>();
+            List<Borrower> accepted = new ArrayList<>();
+            for (Row<Borrower> row : rows) {
+                Borrower b = row.record;
+                if (b == null) continue;
+                if (lib.borrowers.contains(b.getId())) {
+                    row.reason = "Borrower ID already registered.";
+                } else if (!ids.add(b.getId())) {
+                    row.reason = "Duplicate borrower ID in file.";
+                } else {
+                    String other = people.putIfAbsent(personKey(b), b.getId());
+                    if (other != null) {
+                        row.reason = "Same name and birthday as borrower " + other + ".";
+                    } else {
+                        accepted.add(b);
+                    }
+                }
+            }
+            lib.addImported(accepted, Collections.emptyList());
+            finish(file, BORROWER_COLUMNS, rows, accepted.size(), "borrowers", start);
+        }
+
+        static void importMaterials(Library lib, String file) throws IOException {
+            long start = System.nanoTime();
+            List<Row<Material>> rows = parse(file, MATERIAL_COLUMNS, BulkImport::material);
+            Set<String> ids = new HashSet<>();
+            List<Material> accepted = new ArrayList<>();
+            for (Row<Material> row : rows) {
+                Material m = row.record;
+                if (m == null) continue;
+                if (lib.materials.contains(m.getId())) {
+                    row.reason = "Material ID already exists.";
+                } else if (!ids.add(m.getId())) {
+                    row.reason = "Duplicate material ID in file.";
+                } else {
+                    accepted.add(m);
+                }
+            }
+            lib.addImported(Collections.emptyList(), accepted);
+            finish(file, MATERIAL_COLUMNS, rows, accepted.size(), "materials", start);
+        }
+
+        private static Borrower borrower(String[] f) {
+            List<Validators.FieldError> errors = Validators.BORROWER_ROW.validate(f);
+            if (!errors.isEmpty()) {
+                StringBuilder reason = new StringBuilder();
+                for (Validators.FieldError e : errors) reason.append(reason.length() == 0 ? "" : " ").append(e);
+                throw new IllegalArgumentException(reason.toString());
+            }
+            return new Borrower(f[0], f[1], f[2], f[3], f[4].toUpperCase(), LocalDate.parse(f[5]), f[6], f[7], f[8], 0);
         }
 
-        private String promptValidated(String prompt, ValidateFn fn, String errorMsg) {
-            while (true) {
-                System.out.print(prompt);
-                String s = scanner.nextLine().trim();
-                if (fn.test(s)) return s;
-                System.out.println(errorMsg);
+        private static Material material(String[] f) {
+            String type = f[0].toUpperCase(), id = f[1], title = f[2], author = f[3], publisher = f[5];
+            if (id.isEmpty()) throw new IllegalArgumentException("Missing material ID.");
+            if (title.isEmpty()) throw new IllegalArgumentException("Missing title.");
+            if ((type.equals("BOOK") || type.equals("THESIS")) && author.isEmpty()) {
+                throw new IllegalArgumentException("Missing author.");
+            }
+            if (publisher.isEmpty()) throw new IllegalArgumentException("Missing publisher.");
+            int year, copies;
+            try {
+                year = Integer.parseInt(f[4]);
+                copies = Integer.parseInt(f[6]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number entered.");
+            }
+            if (copies < 0) throw new IllegalArgumentException("Number of copies must not be negative.");
+            try {
+                return Library.newMaterial(type, id, title, author, year, publisher, copies);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid type.");
             }
         }
 
-        private String promptOptionalValidated(String prompt, ValidateFn fn, String errorMsg) {
-            System.out.print(prompt);
-            String s = scanner.nextLine().trim();
-            if (s.isEmpty()) return "";
-            if (fn.test(s)) return s;
-            System.out.println(errorMsg);
-            return promptOptionalValidated(prompt, fn, errorMsg);
+        private static String personKey(Borrower b) {
+            return b.getFirstName().toLowerCase() + '\0' + b.getLastName().toLowerCase() + '\0' + b.getBirthday();
         }
 
-        private LocalDate promptDate(String prompt) {
-            while (true) {
-                System.out.print(prompt);
-                String s = scanner.nextLine().trim();
+        // parses and validates every line on the loader's worker threads
+        private static <T> List<Row<T>> parse(String file, String[] columns, RowValidator<T> validator) throws IOException {
+            ParallelLineLoader.Result<Row<T>> r = ParallelLineLoader.load(file, (buf, from, to) -> {
+                String line = new String(buf, from, to - from, StandardCharsets.UTF_8);
                 try {
-                    return LocalDate.parse(s);
-                } catch (Exception e) {
-                    System.out.println("Invalid date format. Use YYYY-MM-DD.");
+                    String[] fields = splitCsv(line);
+                    if (fields.length != columns.length) {
+                        throw new IllegalArgumentException("Expected " + columns.length + " fields, found " + fields.length + ".");
+                    }
+                    if (fields[0].equalsIgnoreCase(columns[0]) && fields[1].equalsIgnoreCase(columns[1])) {
+                        return new Row<T>(line, null, true, null);
+                    }
+                    return new Row<>(line, validator.validate(fields), false, null);
+                } catch (IllegalArgumentException e) {
+                    return new Row<T>(line, null, false, e.getMessage());
+                }
+            });
+            return r.rows;
+        }
+
+        private static void finish(String file, String[] columns, List<? extends Row<?>> rows, int accepted,
+                                   String what, long start) throws IOException {
+            String rejectFile = file + ".rejects.csv";
+            int rejected = 0;
+            try (BufferedWriter w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(rejectFile), StandardCharsets.UTF_8))) {
+                w.write("reason," + String.join(",", columns));
+                w.newLine();
+                for (Row<?> row : rows) {
+                    if (row.header || row.reason == null) continue;
+                    w.write(quoteCsv(row.reason) + "," + row.line);
+                    w.newLine();
+                    rejected++;
                 }
             }
+            long ms = (System.nanoTime() - start) / 1_000_000;
+            System.out.printf("Imported %,d %s in %d ms; rejected %,d (see %s)%n", accepted, what, ms, rejected, rejectFile);
         }
 
-        private static boolean validateName(String s) {
-            if (s == null) return false;
-            s = s.trim();
-            if (s.isEmpty()) return false;
-            // letters, spaces, hyphen, apostrophe
-            return Pattern.matches("[A-Za-z\\s\\-']+", s);
+        // one CSV line (RFC 4180 quoting, no line breaks inside fields); fields are trimmed
+        static String[] splitCsv(String line) {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString().trim());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            if (quoted) throw new IllegalArgumentException("Unterminated quoted field.");
+            fields.add(field.toString().trim());
+            return fields.toArray(new String[0]);
         }
 
-        private static boolean validateEmail(String s) {
-            if (s == null) return false;
-            s = s.trim();
-            // basic pattern
-            return Pattern.matches("^[A-Za-z0-9+_.-]+@[A-Za-z0-9.-]+$", s);
+        static String quoteCsv(String s) {
+            return "\"" + s.replace("\"", "\"\"") + "\"";
         }
+    }
 
-        private static boolean validatePhone(String s) {
-            if (s == null) return false;
-            s = s.trim();
-            return Pattern.matches("\\d{7,15}", s);
+    // -------------------------
+    // Binary snapshot of the whole library (library.snap)
+    //
+    // Layout: magic "LSNP", version, the size and mtime of each text data file the
+    // snapshot was taken from, then the borrower, material and transaction sections
+    // (count + records), followed by a CRC32 of everything before it. Strings are a
+    // length (-1 for null) plus UTF-8 bytes; dates are epoch days.
+    // -------------------------
+    static class LibrarySnapshot {
+        private static final int MAGIC = 0x4C534E50; // "LSNP"
+        private static final int VERSION = 1;
+        private static final int NO_DATE = Integer.MIN_VALUE;
+
+        private final String filename;
+        private final String[] sources;
+
+        static final class State {
+            final List<Borrower> borrowers = new ArrayList<>();
+            final List<Material> materials = new ArrayList<>();
+            final List<Transaction> transactions = new ArrayList<>();
         }
 
-        private static String escape(String s) {
-            if (s == null) return "";
-            return s.replace("\n"," ").replace("|","/");
+        // sources: the text files the snapshot stands in for; it is only used while they are unchanged
+        LibrarySnapshot(String filename, String... sources) {
+            this.filename = filename;
+            this.sources = sources;
         }
 
-        private static String unescape(String s) {
-            if (s == null) return "";
-            return s.replace("/", "|");
+        // written to a temp file and moved into place, so a crash never leaves a half-written snapshot
+        void write(Iterable<Borrower> borrowers, int borrowerCount, Iterable<Material> materials, int materialCount,
+                   Iterable<Transaction> transactions, int transactionCount) throws IOException {
+            Path target = Paths.get(filename);
+            Path tmp = Paths.get(filename + ".tmp");
+            java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+            try (OutputStream raw = new FileOutputStream(tmp.toFile())) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new java.util.zip.CheckedOutputStream(raw, crc), 64 << 10));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(sources.length);
+                for (String s : sources) {
+                    File f = new File(s);
+                    writeString(out, s);
+                    out.writeLong(f.length());
+                    out.writeLong(f.lastModified());
+                }
+
+                out.writeInt(borrowerCount);
+                for (Borrower b : borrowers) {
+                    writeString(out, b.getId());
+                    writeString(out, b.getFirstName());
+                    writeString(out, b.getMiddleName());
+                    writeString(out, b.getLastName());
+                    writeString(out, b.getGender());
+                    out.writeInt(epochDay(b.getBirthday()));
+                    writeString(out, b.getContactNumber());
+                    writeString(out, b.getEmail());
+                    writeString(out, b.getAddress());
+                    out.writeInt(b.getViolations());
+                }
+
+                out.writeInt(materialCount);
+                for (Material m : materials) {
+                    writeString(out, m.getTypeTag());
+                    writeString(out, m.getId());
+                    writeString(out, m.getTitle());
+                    writeString(out, m.getAuthor());
+                    out.writeInt(m.getYearPublished());
+                    writeString(out, m.getPublisher());
+                    out.writeInt(m.getTotalCopies());
+                    out.writeInt(m.getBorrowedCopies());
+                }
+
+                out.writeInt(transactionCount);
+                for (Transaction t : transactions) {
+                    writeString(out, t.getId());
+                    writeString(out, t.getBorrowerId());
+                    writeString(out, t.getMaterialId());
+                    out.writeInt(epochDay(t.getBorrowedDate()));
+                    out.writeInt(epochDay(t.getDueDate()));
+                    out.writeBoolean(t.isReturned());
+                    out.writeInt(epochDay(t.getReturnedDate()));
+                }
+                out.flush();
+
+                // trailer goes around the checksummed stream
+                ByteBuffer trailer = ByteBuffer.allocate(8).putLong(crc.getValue());
+                raw.write(trailer.array());
+            }
+            java.nio.file.Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         }
 
-        // small functional interface for validation
-        private interface ValidateFn { boolean test(String s); }
+        // null when there is no snapshot or a source file changed since it was written;
+        // IOException when it is unreadable (bad checksum, unknown version, truncated)
+        State read() throws IOException {
+            Path p = Paths.get(filename);
+            if (!java.nio.file.Files.exists(p)) return null;
+            byte[] data = java.nio.file.Files.readAllBytes(p);
+            if (data.length < 16) throw new IOException("snapshot truncated");
+            java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+            crc.update(data, 0, data.length - 8);
+            ByteBuffer in = ByteBuffer.wrap(data);
+            if (in.getLong(data.length - 8) != crc.getValue()) throw new IOException("snapshot checksum mismatch");
+            in.limit(data.length - 8);
+
+            try {
+                if (in.getInt() != MAGIC) throw new IOException("not a snapshot file");
+                int version = in.getInt();
+                if (version != VERSION) throw new IOException("unsupported snapshot version " + version);
+                int n = in.getInt();
+                if (n != sources.length) return null;
+                for (int i = 0; i < n; i++) {
+                    File f = new File(readString(in));
+                    long length = in.getLong(), modified = in.getLong();
+                    if (f.length() != length || f.lastModified() != modified) return null;
+                }
+
+                State s = new State();
+                for (int i = in.getInt(); i > 0; i--) {
+                    s.borrowers.add(new Borrower(readString(in), readString(in), readString(in), readString(in),
+                            readString(in), date(in.getInt()), readString(in), readString(in), readString(in), in.getInt()));
+                }
+                for (int i = in.getInt(); i > 0; i--) {
+                    String type = readString(in), id = readString(in), title = readString(in), author = readString(in);
+                    int year = in.getInt();
+                    String publisher = readString(in);
+                    int total = in.getInt();
+                    Material m = Library.newMaterial(type, id, title, author, year, publisher, total);
+                    m.setBorrowedCopies(in.getInt());
+                    s.materials.add(m);
+                }
+                for (int i = in.getInt(); i > 0; i--) {
+                    s.transactions.add(new Transaction(readString(in), readString(in), readString(in),
+                            date(in.getInt()), date(in.getInt()), in.get() != 0, date(in.getInt())));
+                }
+                return s;
+            } catch (java.nio.BufferUnderflowException | IllegalArgumentException | DateTimeException e) {
+                throw new IOException("snapshot corrupt: " + e, e);
+            }
+        }
+
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            if (s == null) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(ByteBuffer in) {
+            int len = in.getInt();
+            if (len < 0) return null;
+            String s = new String(in.array(), in.position(), len, StandardCharsets.UTF_8);
+            in.position(in.position() + len);
+            return s;
+        }
+
+        private static int epochDay(LocalDate d) {
+            return d == null ? NO_DATE : (int) d.toEpochDay();
+        }
+
+        private static LocalDate date(int epochDay) {
+            return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+        }
+    }
+
+    // -------------------------
+    // Cold transaction segments (transactions.cold/, --cold-after=DAYS)
+    //
+    // Returned loans older than the cut-off move out of the transaction store into
+    // immutable segment files, so the store, transactions.txt and the snapshot only carry
+    // open and recent loans. A segment's rows are sorted by borrower ID then borrow date
+    // and cut into blocks of BLOCK_ROWS transactions.txt lines, each Deflate-compressed on
+    // its own. The header is read once at startup and kept in memory: borrow-day and
+    // borrower/material ID ranges, a bloom filter per ID set, the loans per material (so
+    // the circulation counters never open a block) and the block index. A history lookup
+    // skips every segment whose ranges or filters rule the ID out; a borrower lookup then
+    // inflates only the blocks covering that ID.
+    //
+    // Layout: magic "LSEG", version, header length, header, CRC32 of the header, blocks.
+    // Header: cut-off day, rows, late returns, min/max borrow day, min/max borrower ID,
+    // min/max material ID, borrower filter, material filter, (material ID, loans) pairs,
+    // block index (first borrower ID, offset, length, CRC32). Every row of a segment was
+    // returned before its cut-off day, and each archiving pass takes all such rows, so a
+    // store row returned before the newest cut-off is a leftover of an interrupted pass.
+    // -------------------------
+    static final class TransactionArchive {
+        private static final int MAGIC = 0x4C534547; // "LSEG"
+        private static final int VERSION = 1;
+        static final int SEGMENT_ROWS = 1_000_000;
+        static final int BLOCK_ROWS = 4096;
+        private static final int CACHED_BLOCKS = 64;
+
+        private final Path dir;
+        private final IdDictionary borrowerIds;
+        private final IdDictionary materialIds;
+        // oldest first; replaced, never modified, so a reader can keep the list it was handed
+        private volatile List<Segment> segments = Collections.emptyList();
+        // recently inflated blocks (rows already bound to keys), least recently used evicted
+        private final Map<String, List<Transaction>> cache = new LinkedHashMap<String, List<Transaction>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Transaction>> eldest) {
+                return size() > CACHED_BLOCKS;
+            }
+        };
+
+        static final class Segment {
+            final Path file;
+            final int cutoffDay;
+            final int rows;
+            final int late;
+            final int minBorrowedDay, maxBorrowedDay;
+            final String minBorrower, maxBorrower, minMaterial, maxMaterial;
+            final BloomFilter borrowerFilter, materialFilter;
+            final String[] materials;  // distinct material IDs
+            final int[] materialLoans; // loans per entry of materials
+            int[] materialKeys;        // dictionary keys of materials, bound when the segment is opened
+            final String[] blockFirst; // first borrower ID of each block
+            final long[] blockOffset;
+            final int[] blockLength;
+            final long[] blockCrc;
+
+            Segment(Path file, ByteBuffer in) {
+                this.file = file;
+                cutoffDay = in.getInt();
+                rows = in.getInt();
+                late = in.getInt();
+                minBorrowedDay = in.getInt();
+                maxBorrowedDay = in.getInt();
+                minBorrower = LibrarySnapshot.readString(in);
+                maxBorrower = LibrarySnapshot.readString(in);
+                minMaterial = LibrarySnapshot.readString(in);
+                maxMaterial = LibrarySnapshot.readString(in);
+                borrowerFilter = BloomFilter.read(in);
+                materialFilter = BloomFilter.read(in);
+                materials = new String[in.getInt()];
+                materialLoans = new int[materials.length];
+                for (int i = 0; i < materials.length; i++) {
+                    materials[i] = LibrarySnapshot.readString(in);
+                    materialLoans[i] = in.getInt();
+                }
+                int blocks = in.getInt();
+                blockFirst = new String[blocks];
+                blockOffset = new long[blocks];
+                blockLength = new int[blocks];
+                blockCrc = new long[blocks];
+                for (int i = 0; i < blocks; i++) {
+                    blockFirst[i] = LibrarySnapshot.readString(in);
+                    blockOffset[i] = in.getLong();
+                    blockLength[i] = in.getInt();
+                    blockCrc[i] = in.getLong();
+                }
+            }
+
+            boolean mayHoldBorrower(String id) {
+                return id.compareTo(minBorrower) >= 0 && id.compareTo(maxBorrower) <= 0 && borrowerFilter.mightContain(id);
+            }
+
+            boolean mayHoldMaterial(String id) {
+                return id.compareTo(minMaterial) >= 0 && id.compareTo(maxMaterial) <= 0 && materialFilter.mightContain(id);
+            }
+        }
+
+        // k probes by double hashing a 64-bit FNV-1a of the ID; about 1% false positives at 10 bits per ID
+        static final class BloomFilter {
+            private static final int PROBES = 7;
+            private final long[] bits;
+
+            BloomFilter(int expected) {
+                bits = new long[Math.max(1, (expected * 10 + 63) / 64)];
+            }
+
+            private BloomFilter(long[] bits) { this.bits = bits; }
+
+            void add(String id) {
+                long h = hash(id), m = bits.length * 64L;
+                for (int i = 0; i < PROBES; i++) {
+                    long bit = Math.floorMod((int) h + i * (int) (h >>> 32 | 1), m);
+                    bits[(int) (bit >>> 6)] |= 1L << bit;
+                }
+            }
+
+            boolean mightContain(String id) {
+                long h = hash(id), m = bits.length * 64L;
+                for (int i = 0; i < PROBES; i++) {
+                    long bit = Math.floorMod((int) h + i * (int) (h >>> 32 | 1), m);
+                    if ((bits[(int) (bit >>> 6)] & 1L << bit) == 0) return false;
+                }
+                return true;
+            }
+
+            private static long hash(String s) {
+                long h = 0xcbf29ce484222325L;
+                for (int i = 0; i < s.length(); i++) h = (h ^ s.charAt(i)) * 0x100000001b3L;
+                return h;
+            }
+
+            void write(DataOutputStream out) throws IOException {
+                out.writeInt(bits.length);
+                for (long word : bits) out.writeLong(word);
+            }
+
+            static BloomFilter read(ByteBuffer in) {
+                long[] bits = new long[in.getInt()];
+                for (int i = 0; i < bits.length; i++) bits[i] = in.getLong();
+                return new BloomFilter(bits);
+            }
+        }
+
+        TransactionArchive(String dir, IdDictionary borrowerIds, IdDictionary materialIds) {
+            this.dir = Paths.get(dir);
+            this.borrowerIds = borrowerIds;
+            this.materialIds = materialIds;
+        }
+
+        // reads every segment header; the blocks stay on disk until a lookup needs them
+        void open() throws IOException {
+            List<Segment> found = new ArrayList<>();
+            if (java.nio.file.Files.isDirectory(dir)) {
+                List<Path> files = new ArrayList<>();
+                try (DirectoryStream<Path> ds = java.nio.file.Files.newDirectoryStream(dir, "seg-*.lseg")) {
+                    for (Path p : ds) files.add(p);
+                }
+                Collections.sort(files);
+                for (Path p : files) found.add(bind(readHeader(p)));
+            }
+            synchronized (cache) { cache.clear(); }
+            segments = Collections.unmodifiableList(found);
+        }
+
+        List<Segment> segments() { return segments; }
+
+        boolean isEmpty() { return segments.isEmpty(); }
+
+        long size() {
+            long n = 0;
+            for (Segment s : segments) n += s.rows;
+            return n;
+        }
+
+        // newest cut-off day (NO_DATE without segments): every loan returned before it is archived
+        int cutoffDay() {
+            int day = TransactionStore.NO_DATE;
+            for (Segment s : segments) day = Math.max(day, s.cutoffDay);
+            return day;
+        }
+
+        // the borrower's archived loans in segs, in segment order (oldest first within each)
+        List<Transaction> byBorrower(List<Segment> segs, String borrowerId) throws IOException {
+            List<Transaction> found = new ArrayList<>();
+            for (Segment s : segs) {
+                if (!s.mayHoldBorrower(borrowerId)) continue;
+                // blocks are in borrower order: from the last one starting before the ID
+                // through the last one starting at it
+                int from = lowerBlock(s.blockFirst, borrowerId) - 1;
+                for (int i = Math.max(0, from); i < s.blockFirst.length && s.blockFirst[i].compareTo(borrowerId) <= 0; i++) {
+                    for (Transaction t : block(s, i)) if (t.getBorrowerId().equals(borrowerId)) found.add(t);
+                }
+            }
+            return found;
+        }
+
+        List<Transaction> byMaterial(List<Segment> segs, String materialId) throws IOException {
+            List<Transaction> found = new ArrayList<>();
+            int key = materialIds.lookup(materialId); // segment materials are interned when opened
+            for (Segment s : segs) {
+                if (!s.mayHoldMaterial(materialId)) continue;
+                for (int i = 0; i < s.blockFirst.length; i++) {
+                    for (Transaction t : block(s, i)) if (t.getMaterialKey() == key) found.add(t);
+                }
+            }
+            return found;
+        }
+
+        // every row of one segment, a block at a time and bypassing the block cache
+        void forEach(Segment s, java.util.function.Consumer<Transaction> action) throws IOException {
+            for (int i = 0; i < s.blockFirst.length; i++) inflate(s, i).forEach(action);
+        }
+
+        // writes rows (all returned before cutoffDay) as new segments, not yet visible to
+        // lookups; the caller publishes them together with dropping the rows from the store
+        List<Segment> write(List<Transaction> rows, int cutoffDay) throws IOException {
+            // stable, so loans of one borrower on one day keep their store order
+            List<Transaction> sorted = new ArrayList<>(rows);
+            sorted.sort(Comparator.comparing(Transaction::getBorrowerId).thenComparing(Transaction::getBorrowedDate));
+            java.nio.file.Files.createDirectories(dir);
+            int next = 1;
+            for (Segment s : segments) next = Math.max(next, sequence(s.file) + 1);
+            List<Segment> written = new ArrayList<>();
+            for (int from = 0; from < sorted.size(); from += SEGMENT_ROWS) {
+                List<Transaction> part = sorted.subList(from, Math.min(sorted.size(), from + SEGMENT_ROWS));
+                Path file = dir.resolve(String.format("seg-%06d.lseg", next++));
+                writeSegment(file, part, cutoffDay);
+                written.add(bind(readHeader(file)));
+            }
+            return written;
+        }
+
+        void publish(List<Segment> added) {
+            List<Segment> all = new ArrayList<>(segments);
+            all.addAll(added);
+            segments = Collections.unmodifiableList(all);
+        }
+
+        private Segment bind(Segment s) {
+            s.materialKeys = new int[s.materials.length];
+            for (int i = 0; i < s.materials.length; i++) s.materialKeys[i] = materialIds.intern(s.materials[i]);
+            return s;
+        }
+
+        private static int sequence(Path file) {
+            String name = file.getFileName().toString();
+            return Integer.parseInt(name.substring(4, name.length() - 5));
+        }
+
+        // index of the first block starting at or after id
+        private static int lowerBlock(String[] first, String id) {
+            int lo = 0, hi = first.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (first[mid].compareTo(id) < 0) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        private List<Transaction> block(Segment s, int i) throws IOException {
+            String key = s.file.getFileName() + "#" + i;
+            synchronized (cache) {
+                List<Transaction> rows = cache.get(key);
+                if (rows != null) return rows;
+            }
+            List<Transaction> rows = Collections.unmodifiableList(inflate(s, i));
+            synchronized (cache) { cache.put(key, rows); }
+            return rows;
+        }
+
+        private List<Transaction> inflate(Segment s, int i) throws IOException {
+            ByteBuffer packed = ByteBuffer.allocate(s.blockLength[i]);
+            try (FileChannel ch = FileChannel.open(s.file, StandardOpenOption.READ)) {
+                while (packed.hasRemaining()) {
+                    if (ch.read(packed, s.blockOffset[i] + packed.position()) < 0) throw new IOException(s.file + " truncated");
+                }
+            }
+            java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+            crc.update(packed.array());
+            if (crc.getValue() != s.blockCrc[i]) throw new IOException(s.file + ": block " + i + " checksum mismatch");
+
+            java.util.zip.Inflater inflater = new java.util.zip.Inflater();
+            ByteArrayOutputStream lines = new ByteArrayOutputStream(s.blockLength[i] * 4);
+            try {
+                inflater.setInput(packed.array());
+                byte[] chunk = new byte[64 << 10];
+                while (!inflater.finished()) {
+                    int n = inflater.inflate(chunk);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) throw new IOException(s.file + ": block " + i + " truncated");
+                    lines.write(chunk, 0, n);
+                }
+            } catch (java.util.zip.DataFormatException e) {
+                throw new IOException(s.file + ": block " + i + " corrupt", e);
+            } finally {
+                inflater.end();
+            }
+
+            byte[] buf = lines.toByteArray();
+            List<Transaction> rows = new ArrayList<>(BLOCK_ROWS);
+            RecordCodec.FieldReader r = new RecordCodec.FieldReader();
+            for (int from = 0, to; from < buf.length; from = to + 1) {
+                to = from;
+                while (to < buf.length && buf[to] != '\n') to++;
+                Transaction t = Library.readTransaction(r.reset(buf, from, to));
+                t.bindKeys(borrowerIds, materialIds);
+                rows.add(t);
+            }
+            return rows;
+        }
+
+        private static void writeSegment(Path file, List<Transaction> rows, int cutoffDay) throws IOException {
+            int late = 0, minDay = Integer.MAX_VALUE, maxDay = Integer.MIN_VALUE;
+            String minMaterial = null, maxMaterial = null;
+            Map<String, int[]> loans = new LinkedHashMap<>();
+            int borrowerCount = 0;
+            String previous = null;
+            for (Transaction t : rows) {
+                int day = TransactionStore.epochDay(t.getBorrowedDate());
+                minDay = Math.min(minDay, day);
+                maxDay = Math.max(maxDay, day);
+                if (t.getReturnedDate() != null && t.getDueDate() != null && t.getReturnedDate().isAfter(t.getDueDate())) late++;
+                String m = t.getMaterialId();
+                loans.computeIfAbsent(m, k -> new int[1])[0]++;
+                if (minMaterial == null || m.compareTo(minMaterial) < 0) minMaterial = m;
+                if (maxMaterial == null || m.compareTo(maxMaterial) > 0) maxMaterial = m;
+                if (!t.getBorrowerId().equals(previous)) borrowerCount++;
+                previous = t.getBorrowerId();
+            }
+            BloomFilter borrowerFilter = new BloomFilter(borrowerCount), materialFilter = new BloomFilter(loans.size());
+            for (Transaction t : rows) borrowerFilter.add(t.getBorrowerId());
+            for (String m : loans.keySet()) materialFilter.add(m);
+
+            // compress the blocks first: the header carries their offsets. Fastest level:
+            // segments are written while a checkpoint holds the journal, and the default
+            // level takes over twice as long for about a tenth less
+            List<byte[]> blocks = new ArrayList<>();
+            List<String> firsts = new ArrayList<>();
+            java.util.zip.Deflater deflater = new java.util.zip.Deflater(java.util.zip.Deflater.BEST_SPEED);
+            try {
+                for (int from = 0; from < rows.size(); from += BLOCK_ROWS) {
+                    List<Transaction> part = rows.subList(from, Math.min(rows.size(), from + BLOCK_ROWS));
+                    ByteArrayOutputStream packed = new ByteArrayOutputStream();
+                    deflater.reset();
+                    try (RecordCodec.FieldWriter w = new RecordCodec.FieldWriter(
+                            new java.util.zip.DeflaterOutputStream(packed, deflater, 64 << 10))) {
+                        for (Transaction t : part) {
+                            Library.writeTransaction(w, t);
+                            w.endRecord();
+                        }
+                    }
+                    blocks.add(packed.toByteArray());
+                    firsts.add(part.get(0).getBorrowerId());
+                }
+            } finally {
+                deflater.end();
+            }
+
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            DataOutputStream h = new DataOutputStream(headerBytes);
+            h.writeInt(cutoffDay);
+            h.writeInt(rows.size());
+            h.writeInt(late);
+            h.writeInt(minDay);
+            h.writeInt(maxDay);
+            LibrarySnapshot.writeString(h, rows.get(0).getBorrowerId());
+            LibrarySnapshot.writeString(h, rows.get(rows.size() - 1).getBorrowerId());
+            LibrarySnapshot.writeString(h, minMaterial);
+            LibrarySnapshot.writeString(h, maxMaterial);
+            borrowerFilter.write(h);
+            materialFilter.write(h);
+            h.writeInt(loans.size());
+            for (Map.Entry<String, int[]> e : loans.entrySet()) {
+                LibrarySnapshot.writeString(h, e.getKey());
+                h.writeInt(e.getValue()[0]);
+            }
+            // block offsets are absolute; the index entries are fixed-size after their ID,
+            // so the header length is known before the offsets are filled in
+            int indexBytes = 4;
+            for (String first : firsts) indexBytes += 4 + first.getBytes(StandardCharsets.UTF_8).length + 8 + 4 + 8;
+            long offset = 12 + headerBytes.size() + indexBytes + 8;
+            h.writeInt(blocks.size());
+            for (int i = 0; i < blocks.size(); i++) {
+                java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+                crc.update(blocks.get(i));
+                LibrarySnapshot.writeString(h, firsts.get(i));
+                h.writeLong(offset);
+                h.writeInt(blocks.get(i).length);
+                h.writeLong(crc.getValue());
+                offset += blocks.get(i).length;
+            }
+            h.flush();
+            byte[] header = headerBytes.toByteArray();
+            java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+            crc.update(header);
+
+            // written to a temp file and moved into place, like the snapshot
+            Path tmp = Paths.get(file + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp.toFile()), 64 << 10))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(header.length);
+                out.write(header);
+                out.writeLong(crc.getValue());
+                for (byte[] block : blocks) out.write(block);
+            }
+            java.nio.file.Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static Segment readHeader(Path file) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(java.nio.file.Files.newInputStream(file)))) {
+                if (in.readInt() != MAGIC) throw new IOException(file + ": not a segment file");
+                int version = in.readInt();
+                if (version != VERSION) throw new IOException(file + ": unsupported segment version " + version);
+                byte[] header = new byte[in.readInt()];
+                in.readFully(header);
+                java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+                crc.update(header);
+                if (in.readLong() != crc.getValue()) throw new IOException(file + ": header checksum mismatch");
+                return new Segment(file, ByteBuffer.wrap(header));
+            } catch (EOFException | java.nio.BufferUnderflowException | NegativeArraySizeException e) {
+                throw new IOException(file + " truncated", e);
+            }
+        }
+    }
+
+    // -------------------------
+    // Fixed-width binary materials file (materials.dat)
+    //
+    //   header: magic | version | record size | reserved   (4 ints)
+    //   record: status byte | type byte | 2 pad | year | totalCopies | borrowedCopies
+    //           | id | title | author | publisher   (each text: 2-byte length + UTF-8, zero padded)
+    //
+    // Every record has the same size, so a record sits at HEADER + slot * RECORD_SIZE and
+    // borrowedCopies can be rewritten in place. Deleted slots are reused by later inserts.
+    // -------------------------
+    static class MaterialRecordFile {
+        private static final int MAGIC = 0x4C4D4154; // "LMAT"
+        private static final int VERSION = 1;
+        private static final int HEADER_SIZE = 16;
+
+        private static final int ID_WIDTH = 32;
+        private static final int TITLE_WIDTH = 200;
+        private static final int AUTHOR_WIDTH = 100;
+        private static final int PUBLISHER_WIDTH = 100;
+
+        private static final int STATUS_OFFSET = 0;
+        private static final int TYPE_OFFSET = 1;
+        private static final int YEAR_OFFSET = 4;
+        private static final int TOTAL_OFFSET = 8;
+        private static final int BORROWED_OFFSET = 12;
+        private static final int ID_OFFSET = 16;
+        private static final int TITLE_OFFSET = ID_OFFSET + ID_WIDTH;
+        private static final int AUTHOR_OFFSET = TITLE_OFFSET + TITLE_WIDTH;
+        private static final int PUBLISHER_OFFSET = AUTHOR_OFFSET + AUTHOR_WIDTH;
+        static final int RECORD_SIZE = PUBLISHER_OFFSET + PUBLISHER_WIDTH;
+
+        private static final byte LIVE = 1;
+        private static final byte DELETED = 0;
+        private static final String[] TYPE_TAGS = { "BOOK", "JOURNAL", "MAGAZINE", "THESIS" };
+
+        private final String filename;
+        private FileChannel channel;
+        private final Map<String, Long> offsets = new HashMap<>(); // id -> record position
+        private final Deque<Long> freeSlots = new ArrayDeque<>();
+        private long endOfRecords = HEADER_SIZE;
+        private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        private final ByteBuffer counter = ByteBuffer.allocate(4);
+
+        MaterialRecordFile(String filename) {
+            this.filename = filename;
+        }
+
+        // opens (or creates) the file, builds the id -> offset index and returns the live records
+        List<Material> open() throws IOException {
+            close();
+            channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            offsets.clear();
+            freeSlots.clear();
+            List<Material> result = new ArrayList<>();
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(0).flip();
+                channel.write(header, 0);
+                endOfRecords = HEADER_SIZE;
+                return result;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != RECORD_SIZE) {
+                throw new IOException(filename + " is not a version " + VERSION + " materials file");
+            }
+            // one sequential pass over the records
+            ByteBuffer block = ByteBuffer.allocate(RECORD_SIZE * 256);
+            long pos = HEADER_SIZE;
+            long size = channel.size() - (channel.size() - HEADER_SIZE) % RECORD_SIZE; // ignore a torn tail
+            while (pos < size) {
+                block.clear();
+                block.limit((int) Math.min(block.capacity(), size - pos));
+                readFully(block, pos);
+                block.flip();
+                while (block.remaining() >= RECORD_SIZE) {
+                    int start = block.position();
+                    Material m = decode(block, start);
+                    if (m == null) freeSlots.add(pos);
+                    else {
+                        offsets.put(m.getId(), pos);
+                        result.add(m);
+                    }
+                    block.position(start + RECORD_SIZE);
+                    pos += RECORD_SIZE;
+                }
+            }
+            endOfRecords = size;
+            return result;
+        }
+
+        boolean contains(String id) { return offsets.containsKey(id); }
+
+        // writes the whole record, in its existing slot if the ID is known
+        void put(Material m) throws IOException {
+            Long pos = offsets.get(m.getId());
+            if (pos == null) {
+                pos = freeSlots.isEmpty() ? endOfRecords : freeSlots.poll();
+                if (pos == endOfRecords) endOfRecords += RECORD_SIZE;
+            }
+            encode(m);
+            record.flip();
+            writeFully(record, pos);
+            offsets.put(m.getId(), pos);
+        }
+
+        // the hot path: a borrow or return touches four bytes
+        void updateBorrowedCopies(String id, int borrowedCopies) throws IOException {
+            Long pos = offsets.get(id);
+            if (pos == null) throw new IllegalArgumentException("unknown material " + id);
+            counter.clear();
+            counter.putInt(borrowedCopies).flip();
+            writeFully(counter, pos + BORROWED_OFFSET);
+        }
+
+        void remove(String id) throws IOException {
+            Long pos = offsets.remove(id);
+            if (pos == null) return;
+            writeFully(ByteBuffer.wrap(new byte[] { DELETED }), pos + STATUS_OFFSET);
+            freeSlots.add(pos);
+        }
+
+        void close() {
+            if (channel == null) return;
+            try {
+                channel.force(false);
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close " + filename + ": " + e.getMessage());
+            }
+            channel = null;
+        }
+
+        // materials.txt -> materials.dat (replaces the binary file)
+        static void convertTextToBinary(String textFile, String binaryFile) throws IOException {
+            java.nio.file.Files.deleteIfExists(Paths.get(binaryFile));
+            ParallelLineLoader.Result<Material> parsed = ParallelLineLoader.load(textFile,
+                    RecordCodec.parser(textFile, Library::readMaterial));
+            MaterialRecordFile out = new MaterialRecordFile(binaryFile);
+            out.open();
+            long written = 0, rejected = parsed.malformed;
+            try {
+                for (Material m : parsed.rows) {
+                    try {
+                        out.put(m);
+                        written++;
+                    } catch (RuntimeException e) {
+                        rejected++;
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            System.out.println("Converted " + written + " material(s) to " + binaryFile
+                    + (rejected > 0 ? " (" + rejected + " line(s) rejected)" : ""));
+        }
+
+        // materials.dat -> materials.txt (replaces the text file)
+        static void convertBinaryToText(String binaryFile, String textFile) throws IOException {
+            MaterialRecordFile in = new MaterialRecordFile(binaryFile);
+            List<Material> all;
+            try {
+                all = in.open();
+            } finally {
+                in.close();
+            }
+            try (RecordCodec.FieldWriter w = new RecordCodec.FieldWriter(new FileOutputStream(textFile))) {
+                w.formatLine();
+                for (Material m : all) {
+                    Library.writeMaterial(w, m);
+                    w.endRecord();
+                }
+            }
+            System.out.println("Converted " + all.size() + " material(s) to " + textFile);
+        }
+
+        private void encode(Material m) {
+            int type = Arrays.asList(TYPE_TAGS).indexOf(m.getTypeTag());
+            record.clear();
+            record.put(LIVE).put((byte) type).putShort((short) 0)
+                    .putInt(m.getYearPublished()).putInt(m.getTotalCopies()).putInt(m.getBorrowedCopies());
+            byte[] id = m.getId().getBytes(StandardCharsets.UTF_8);
+            if (id.length > ID_WIDTH - 2) throw new IllegalArgumentException("material ID longer than " + (ID_WIDTH - 2) + " bytes: " + m.getId());
+            putText(id, ID_WIDTH);
+            putText(m.getTitle(), TITLE_WIDTH);
+            putText(m.getAuthor() == null ? "" : m.getAuthor(), AUTHOR_WIDTH);
+            putText(m.getPublisher(), PUBLISHER_WIDTH);
+        }
+
+        // null for a deleted slot
+        private static Material decode(ByteBuffer b, int start) {
+            if (b.get(start + STATUS_OFFSET) != LIVE) return null;
+            int type = b.get(start + TYPE_OFFSET);
+            int year = b.getInt(start + YEAR_OFFSET);
+            int total = b.getInt(start + TOTAL_OFFSET);
+            int borrowed = b.getInt(start + BORROWED_OFFSET);
+            String id = getText(b, start + ID_OFFSET);
+            String title = getText(b, start + TITLE_OFFSET);
+            String author = getText(b, start + AUTHOR_OFFSET);
+            String publisher = getText(b, start + PUBLISHER_OFFSET);
+            Material m;
+            switch (type) {
+                case 0: m = new Book(id, title, author, year, publisher, total); break;
+                case 1: m = new Journal(id, title, year, publisher, total); break;
+                case 2: m = new Magazine(id, title, year, publisher, total); break;
+                case 3: m = new ThesisBook(id, title, author, year, publisher, total); break;
+                default: return null;
+            }
+            m.setBorrowedCopies(borrowed);
+            return m;
+        }
+
+        // text longer than its column is cut at a UTF-8 character boundary
+        private void putText(String s, int width) {
+            putText(s.getBytes(StandardCharsets.UTF_8), width);
+        }
+
+        private void putText(byte[] bytes, int width) {
+            int len = Math.min(bytes.length, width - 2);
+            while (len > 0 && len < bytes.length && (bytes[len] & 0xC0) == 0x80) len--;
+            int start = record.position();
+            record.putShort((short) len).put(bytes, 0, len);
+            record.position(start + width);
+        }
+
+        private static String getText(ByteBuffer b, int at) {
+            int len = b.getShort(at);
+            byte[] bytes = new byte[len];
+            for (int i = 0; i < len; i++) bytes[i] = b.get(at + 2 + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private void readFully(ByteBuffer buf, long pos) throws IOException {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, pos + buf.position()) < 0) throw new EOFException(filename);
+            }
+        }
+
+        private void writeFully(ByteBuffer buf, long pos) throws IOException {
+            long at = pos;
+            while (buf.hasRemaining()) at += channel.write(buf, at);
+        }
     }
 
     // -------------------------
     // Domain classes
     // -------------------------
-    static class Borrower {
+
+    // Remembers which fields changed since the last flush and tells its repository
+    static abstract class TrackedRecord {
+        static final int ALL_FIELDS = ~0;
+
+        private int dirtyFields = 0;
+        private volatile Repository<?> owner;
+        private int key = -1; // surrogate key, assigned when first stored in a repository
+
+        void markDirty(int fields) {
+            Repository<?> o = owner;
+            if (o == null) {
+                dirtyFields |= fields;
+                return;
+            }
+            // same monitor as the repository's flush, so a change is never cleared unwritten
+            synchronized (o) {
+                boolean wasClean = dirtyFields == 0;
+                dirtyFields |= fields;
+                if (wasClean) o.onDirty(this);
+            }
+        }
+
+        void setOwner(Repository<?> repository) { owner = repository; }
+        void setKey(int key) { this.key = key; }
+        int getKey() { return key; }
+        void markClean() { dirtyFields = 0; }
+        // true when nothing else is left dirty
+        boolean markClean(int fields) { return (dirtyFields &= ~fields) == 0; }
+        boolean isDirty() { return dirtyFields != 0; }
+        int getDirtyFields() { return dirtyFields; }
+    }
+
+    static class Borrower extends TrackedRecord {
+        // dirty field bit for the strike count (everything else is written as a whole record)
+        static final int VIOLATIONS = 1;
+
         private final String id;
         private String firstName;
         private String middleName;
@@ -747,16 +7142,16 @@ public class LibrarySystem {
         String getAddress() { return address; }
         int getViolations() { return violations; }
 
-        void setFirstName(String s) { firstName = s; }
-        void setMiddleName(String s) { middleName = s; }
-        void setLastName(String s) { lastName = s; }
-        void setGender(String s) { gender = s; }
-        void setBirthday(LocalDate d) { birthday = d; }
-        void setContactNumber(String s) { contactNumber = s; }
-        void setEmail(String s) { email = s; }
-        void setAddress(String s) { address = s; }
-        void setViolations(int v) { violations = v; }
-        void incrementViolations(int v) { violations += v; }
+        void setFirstName(String s) { firstName = s; markDirty(ALL_FIELDS); }
+        void setMiddleName(String s) { middleName = s; markDirty(ALL_FIELDS); }
+        void setLastName(String s) { lastName = s; markDirty(ALL_FIELDS); }
+        void setGender(String s) { gender = s; markDirty(ALL_FIELDS); }
+        void setBirthday(LocalDate d) { birthday = d; markDirty(ALL_FIELDS); }
+        void setContactNumber(String s) { contactNumber = s; markDirty(ALL_FIELDS); }
+        void setEmail(String s) { email = s; markDirty(ALL_FIELDS); }
+        void setAddress(String s) { address = s; markDirty(ALL_FIELDS); }
+        void setViolations(int v) { violations = v; markDirty(VIOLATIONS); }
+        void incrementViolations(int v) { violations += v; markDirty(VIOLATIONS); }
 
         @Override
         public String toString() {
@@ -766,14 +7161,19 @@ public class LibrarySystem {
     }
 
     // Material base class (OOP: inheritance, polymorphism)
-    static abstract class Material {
+    static abstract class Material extends TrackedRecord {
+        // dirty field bit for the borrowed-copies counter (everything else is written as a whole record)
+        static final int BORROWED_COPIES = 1;
+
         private final String id;
         private String title; // name or title
         private String author; // optional
         private int yearPublished;
         private String publisher;
-        private int totalCopies;
-        private int borrowedCopies = 0; // number currently borrowed
+        private volatile int totalCopies;
+        // number currently borrowed; changed by compare-and-set so desks lending the same
+        // title never lose an update and never go past totalCopies
+        private final AtomicInteger borrowedCopies = new AtomicInteger();
 
         Material(String id, String title, String author, int yearPublished, String publisher, int totalCopies) {
             this.id = id;
@@ -790,22 +7190,40 @@ public class LibrarySystem {
         int getYearPublished() { return yearPublished; }
         String getPublisher() { return publisher; }
         int getTotalCopies() { return totalCopies; }
-        int getBorrowedCopies() { return borrowedCopies; }
+        int getBorrowedCopies() { return borrowedCopies.get(); }
 
-        void setTitle(String t) { title = t; }
-        void setAuthor(String a) { author = a; }
-        void setYearPublished(int y) { yearPublished = y; }
-        void setPublisher(String p) { publisher = p; }
-        void setTotalCopies(int c) { totalCopies = Math.max(0, c); }
-        void setBorrowedCopies(int b) { borrowedCopies = Math.max(0, b); }
+        void setTitle(String t) { title = t; markDirty(ALL_FIELDS); }
+        void setAuthor(String a) { author = a; markDirty(ALL_FIELDS); }
+        void setYearPublished(int y) { yearPublished = y; markDirty(ALL_FIELDS); }
+        void setPublisher(String p) { publisher = p; markDirty(ALL_FIELDS); }
+        void setTotalCopies(int c) { totalCopies = Math.max(0, c); markDirty(ALL_FIELDS); }
+        void setBorrowedCopies(int b) { borrowedCopies.set(Math.max(0, b)); markDirty(BORROWED_COPIES); }
+
+        // takes one copy; false at once when all copies are out
+        boolean tryAcquireCopy() {
+            for (;;) {
+                int borrowed = borrowedCopies.get();
+                if (borrowed >= totalCopies) return false;
+                if (borrowedCopies.compareAndSet(borrowed, borrowed + 1)) {
+                    markDirty(BORROWED_COPIES);
+                    return true;
+                }
+            }
+        }
 
-        void incrementBorrowedCopies(int delta) {
-            borrowedCopies += delta;
-            if (borrowedCopies < 0) borrowedCopies = 0;
-            if (borrowedCopies > totalCopies) borrowedCopies = totalCopies;
+        // puts one copy back; false if none was out
+        boolean releaseCopy() {
+            for (;;) {
+                int borrowed = borrowedCopies.get();
+                if (borrowed <= 0) return false;
+                if (borrowedCopies.compareAndSet(borrowed, borrowed - 1)) {
+                    markDirty(BORROWED_COPIES);
+                    return true;
+                }
+            }
         }
 
-        int getAvailableCopies() { return totalCopies - borrowedCopies; }
+        int getAvailableCopies() { return totalCopies - borrowedCopies.get(); }
 
         // each subclass supplies loan days
         abstract int getLoanDays();
@@ -854,8 +7272,10 @@ public class LibrarySystem {
     // Transaction record
     static class Transaction {
         private final String id;
-        private final String borrowerId;
-        private final String materialId;
+        private String borrowerId;
+        private String materialId;
+        private int borrowerKey = -1;
+        private int materialKey = -1;
         private final LocalDate borrowedDate;
         private final LocalDate dueDate;
         private boolean returned;
@@ -874,13 +7294,31 @@ public class LibrarySystem {
         String getId() { return id; }
         String getBorrowerId() { return borrowerId; }
         String getMaterialId() { return materialId; }
+        int getBorrowerKey() { return borrowerKey; }
+        int getMaterialKey() { return materialKey; }
         LocalDate getBorrowedDate() { return borrowedDate; }
         LocalDate getDueDate() { return dueDate; }
         boolean isReturned() { return returned; }
         LocalDate getReturnedDate() { return returnedDate; }
 
+        // only TransactionStore.markReturned calls these, so the store's open-loan indexes stay in step
         void setReturned(boolean r) { returned = r; }
         void setReturnedDate(LocalDate d) { returnedDate = d; }
+
+        // records the surrogate keys and swaps in the dictionaries' ID strings, so a loan
+        // shares one String per borrower/material instead of carrying its own copies
+        void bindKeys(IdDictionary borrowerIds, IdDictionary materialIds) {
+            borrowerKey = borrowerIds.intern(borrowerId);
+            borrowerId = borrowerIds.get(borrowerKey);
+            materialKey = materialIds.intern(materialId);
+            materialId = materialIds.get(materialKey);
+        }
+
+        // for a store that already holds the keys (and passed the dictionaries' ID strings)
+        void bindKeys(int borrowerKey, int materialKey) {
+            this.borrowerKey = borrowerKey;
+            this.materialKey = materialKey;
+        }
     }
 
     // -------------------------
@@ -3,6 +3,7 @@ import java.nio.file.*;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 /**
@@ -24,8 +25,8 @@ import java.util.regex.Pattern;
 
 public class LibrarySystem {
     private static Scanner sc = new Scanner(System.in);
-    private static ArrayList<Borrower> borrowers = new ArrayList<>();
-    private static ArrayList<Material> materials = new ArrayList<>();
+    private static LinkedHashMap<Integer, Borrower> borrowers = new LinkedHashMap<>();
+    private static LinkedHashMap<Integer, Material> materials = new LinkedHashMap<>();
     private static ArrayList<Transaction> transactions = new ArrayList<>();
 
     // Auto ID counters
@@ -111,7 +112,7 @@ public class LibrarySystem {
             return;
         }
 
-        for (Borrower b : borrowers) {
+        for (Borrower b : borrowers.values()) {
             if (b.email.equalsIgnoreCase(email)) {
                 System.out.println("Borrower with that email already exists!");
                 return;
@@ -119,20 +120,19 @@ public class LibrarySystem {
         }
 
         Borrower borrower = new Borrower(first, last, age, email);
-        borrowers.add(borrower);
+        borrowers.put(borrower.borrowerId, borrower);
         System.out.println("Borrower added successfully! ID: " + borrower.borrowerId);
     }
 
     private static void editBorrower() {
         System.out.print("Enter borrower ID to edit: ");
         int id = getIntInput();
-        for (Borrower b : borrowers) {
-            if (b.borrowerId == id) {
-                System.out.print("Enter new email: ");
-                b.email = sc.nextLine();
-                System.out.println("Borrower info updated!");
-                return;
-            }
+        Borrower b = findBorrower(id);
+        if (b != null) {
+            System.out.print("Enter new email: ");
+            b.email = sc.nextLine();
+            System.out.println("Borrower info updated!");
+            return;
         }
         System.out.println("Borrower not found!");
     }
@@ -140,7 +140,7 @@ public class LibrarySystem {
     private static void deleteBorrower() {
         System.out.print("Enter borrower ID to delete: ");
         int id = getIntInput();
-        borrowers.removeIf(b -> b.borrowerId == id);
+        borrowers.remove(id);
         System.out.println("Borrower deleted (if existed).");
     }
 
@@ -149,7 +149,7 @@ public class LibrarySystem {
             System.out.println("No borrowers registered.");
             return;
         }
-        for (Borrower b : borrowers) {
+        for (Borrower b : borrowers.values()) {
             System.out.printf("ID: %d | %s %s | Age: %d | Email: %s | Violations: %d%n",
                     b.borrowerId, b.firstName, b.lastName, b.age, b.email, b.violations);
         }
@@ -191,7 +191,7 @@ public class LibrarySystem {
         System.out.print("Enter number of copies: ");
         int copies = getIntInput();
 
-        for (Material m : materials) {
+        for (Material m : materials.values()) {
             if (m.title.equalsIgnoreCase(title) && m.author.equalsIgnoreCase(author)) {
                 System.out.println("Duplicate material not allowed!");
                 return;
@@ -199,20 +199,19 @@ public class LibrarySystem {
         }
 
         Material material = new Material(title, author, year, publisher, copies);
-        materials.add(material);
+        materials.put(material.materialId, material);
         System.out.println("Material added successfully! ID: " + material.materialId);
     }
 
     private static void editMaterial() {
         System.out.print("Enter material ID to edit: ");
         int id = getIntInput();
-        for (Material m : materials) {
-            if (m.materialId == id) {
-                System.out.print("Enter new number of copies: ");
-                m.copies = getIntInput();
-                System.out.println("Material info updated!");
-                return;
-            }
+        Material m = findMaterial(id);
+        if (m != null) {
+            System.out.print("Enter new number of copies: ");
+            m.copies.set(getIntInput());
+            System.out.println("Material info updated!");
+            return;
         }
         System.out.println("Material not found!");
     }
@@ -220,7 +219,7 @@ public class LibrarySystem {
     private static void deleteMaterial() {
         System.out.print("Enter material ID to delete: ");
         int id = getIntInput();
-        materials.removeIf(m -> m.materialId == id);
+        materials.remove(id);
         System.out.println("Material deleted (if existed).");
     }
 
@@ -229,9 +228,9 @@ public class LibrarySystem {
             System.out.println("No materials in library.");
             return;
         }
-        for (Material m : materials) {
+        for (Material m : materials.values()) {
             System.out.printf("ID: %d | Title: %s | Author: %s | Year: %d | Publisher: %s | Copies: %d%n",
-                    m.materialId, m.title, m.author, m.yearPublished, m.publisher, m.copies);
+                    m.materialId, m.title, m.author, m.yearPublished, m.publisher, m.copies.get());
         }
     }
 
@@ -256,12 +255,11 @@ public class LibrarySystem {
             System.out.println("Material not found!");
             return;
         }
-        if (material.copies <= 0) {
+        if (!material.tryCheckout()) {
             System.out.println("No copies available!");
             return;
         }
 
-        material.copies--;
         transactions.add(new Transaction(bId, mId, LocalDate.now()));
         System.out.println("Material borrowed successfully!");
     }
@@ -277,7 +275,7 @@ public class LibrarySystem {
                 t.returnDate = LocalDate.now();
 
                 Material material = findMaterial(mId);
-                if (material != null) material.copies++;
+                if (material != null) material.checkin();
 
                 long daysBorrowed = Duration.between(t.borrowDate.atStartOfDay(), t.returnDate.atStartOfDay()).toDays();
                 if (daysBorrowed > 7) {
@@ -318,13 +316,11 @@ public class LibrarySystem {
 
     // ---------------- Helper Methods ----------------
     private static Borrower findBorrower(int id) {
-        for (Borrower b : borrowers) if (b.borrowerId == id) return b;
-        return null;
+        return borrowers.get(id);
     }
 
     private static Material findMaterial(int id) {
-        for (Material m : materials) if (m.materialId == id) return m;
-        return null;
+        return materials.get(id);
     }
 
     private static int getIntInput() {
@@ -339,7 +335,7 @@ public class LibrarySystem {
     // ---------------- File Handling ----------------
     private static void saveBorrowers() {
         try (PrintWriter pw = new PrintWriter("borrowers.txt")) {
-            for (Borrower b : borrowers) {
+            for (Borrower b : borrowers.values()) {
                 pw.printf("%d,%s,%s,%d,%s,%d%n", b.borrowerId, b.firstName, b.lastName, b.age, b.email, b.violations);
             }
         } catch (IOException e) {
@@ -353,15 +349,15 @@ public class LibrarySystem {
             for (String line : lines) {
                 String[] p = line.split(",");
                 Borrower b = new Borrower(Integer.parseInt(p[0]), p[1], p[2], Integer.parseInt(p[3]), p[4], Integer.parseInt(p[5]));
-                borrowers.add(b);
+                borrowers.put(b.borrowerId, b);
             }
         } catch (IOException ignored) {}
     }
 
     private static void saveMaterials() {
         try (PrintWriter pw = new PrintWriter("materials.txt")) {
-            for (Material m : materials) {
-                pw.printf("%d,%s,%s,%d,%s,%d%n", m.materialId, m.title, m.author, m.yearPublished, m.publisher, m.copies);
+            for (Material m : materials.values()) {
+                pw.printf("%d,%s,%s,%d,%s,%d%n", m.materialId, m.title, m.author, m.yearPublished, m.publisher, m.copies.get());
             }
         } catch (IOException e) {
             System.out.println("Error saving materials!");
@@ -374,7 +370,7 @@ public class LibrarySystem {
             for (String line : lines) {
                 String[] p = line.split(",");
                 Material m = new Material(Integer.parseInt(p[0]), p[1], p[2], Integer.parseInt(p[3]), p[4], Integer.parseInt(p[5]));
-                materials.add(m);
+                materials.put(m.materialId, m);
             }
         } catch (IOException ignored) {}
     }
@@ -454,7 +450,7 @@ public class LibrarySystem {
         String author;
         int yearPublished;
         String publisher;
-        int copies;
+        final AtomicInteger copies = new AtomicInteger(); // copies on the shelf
 
         Material(String title, String author, int yearPublished, String publisher, int copies) {
             this.materialId = materialIdCounter++;
@@ -462,7 +458,7 @@ public class LibrarySystem {
             this.author = author;
             this.yearPublished = yearPublished;
             this.publisher = publisher;
-            this.copies = copies;
+            this.copies.set(copies);
         }
 
         Material(int id, String title, String author, int yearPublished, String publisher, int copies) {
@@ -471,8 +467,19 @@ public class LibrarySystem {
             this.author = author;
             this.yearPublished = yearPublished;
             this.publisher = publisher;
-            this.copies = copies;
+            this.copies.set(copies);
         }
+
+        // takes one copy off the shelf with a compare-and-set, failing fast when none is left
+        boolean tryCheckout() {
+            for (;;) {
+                int available = copies.get();
+                if (available <= 0) return false;
+                if (copies.compareAndSet(available, available - 1)) return true;
+            }
+        }
+
+        void checkin() { copies.incrementAndGet(); }
     }
 
     static class Transaction {
@@ -5,6 +5,7 @@
 // java.nio.file.* → for file path management (Files, Paths)
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.*;
 import java.time.*;
 import java.nio.file.*;
@@ -29,9 +30,10 @@ import java.nio.file.*;
 
 public class LibrarySystem {
       //MAIN DATA STRUCTURES
-    // These ArrayLists store all records in memory while the program runs.
-    private static ArrayList<Borrower> borrowers = new ArrayList<>();
-    private static ArrayList<Material> materials = new ArrayList<>();
+    // These collections store all records in memory while the program runs.
+    // Borrowers and materials are keyed by ID (insertion order is kept for listing).
+    private static LinkedHashMap<Integer, Borrower> borrowers = new LinkedHashMap<>();
+    private static LinkedHashMap<Integer, Material> materials = new LinkedHashMap<>();
     private static ArrayList<Transaction> transactions = new ArrayList<>();
 
       //AUTO ID GENERATORS 
@@ -125,7 +127,7 @@ public class LibrarySystem {
                 return;
             }
             // Prevent duplicate email registrations
-            for (Borrower b : borrowers) {
+            for (Borrower b : borrowers.values()) {
                 if (b.email.equalsIgnoreCase(email)) {
                     System.out.println("Borrower already registered!");
                     return;
@@ -133,7 +135,7 @@ public class LibrarySystem {
             }
             // Auto ID generation for new borrower
             Borrower borrower = new Borrower(borrowerIdCounter++, first, last, age, email);
-            borrowers.add(borrower);
+            borrowers.put(borrower.borrowerId, borrower);
             saveBorrowers();
             System.out.println("Borrower added successfully!");
 
@@ -146,26 +148,25 @@ public class LibrarySystem {
         System.out.print("Enter borrower ID to edit: ");
         try {
             int id = Integer.parseInt(sc.nextLine());
-            for (Borrower b : borrowers) {
-                if (b.borrowerId == id) {
-                    
-                    System.out.print("Enter new first name: ");
-                    b.firstName = sc.nextLine();
-                    
-                    System.out.print("Enter new last name: ");
-                    b.lastName = sc.nextLine();
-                    
-                    System.out.print("Enter new email: ");
-                    String email = sc.nextLine();
-                    if (!email.contains("@") || !email.contains(".")) {
-                        System.out.println("Invalid email format.");
-                        return;
-                    }
-                    b.email = email;
-                    saveBorrowers();
-                    System.out.println("Email updated successfully!");
+            Borrower b = findBorrower(id);
+            if (b != null) {
+                
+                System.out.print("Enter new first name: ");
+                b.firstName = sc.nextLine();
+                
+                System.out.print("Enter new last name: ");
+                b.lastName = sc.nextLine();
+                
+                System.out.print("Enter new email: ");
+                String email = sc.nextLine();
+                if (!email.contains("@") || !email.contains(".")) {
+                    System.out.println("Invalid email format.");
                     return;
                 }
+                b.email = email;
+                saveBorrowers();
+                System.out.println("Email updated successfully!");
+                return;
             }
             System.out.println("Borrower not found.");
         } catch (NumberFormatException e) {
@@ -177,7 +178,7 @@ public class LibrarySystem {
         System.out.print("Enter borrower ID to delete: ");
         try {
             int id = Integer.parseInt(sc.nextLine());
-            borrowers.removeIf(b -> b.borrowerId == id);
+            borrowers.remove(id);
             saveBorrowers();
             System.out.println("Borrower deleted successfully!");
         } catch (Exception e) {
@@ -191,7 +192,7 @@ public class LibrarySystem {
             return;
         }
         System.out.println("\n--- List of Borrowers ---");
-        for (Borrower b : borrowers) {
+        for (Borrower b : borrowers.values()) {
             System.out.println(b);
         }
     }
@@ -233,7 +234,7 @@ public class LibrarySystem {
             System.out.print("Enter total copies: ");
             int copies = Integer.parseInt(sc.nextLine());
             // Prevent duplicate materials
-            for (Material m : materials) {
+            for (Material m : materials.values()) {
                 if (m.title.equalsIgnoreCase(title)) {
                     System.out.println("Duplicate material not allowed!");
                     return;
@@ -241,7 +242,7 @@ public class LibrarySystem {
             }
             // Auto ID generation for materials
             Material mat = new Material(materialIdCounter++, type, title, author, year, copies);
-            materials.add(mat);
+            materials.put(mat.materialId, mat);
             saveMaterials();
             System.out.println("Material added successfully!");
         } catch (Exception e) {
@@ -253,14 +254,13 @@ public class LibrarySystem {
         System.out.print("Enter material ID to edit: ");
         try {
             int id = Integer.parseInt(sc.nextLine());
-            for (Material m : materials) {
-                if (m.materialId == id) {
-                    System.out.print("Enter new number of copies: ");
-                    m.totalCopies = Integer.parseInt(sc.nextLine());
-                    saveMaterials();
-                    System.out.println("Material updated successfully!");
-                    return;
-                }
+            Material m = findMaterial(id);
+            if (m != null) {
+                System.out.print("Enter new number of copies: ");
+                m.totalCopies.set(Integer.parseInt(sc.nextLine()));
+                saveMaterials();
+                System.out.println("Material updated successfully!");
+                return;
             }
             System.out.println("Material not found.");
         } catch (Exception e) {
@@ -272,7 +272,7 @@ public class LibrarySystem {
         System.out.print("Enter material ID to delete: ");
         try {
             int id = Integer.parseInt(sc.nextLine());
-            materials.removeIf(m -> m.materialId == id);
+            materials.remove(id);
             saveMaterials();
             System.out.println("Material deleted successfully!");
         } catch (Exception e) {
@@ -286,7 +286,7 @@ public class LibrarySystem {
             return;
         }
         System.out.println("\n--- Library Materials ---");
-        for (Material m : materials) {
+        for (Material m : materials.values()) {
             System.out.println(m);
         }
     }
@@ -310,14 +310,13 @@ public class LibrarySystem {
             System.out.print("Enter material ID: ");
             int mid = Integer.parseInt(sc.nextLine());
             Material material = findMaterial(mid);
-            if (material == null || material.totalCopies <= 0) {
+            if (material == null || !material.tryCheckout()) {
                 System.out.println("Material not available.");
                 return;
             }
 
             LocalDate borrowDate = LocalDate.now();
             LocalDate dueDate = borrowDate.plusDays(getReturnDays(material.type));
-            material.totalCopies--;
             transactions.add(new Transaction(bid, mid, borrowDate, dueDate));
             saveMaterials();
             saveTransactions();
@@ -336,7 +335,7 @@ public class LibrarySystem {
                     Material material = findMaterial(t.materialId);
                     LocalDate now = LocalDate.now();
                     t.returned = true;
-                    material.totalCopies++;
+                    material.checkin();
                     // Check if late return
                     if (now.isAfter(t.dueDate)) {
                         Borrower b = findBorrower(bid);
@@ -403,14 +402,16 @@ public class LibrarySystem {
             // Load Borrowers
             for (String line : Files.readAllLines(borrowerPath)) {
                 String[] p = line.split(",");
-                borrowers.add(new Borrower(Integer.parseInt(p[0]), p[1], p[2], Integer.parseInt(p[3]), p[4], Integer.parseInt(p[5])));
+                Borrower b = new Borrower(Integer.parseInt(p[0]), p[1], p[2], Integer.parseInt(p[3]), p[4], Integer.parseInt(p[5]));
+                borrowers.put(b.borrowerId, b);
                 borrowerIdCounter = Math.max(borrowerIdCounter, Integer.parseInt(p[0]) + 1);
             }
 
             // Load Materials
             for (String line : Files.readAllLines(materialPath)) {
                 String[] p = line.split(",");
-                materials.add(new Material(Integer.parseInt(p[0]), p[1], p[2], p[3], Integer.parseInt(p[4]), Integer.parseInt(p[5])));
+                Material m = new Material(Integer.parseInt(p[0]), p[1], p[2], p[3], Integer.parseInt(p[4]), Integer.parseInt(p[5]));
+                materials.put(m.materialId, m);
                 materialIdCounter = Math.max(materialIdCounter, Integer.parseInt(p[0]) + 1);
             }
 
@@ -427,7 +428,7 @@ public class LibrarySystem {
     // Saves borrowers to borrowers.txt
     private static void saveBorrowers() {
         try (PrintWriter pw = new PrintWriter("borrowers.txt")) {
-            for (Borrower b : borrowers)
+            for (Borrower b : borrowers.values())
                 pw.println(b.borrowerId + "," + b.firstName + "," + b.lastName + "," + b.age + "," + b.email + "," + b.violations);
         } catch (Exception e) {
             System.out.println("Error saving borrowers.");
@@ -436,8 +437,8 @@ public class LibrarySystem {
     // Saves materials to materials.txt
     private static void saveMaterials() {
         try (PrintWriter pw = new PrintWriter("materials.txt")) {
-            for (Material m : materials)
-                pw.println(m.materialId + "," + m.type + "," + m.title + "," + m.author + "," + m.year + "," + m.totalCopies);
+            for (Material m : materials.values())
+                pw.println(m.materialId + "," + m.type + "," + m.title + "," + m.author + "," + m.year + "," + m.totalCopies.get());
         } catch (Exception e) {
             System.out.println("Error saving materials.");
         }
@@ -453,13 +454,11 @@ public class LibrarySystem {
     }
     // Finds a borrower by ID
     private static Borrower findBorrower(int id) {
-        for (Borrower b : borrowers) if (b.borrowerId == id) return b;
-        return null;
+        return borrowers.get(id);
     }
     // Finds a material by ID
     private static Material findMaterial(int id) {
-        for (Material m : materials) if (m.materialId == id) return m;
-        return null;
+        return materials.get(id);
     }
     // Finds a material by ID
     private static void exitSystem() {
@@ -489,15 +488,27 @@ class Borrower {
 }
 // Represents a library material 
 class Material {
-    int materialId, year, totalCopies;
+    int materialId, year;
+    final AtomicInteger totalCopies = new AtomicInteger(); // copies on the shelf
     String type, title, author;
 
     Material(int id, String t, String ti, String a, int y, int c) {
-        materialId = id; type = t; title = ti; author = a; year = y; totalCopies = c;
+        materialId = id; type = t; title = ti; author = a; year = y; totalCopies.set(c);
     }
 
+    // Takes one copy with a compare-and-set; false right away when none is left
+    boolean tryCheckout() {
+        for (;;) {
+            int available = totalCopies.get();
+            if (available <= 0) return false;
+            if (totalCopies.compareAndSet(available, available - 1)) return true;
+        }
+    }
+
+    void checkin() { totalCopies.incrementAndGet(); }
+
     public String toString() {
-        return materialId + " | " + type + " | " + title + " | " + author + " | Year: " + year + " | Copies: " + totalCopies;
+        return materialId + " | " + type + " | " + title + " | " + author + " | Year: " + year + " | Copies: " + totalCopies.get();
     }
 }
 
@@ -1,4 +1,5 @@
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.*;
 import java.time.*;
 import java.nio.file.*;
@@ -12,8 +13,8 @@ import java.nio.file.*;
  */
 
 public class LibrarySystem {
-    private static ArrayList<Borrower> borrowers = new ArrayList<>();
-    private static ArrayList<Material> materials = new ArrayList<>();
+    private static LinkedHashMap<Integer, Borrower> borrowers = new LinkedHashMap<>();
+    private static LinkedHashMap<Integer, Material> materials = new LinkedHashMap<>();
     private static ArrayList<Transaction> transactions = new ArrayList<>();
     private static int borrowerIdCounter = 2025000;
     private static int materialIdCounter = 0;
@@ -96,7 +97,7 @@ public class LibrarySystem {
                 return;
             }
 
-            for (Borrower b : borrowers) {
+            for (Borrower b : borrowers.values()) {
                 if (b.getEmail().equalsIgnoreCase(email)) {
                     System.out.println("Borrower already registered!");
                     return;
@@ -104,7 +105,7 @@ public class LibrarySystem {
             }
 
             Borrower borrower = new Borrower(borrowerIdCounter++, first, last, age, email);
-            borrowers.add(borrower);
+            borrowers.put(borrower.getBorrowerId(), borrower);
             saveBorrowers();
             System.out.println("Borrower added successfully!");
 
@@ -118,25 +119,24 @@ public class LibrarySystem {
         System.out.print("Enter borrower ID to edit: ");
         try {
             int id = Integer.parseInt(sc.nextLine());
-            for (Borrower b : borrowers) {
-                if (b.getBorrowerId() == id) {
-                    System.out.print("Enter new first name: ");
-                    b.setFirstName(sc.nextLine());
-
-                    System.out.print("Enter new last name: ");
-                    b.setLastName(sc.nextLine());
-
-                    System.out.print("Enter new email: ");
-                    String email = sc.nextLine();
-                    if (!email.contains("@") || !email.contains(".")) {
-                        System.out.println("Invalid email format.");
-                        return;
-                    }
-                    b.setEmail(email);
-                    saveBorrowers();
-                    System.out.println("Borrower info updated!");
+            Borrower b = findBorrower(id);
+            if (b != null) {
+                System.out.print("Enter new first name: ");
+                b.setFirstName(sc.nextLine());
+
+                System.out.print("Enter new last name: ");
+                b.setLastName(sc.nextLine());
+
+                System.out.print("Enter new email: ");
+                String email = sc.nextLine();
+                if (!email.contains("@") || !email.contains(".")) {
+                    System.out.println("Invalid email format.");
                     return;
                 }
+                b.setEmail(email);
+                saveBorrowers();
+                System.out.println("Borrower info updated!");
+                return;
             }
             System.out.println("Borrower not found.");
         } catch (NumberFormatException e) {
@@ -148,7 +148,7 @@ public class LibrarySystem {
         System.out.print("Enter borrower ID to delete: ");
         try {
             int id = Integer.parseInt(sc.nextLine());
-            borrowers.removeIf(b -> b.getBorrowerId() == id);
+            borrowers.remove(id);
             saveBorrowers();
             System.out.println("Borrower deleted successfully!");
         } catch (Exception e) {
@@ -162,7 +162,7 @@ public class LibrarySystem {
             return;
         }
         System.out.println("\n--- List of Borrowers ---");
-        for (Borrower b : borrowers) {
+        for (Borrower b : borrowers.values()) {
             System.out.println(b);
         }
     }
@@ -203,7 +203,7 @@ public class LibrarySystem {
             System.out.print("Enter total copies: ");
             int copies = Integer.parseInt(sc.nextLine());
 
-            for (Material m : materials) {
+            for (Material m : materials.values()) {
                 if (m.getTitle().equalsIgnoreCase(title) && m.getAuthor().equalsIgnoreCase(author)) {
                     System.out.println("Duplicate material not allowed!");
                     return;
@@ -220,7 +220,7 @@ public class LibrarySystem {
                 mat.setType(type); // ensure type is stored
             }
 
-            materials.add(mat);
+            materials.put(mat.getMaterialId(), mat);
             saveMaterials();
             System.out.println("Material added successfully! ID: " + mat.getMaterialId());
         } catch (Exception e) {
@@ -232,21 +232,20 @@ public class LibrarySystem {
         System.out.print("Enter material ID to edit: ");
         try {
             int id = Integer.parseInt(sc.nextLine());
-            for (Material m : materials) {
-                if (m.getMaterialId() == id) {
-                    
-                    System.out.print("Enter new title/name: ");
-                    String title = sc.nextLine();
-                    System.out.print("Enter new author/publisher: ");
-                    String author = sc.nextLine();
-                    System.out.print("Enter new number of copies: ");
-                    m.setTotalCopies(Integer.parseInt(sc.nextLine()));
-                    m.setTitle(title);
-                    m.setAuthor(author);
-                    saveMaterials();
-                    System.out.println("Material updated successfully!");
-                    return;
-                }
+            Material m = findMaterial(id);
+            if (m != null) {
+                
+                System.out.print("Enter new title/name: ");
+                String title = sc.nextLine();
+                System.out.print("Enter new author/publisher: ");
+                String author = sc.nextLine();
+                System.out.print("Enter new number of copies: ");
+                m.setTotalCopies(Integer.parseInt(sc.nextLine()));
+                m.setTitle(title);
+                m.setAuthor(author);
+                saveMaterials();
+                System.out.println("Material updated successfully!");
+                return;
             }
             System.out.println("Material not found.");
         } catch (Exception e) {
@@ -258,7 +257,7 @@ public class LibrarySystem {
         System.out.print("Enter material ID to delete: ");
         try {
             int id = Integer.parseInt(sc.nextLine());
-            materials.removeIf(m -> m.getMaterialId() == id);
+            materials.remove(id);
             saveMaterials();
             System.out.println("Material deleted successfully!");
         } catch (Exception e) {
@@ -272,7 +271,7 @@ public class LibrarySystem {
             return;
         }
         System.out.println("\n--- Library Materials ---");
-        for (Material m : materials) {
+        for (Material m : materials.values()) {
             System.out.println(m);
         }
     }
@@ -295,7 +294,7 @@ public class LibrarySystem {
             System.out.print("Enter material ID: ");
             int mid = Integer.parseInt(sc.nextLine());
             Material material = findMaterial(mid);
-            if (material == null || material.getTotalCopies() <= 0) {
+            if (material == null || !material.tryCheckout()) {
                 System.out.println("Material not available.");
                 return;
             }
@@ -306,7 +305,6 @@ public class LibrarySystem {
             int days = material.getReturnDays();
             LocalDate dueDate = LocalDate.now().plusDays(days);
 
-            material.setTotalCopies(material.getTotalCopies() - 1);
             // store as LocalDate for compatibility with your previous Transaction design
             transactions.add(new Transaction(bid, mid, LocalDate.now(), dueDate));
             saveMaterials();
@@ -326,7 +324,7 @@ public class LibrarySystem {
                     Material material = findMaterial(t.getMaterialId());
                     LocalDate now = LocalDate.now();
                     t.setReturned(true);
-                    material.setTotalCopies(material.getTotalCopies() + 1);
+                    material.checkin();
                     if (now.isAfter(t.getDueDate())) {
                         Borrower b = findBorrower(bid);
                         b.setViolations(b.getViolations() + 1);
@@ -412,7 +410,8 @@ public class LibrarySystem {
                 if (line.isBlank()) continue;
                 String[] p = line.split(",");
                 // id,first,last,age,email,violations
-                borrowers.add(new Borrower(Integer.parseInt(p[0]), p[1], p[2], Integer.parseInt(p[3]), p[4], Integer.parseInt(p[5])));
+                Borrower b = new Borrower(Integer.parseInt(p[0]), p[1], p[2], Integer.parseInt(p[3]), p[4], Integer.parseInt(p[5]));
+                borrowers.put(b.getBorrowerId(), b);
                 borrowerIdCounter = Math.max(borrowerIdCounter, Integer.parseInt(p[0]) + 1);
             }
 
@@ -434,7 +433,7 @@ public class LibrarySystem {
                     m = new Material(id, type, title, author, year, copies);
                     m.setType(type);
                 }
-                materials.add(m);
+                materials.put(m.getMaterialId(), m);
                 materialIdCounter = Math.max(materialIdCounter, id + 1);
             }
 
@@ -458,7 +457,7 @@ public class LibrarySystem {
 
     private static void saveBorrowers() {
         try (PrintWriter pw = new PrintWriter("borrowers.txt")) {
-            for (Borrower b : borrowers)
+            for (Borrower b : borrowers.values())
                 pw.println(b.getBorrowerId() + "," + b.getFirstName() + "," + b.getLastName() + "," + b.getAge() + "," + b.getEmail() + "," + b.getViolations());
         } catch (Exception e) {
             System.out.println("Error saving borrowers: " + e.getMessage());
@@ -467,7 +466,7 @@ public class LibrarySystem {
 
     private static void saveMaterials() {
         try (PrintWriter pw = new PrintWriter("materials.txt")) {
-            for (Material m : materials)
+            for (Material m : materials.values())
                 pw.println(m.getMaterialId() + "," + m.getType() + "," + m.getTitle() + "," + m.getAuthor() + "," + m.getYear() + "," + m.getTotalCopies());
         } catch (Exception e) {
             System.out.println("Error saving materials: " + e.getMessage());
@@ -484,13 +483,11 @@ public class LibrarySystem {
     }
 
     private static Borrower findBorrower(int id) {
-        for (Borrower b : borrowers) if (b.getBorrowerId() == id) return b;
-        return null;
+        return borrowers.get(id);
     }
 
     private static Material findMaterial(int id) {
-        for (Material m : materials) if (m.getMaterialId() == id) return m;
-        return null;
+        return materials.get(id);
     }
 
     private static void exitSystem() {
@@ -540,11 +537,12 @@ class Borrower {
 
 // ====================== MATERIAL CLASS ======================
 class Material {
-    private int materialId, year, totalCopies;
+    private int materialId, year;
+    private final AtomicInteger totalCopies = new AtomicInteger(); // copies on the shelf
     private String type, title, author;
 
     Material(int id, String t, String ti, String a, int y, int c) {
-        materialId = id; type = t; title = ti; author = a; year = y; totalCopies = c;
+        materialId = id; type = t; title = ti; author = a; year = y; totalCopies.set(c);
     }
 
     public int getMaterialId() { return materialId; }
@@ -562,8 +560,17 @@ class Material {
     public int getYear() { return year; }
     public void setYear(int year) { this.year = year; }
 
-    public int getTotalCopies() { return totalCopies; }
-    public void setTotalCopies(int totalCopies) { this.totalCopies = totalCopies; }
+    public int getTotalCopies() { return totalCopies.get(); }
+    public void setTotalCopies(int totalCopies) { this.totalCopies.set(totalCopies); }
+
+    // Compare-and-set checkout: takes one copy, or fails fast when none is left
+    public boolean tryCheckout() {
+        for (int available = totalCopies.get(); available > 0; available = totalCopies.get()) {
+            if (totalCopies.compareAndSet(available, available - 1)) return true;
+        }
+        return false;
+    }
+    public void checkin() { totalCopies.incrementAndGet(); }
 
     // Polymorphism entrypoint: subclasses can override
     public int getReturnDays() {
@@ -577,7 +584,7 @@ class Material {
     }
 
     public String toString() {
-        return materialId + " | " + type + " | " + title + " | " + author + " | " + year + " | Copies: " + totalCopies;
+        return materialId + " | " + type + " | " + title + " | " + author + " | " + year + " | Copies: " + totalCopies.get();
     }
 }
 
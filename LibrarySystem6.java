@@ -1,5 +1,6 @@
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.*;
 import java.time.*;
 
@@ -12,8 +13,8 @@ import java.time.*;
 
 
 public class LibrarySystem {
-    private static ArrayList<Borrower> borrowers = new ArrayList<>();
-    private static ArrayList<Material> materials = new ArrayList<>();
+    private static LinkedHashMap<Integer, Borrower> borrowers = new LinkedHashMap<>();
+    private static LinkedHashMap<Integer, Material> materials = new LinkedHashMap<>();
     private static ArrayList<Transaction> transactions = new ArrayList<>();
     private static int borrowerIdCounter = 2025000;
     private static int materialIdCounter = 0;
@@ -104,7 +105,7 @@ public class LibrarySystem {
             System.out.print("Enter address: ");
             String address = sc.nextLine();
 
-            for (Borrower b : borrowers) {
+            for (Borrower b : borrowers.values()) {
                 if (b.getEmail().equalsIgnoreCase(email)) {
                     System.out.println("Borrower already registered!");
                     return;
@@ -112,7 +113,7 @@ public class LibrarySystem {
             }
 
             Borrower borrower = new Borrower(borrowerIdCounter++, first, middle, last, age, gender, birthday, contact, email, address);
-            borrowers.add(borrower);
+            borrowers.put(borrower.getBorrowerId(), borrower);
             saveBorrowers();
             System.out.println("Borrower added successfully!");
 
@@ -125,20 +126,19 @@ public class LibrarySystem {
         System.out.print("Enter borrower ID to edit: ");
         try {
             int id = Integer.parseInt(sc.nextLine());
-            for (Borrower b : borrowers) {
-                if (b.getBorrowerId() == id) {
-                    System.out.print("Enter new first name: "); b.setFirstName(sc.nextLine());
-                    System.out.print("Enter new middle name: "); b.setMiddleName(sc.nextLine());
-                    System.out.print("Enter new last name: "); b.setLastName(sc.nextLine());
-                    System.out.print("Enter new gender (M/F): "); b.setGender(sc.nextLine());
-                    System.out.print("Enter new birthday (YYYY-MM-DD): "); b.setBirthday(sc.nextLine());
-                    System.out.print("Enter new contact number: "); b.setContactNumber(sc.nextLine());
-                    System.out.print("Enter new email: "); b.setEmail(sc.nextLine());
-                    System.out.print("Enter new address: "); b.setAddress(sc.nextLine());
-                    saveBorrowers();
-                    System.out.println("Borrower info updated!");
-                    return;
-                }
+            Borrower b = findBorrower(id);
+            if (b != null) {
+                System.out.print("Enter new first name: "); b.setFirstName(sc.nextLine());
+                System.out.print("Enter new middle name: "); b.setMiddleName(sc.nextLine());
+                System.out.print("Enter new last name: "); b.setLastName(sc.nextLine());
+                System.out.print("Enter new gender (M/F): "); b.setGender(sc.nextLine());
+                System.out.print("Enter new birthday (YYYY-MM-DD): "); b.setBirthday(sc.nextLine());
+                System.out.print("Enter new contact number: "); b.setContactNumber(sc.nextLine());
+                System.out.print("Enter new email: "); b.setEmail(sc.nextLine());
+                System.out.print("Enter new address: "); b.setAddress(sc.nextLine());
+                saveBorrowers();
+                System.out.println("Borrower info updated!");
+                return;
             }
             System.out.println("Borrower not found.");
         } catch (NumberFormatException e) {
@@ -150,7 +150,7 @@ public class LibrarySystem {
         System.out.print("Enter borrower ID to delete: ");
         try {
             int id = Integer.parseInt(sc.nextLine());
-            borrowers.removeIf(b -> b.getBorrowerId() == id);
+            borrowers.remove(id);
             saveBorrowers();
             System.out.println("Borrower deleted successfully!");
         } catch (Exception e) {
@@ -161,7 +161,7 @@ public class LibrarySystem {
     private static void viewBorrowers() {
         if (borrowers.isEmpty()) { System.out.println("No borrowers found."); return; }
         System.out.println("\n--- List of Borrowers ---");
-        for (Borrower b : borrowers) System.out.println(b);
+        for (Borrower b : borrowers.values()) System.out.println(b);
     }
 
     // ====================== ASSET MANAGEMENT ======================
@@ -208,7 +208,7 @@ public class LibrarySystem {
         };
 
         if (m != null) {
-            materials.add(m);
+            materials.put(m.getMaterialId(), m);
             saveMaterials();
             System.out.println("Material added!");
         } else System.out.println("Invalid type.");
@@ -218,16 +218,15 @@ public class LibrarySystem {
         System.out.print("Enter material ID to edit: ");
         try {
             int id = Integer.parseInt(sc.nextLine());
-            for (Material m : materials) {
-                if (m.getMaterialId() == id) {
-                    System.out.print("Enter new title/name: "); m.setTitle(sc.nextLine());
-                    System.out.print("Enter new author/publisher: "); m.setAuthor(sc.nextLine());
-                    System.out.print("Enter new year published: "); m.setYearPublished(Integer.parseInt(sc.nextLine()));
-                    System.out.print("Enter new total copies: "); m.setTotalCopies(Integer.parseInt(sc.nextLine()));
-                    saveMaterials();
-                    System.out.println("Material updated!");
-                    return;
-                }
+            Material m = findMaterial(id);
+            if (m != null) {
+                System.out.print("Enter new title/name: "); m.setTitle(sc.nextLine());
+                System.out.print("Enter new author/publisher: "); m.setAuthor(sc.nextLine());
+                System.out.print("Enter new year published: "); m.setYearPublished(Integer.parseInt(sc.nextLine()));
+                System.out.print("Enter new total copies: "); m.setTotalCopies(Integer.parseInt(sc.nextLine()));
+                saveMaterials();
+                System.out.println("Material updated!");
+                return;
             }
             System.out.println("Material not found.");
         } catch (Exception e) { System.out.println("Invalid input."); }
@@ -237,7 +236,7 @@ public class LibrarySystem {
         System.out.print("Enter material ID to delete: ");
         try {
             int id = Integer.parseInt(sc.nextLine());
-            materials.removeIf(m -> m.getMaterialId() == id);
+            materials.remove(id);
             saveMaterials();
             System.out.println("Material deleted.");
         } catch (Exception e) { System.out.println("Error deleting material."); }
@@ -246,7 +245,7 @@ public class LibrarySystem {
     private static void viewMaterials() {
         if (materials.isEmpty()) { System.out.println("No materials found."); return; }
         System.out.println("\n--- Library Materials ---");
-        for (Material m : materials) System.out.println(m);
+        for (Material m : materials.values()) System.out.println(m);
     }
 
     // ====================== BORROW & RETURN ======================
@@ -265,10 +264,9 @@ public class LibrarySystem {
 
             System.out.print("Enter material ID: "); int mid = Integer.parseInt(sc.nextLine());
             Material material = findMaterial(mid);
-            if (material == null || material.getTotalCopies() <= 0) { System.out.println("Material unavailable."); return; }
+            if (material == null || !material.tryCheckout()) { System.out.println("Material unavailable."); return; }
 
             LocalDate dueDate = LocalDate.now().plusDays(material.getReturnDays());
-            material.setTotalCopies(material.getTotalCopies() - 1);
             transactions.add(new Transaction(bid, mid, LocalDate.now(), dueDate));
             saveMaterials();
             saveTransactions();
@@ -284,7 +282,7 @@ public class LibrarySystem {
             for (Transaction t : transactions) {
                 if (t.getBorrowerId() == bid && !t.isReturned()) {
                     Material m = findMaterial(t.getMaterialId());
-                    m.setTotalCopies(m.getTotalCopies() + 1);
+                    m.checkin();
                     if (LocalDate.now().isAfter(t.getDueDate())) {
                         findBorrower(bid).setViolations(findBorrower(bid).getViolations() + 1);
                         System.out.println("Late return! Strike added.");
@@ -327,7 +325,7 @@ public class LibrarySystem {
     // ====================== FILE I/O ======================
     private static void saveBorrowers() {
         try (PrintWriter pw = new PrintWriter("borrowers.txt")) {
-            for (Borrower b : borrowers) {
+            for (Borrower b : borrowers.values()) {
                 pw.println(b.getBorrowerId() + "," + b.getFirstName() + "," + b.getMiddleName() + "," +
                         b.getLastName() + "," + b.getAge() + "," + b.getGender() + "," + b.getBirthday() +
                         "," + b.getContactNumber() + "," + b.getEmail() + "," + b.getAddress() + "," + b.getViolations());
@@ -337,7 +335,7 @@ public class LibrarySystem {
 
     private static void saveMaterials() {
         try (PrintWriter pw = new PrintWriter("materials.txt")) {
-            for (Material m : materials) {
+            for (Material m : materials.values()) {
                 pw.println(m.getMaterialId() + "," + m.getType() + "," + m.getTitle() + "," + m.getAuthor() + "," + m.getYearPublished() + "," + m.getTotalCopies());
             }
         } catch (Exception e) { System.out.println("Error saving materials: " + e.getMessage()); }
@@ -359,9 +357,10 @@ public class LibrarySystem {
                 Scanner s = new Scanner(f);
                 while (s.hasNextLine()) {
                     String[] data = s.nextLine().split(",");
-                    borrowers.add(new Borrower(Integer.parseInt(data[0]), data[1], data[2], data[3],
+                    Borrower b = new Borrower(Integer.parseInt(data[0]), data[1], data[2], data[3],
                             Integer.parseInt(data[4]), data[5], data[6], data[7], data[8], data[9],
-                            Integer.parseInt(data[10])));
+                            Integer.parseInt(data[10]));
+                    borrowers.put(b.getBorrowerId(), b);
                     borrowerIdCounter = Math.max(borrowerIdCounter, Integer.parseInt(data[0]) + 1);
                 }
                 s.close();
@@ -382,7 +381,7 @@ public class LibrarySystem {
                         case "ThesisBook" -> new ThesisBook(Integer.parseInt(data[0]), data[2], data[3], Integer.parseInt(data[4]), Integer.parseInt(data[5]));
                         default -> null;
                     };
-                    if (m != null) materials.add(m);
+                    if (m != null) materials.put(m.getMaterialId(), m);
                     materialIdCounter = Math.max(materialIdCounter, Integer.parseInt(data[0]) + 1);
                 }
                 s.close();
@@ -413,8 +412,8 @@ public class LibrarySystem {
     }
 
     // ====================== HELPERS ======================
-    private static Borrower findBorrower(int id) { return borrowers.stream().filter(b -> b.getBorrowerId() == id).findFirst().orElse(null); }
-    private static Material findMaterial(int id) { return materials.stream().filter(m -> m.getMaterialId() == id).findFirst().orElse(null); }
+    private static Borrower findBorrower(int id) { return borrowers.get(id); }
+    private static Material findMaterial(int id) { return materials.get(id); }
 }
 
 // ====================== BORROWER CLASS ======================
@@ -465,10 +464,11 @@ class Borrower {
 
 // ====================== MATERIAL CLASSES ======================
 abstract class Material {
-    private int materialId, yearPublished, totalCopies;
+    private int materialId, yearPublished;
+    private final AtomicInteger totalCopies = new AtomicInteger(); // copies on the shelf
     private String title, author;
     public Material(int id, String t, String a, int year, int copies) {
-        materialId = id; title = t; author = a; yearPublished = year; totalCopies = copies;
+        materialId = id; title = t; author = a; yearPublished = year; totalCopies.set(copies);
     }
     public int getMaterialId() { return materialId; }
     public String getTitle() { return title; }
@@ -477,11 +477,19 @@ abstract class Material {
     public void setAuthor(String author) { this.author = author; }
     public int getYearPublished() { return yearPublished; }
     public void setYearPublished(int year) { yearPublished = year; }
-    public int getTotalCopies() { return totalCopies; }
-    public void setTotalCopies(int copies) { totalCopies = copies; }
+    public int getTotalCopies() { return totalCopies.get(); }
+    public void setTotalCopies(int copies) { totalCopies.set(copies); }
+    // compare-and-set checkout: takes one copy, or fails fast when none is left
+    public boolean tryCheckout() {
+        for (int available = totalCopies.get(); available > 0; available = totalCopies.get()) {
+            if (totalCopies.compareAndSet(available, available - 1)) return true;
+        }
+        return false;
+    }
+    public void checkin() { totalCopies.incrementAndGet(); }
     public abstract String getType();
     public abstract int getReturnDays();
-    public String toString() { return materialId + " | " + getType() + " | " + title + " | " + author + " | Year: " + yearPublished + " | Copies: " + totalCopies; }
+    public String toString() { return materialId + " | " + getType() + " | " + title + " | " + author + " | Year: " + yearPublished + " | Copies: " + totalCopies.get(); }
 }
 
 class Book extends Material { public Book(int id, String t, String a, int year, int copies) { super(id, t, a, year, copies); } public String getType() { return "Book"; } public int getReturnDays() { return 7; } }
@@ -0,0 +1,65 @@
+package library;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * BenchmarkMain.java
+ *
+ * Entry point of benchmarks.jar: org.openjdk.jmh.Main with two defaults.
+ *
+ *  - -prof gc (allocation per op, GC counts) is added unless another -prof is given.
+ *  - Library reads and writes borrowers.txt etc. in the working directory, so the run is
+ *    relaunched in a fresh scratch directory (removed afterwards); the JMH forks inherit
+ *    it. -o and -rff paths are resolved against the original directory first.
+ *
+ * Usage:
+ *  java -jar benchmarks/target/benchmarks.jar                         everything
+ *  java -jar benchmarks/target/benchmarks.jar Lookup -p transactions=10000 -p store=columnar
+ *  java -jar benchmarks/target/benchmarks.jar -l                      list the benchmarks
+ */
+public class BenchmarkMain {
+    static final String DIR_PROPERTY = "library.bench.dir";
+
+    public static void main(String[] args) throws Exception {
+        List<String> jmh = new ArrayList<>(Arrays.asList(args));
+        if (!jmh.contains("-prof")) jmh.addAll(Arrays.asList("-prof", "gc"));
+        if (System.getProperty(DIR_PROPERTY) != null) {
+            org.openjdk.jmh.Main.main(jmh.toArray(new String[0]));
+            return;
+        }
+        for (int i = 0; i + 1 < jmh.size(); i++) {
+            if (jmh.get(i).equals("-o") || jmh.get(i).equals("-rff")) {
+                jmh.set(i + 1, Paths.get(jmh.get(i + 1)).toAbsolutePath().toString());
+            }
+        }
+        System.exit(relaunch(jmh));
+    }
+
+    private static int relaunch(List<String> jmh) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("library-bench-");
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        cmd.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        cmd.add("-D" + DIR_PROPERTY + "=" + dir.toAbsolutePath());
+        StringBuilder classPath = new StringBuilder();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (classPath.length() > 0) classPath.append(File.pathSeparator);
+            classPath.append(new File(entry).getAbsolutePath());
+        }
+        cmd.addAll(Arrays.asList("-cp", classPath.toString(), BenchmarkMain.class.getName()));
+        cmd.addAll(jmh);
+        try {
+            return new ProcessBuilder(cmd).directory(dir.toFile()).inheritIO().start().waitFor();
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+}
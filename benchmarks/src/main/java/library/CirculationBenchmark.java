@@ -0,0 +1,52 @@
+package library;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * CirculationBenchmark.java
+ *
+ * Borrow + return logic at scale, with persistence off (otherwise every loan would
+ * rewrite transactions.txt). Every loan adds a row, so an iteration is a fixed batch:
+ * one op is 50,000 borrow + return pairs by borrowers free to borrow.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = CirculationBenchmark.BATCH)
+@Measurement(iterations = 5, batchSize = CirculationBenchmark.BATCH)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class CirculationBenchmark {
+    static final int BATCH = 50_000;
+
+    @Param({ "10000", "1000000", "20000000" })
+    public int transactions;
+
+    @Param({ "object", "columnar" })
+    public String store;
+
+    private LibrarySystem.Library lib;
+    private String[] borrowers, materials;
+    private LocalDate today;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        EngineData data = EngineData.generate(transactions);
+        borrowers = data.freeBorrowers();
+        materials = data.materialSample;
+        today = data.config.end;
+        lib = EngineData.load(store);
+        lib.disablePersistence();
+    }
+
+    @Benchmark
+    public Object borrowReturn() throws IOException {
+        int i = next++;
+        String borrower = borrowers[i % borrowers.length];
+        lib.borrow(borrower, materials[i & (EngineData.SAMPLES - 1)], today);
+        return lib.returnLoan(borrower, today);
+    }
+}
@@ -0,0 +1,117 @@
+package library;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * CodecBenchmark.java
+ *
+ * RecordCodec vs. the split/LocalDate.parse/printf path LibrarySystem used before it,
+ * decoding and encoding 100,000 transactions.txt lines; scores are per line.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    static final int ROWS = 100_000;
+    private static final DateTimeFormatter DATE_FMT = DateTimeFormatter.ISO_LOCAL_DATE;
+
+    private List<LibrarySystem.Transaction> txs;
+    private byte[] file;
+    private String[] lines;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        txs = sampleTransactions(ROWS, 42);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try (LibrarySystem.RecordCodec.FieldWriter w = new LibrarySystem.RecordCodec.FieldWriter(encoded)) {
+            for (LibrarySystem.Transaction t : txs) {
+                LibrarySystem.Library.writeTransaction(w, t);
+                w.endRecord();
+            }
+        }
+        file = encoded.toByteArray();
+        lines = new String(file, StandardCharsets.UTF_8).split("\n");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long decodeSplit() {
+        long sum = 0;
+        for (String line : lines) sum += legacyParse(line.trim()).getDueDate().getDayOfMonth();
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long decodeCodec() {
+        LibrarySystem.RecordCodec.FieldReader in = new LibrarySystem.RecordCodec.FieldReader();
+        long sum = 0;
+        int start = 0;
+        for (int i = 0; i < file.length; i++) {
+            if (file[i] != '\n') continue;
+            sum += LibrarySystem.Library.readTransaction(in.reset(file, start, i)).getDueDate().getDayOfMonth();
+            start = i + 1;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public boolean encodePrintf() {
+        PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(OutputStream.nullOutputStream())));
+        for (LibrarySystem.Transaction t : txs) legacyWrite(pw, t);
+        pw.flush();
+        return pw.checkError();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void encodeCodec() throws IOException {
+        try (LibrarySystem.RecordCodec.FieldWriter w =
+                     new LibrarySystem.RecordCodec.FieldWriter(OutputStream.nullOutputStream())) {
+            for (LibrarySystem.Transaction t : txs) {
+                LibrarySystem.Library.writeTransaction(w, t);
+                w.endRecord();
+            }
+        }
+    }
+
+    // the line parser LibrarySystem used before RecordCodec
+    private static LibrarySystem.Transaction legacyParse(String line) {
+        String[] parts = line.split("\\|", -1);
+        LocalDate returnedDate = parts[6].isBlank() ? null : LocalDate.parse(parts[6]);
+        return new LibrarySystem.Transaction(parts[0], parts[1], parts[2], LocalDate.parse(parts[3]),
+                LocalDate.parse(parts[4]), Boolean.parseBoolean(parts[5]), returnedDate);
+    }
+
+    // the line writer LibrarySystem used before RecordCodec
+    private static void legacyWrite(PrintWriter pw, LibrarySystem.Transaction t) {
+        pw.printf("%s|%s|%s|%s|%s|%b|%s%n",
+                t.getId(), t.getBorrowerId(), t.getMaterialId(),
+                t.getBorrowedDate().format(DATE_FMT), t.getDueDate().format(DATE_FMT),
+                t.isReturned(), t.getReturnedDate() == null ? "" : t.getReturnedDate().format(DATE_FMT));
+    }
+
+    private static List<LibrarySystem.Transaction> sampleTransactions(int n, long seed) {
+        Random rnd = new Random(seed);
+        LocalDate epoch = LocalDate.of(2015, 1, 1);
+        List<LibrarySystem.Transaction> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            LocalDate borrowed = epoch.plusDays(rnd.nextInt(3650));
+            boolean returned = rnd.nextInt(10) != 0;
+            out.add(new LibrarySystem.Transaction(new UUID(rnd.nextLong(), rnd.nextLong()).toString(),
+                    "B" + rnd.nextInt(50_000), "M" + rnd.nextInt(200_000), borrowed, borrowed.plusDays(7),
+                    returned, returned ? borrowed.plusDays(rnd.nextInt(14)) : null));
+        }
+        return out;
+    }
+}
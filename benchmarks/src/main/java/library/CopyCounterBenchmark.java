@@ -0,0 +1,64 @@
+package library;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * CopyCounterBenchmark.java
+ *
+ * One hot title: every thread checks a copy out and back in. Material's CAS counter vs.
+ * the same bounded read-modify-write behind one lock (what a per-title monitor costs).
+ * With copies=3 most attempts fail fast. 64 threads by default; -t 1 or -t 8 for the
+ * uncontended and moderate cases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(64)
+public class CopyCounterBenchmark {
+    @Param({ "1000000", "3" })
+    public int copies;
+
+    private LibrarySystem.Material material;
+    private LockedCounter locked;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        material = new LibrarySystem.Book("M1", "Dune", "Herbert", 1965, "Chilton", copies);
+        locked = new LockedCounter(copies);
+    }
+
+    @Benchmark
+    public boolean cas() {
+        if (!material.tryAcquireCopy()) return false;
+        material.releaseCopy();
+        return true;
+    }
+
+    @Benchmark
+    public boolean locked() {
+        if (!locked.tryAcquire()) return false;
+        locked.release();
+        return true;
+    }
+
+    private static final class LockedCounter {
+        private final int total;
+        private int borrowed;
+
+        LockedCounter(int total) { this.total = total; }
+
+        synchronized boolean tryAcquire() {
+            if (borrowed >= total) return false;
+            borrowed++;
+            return true;
+        }
+
+        synchronized void release() {
+            if (borrowed > 0) borrowed--;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package library;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * EngineData.java
+ *
+ * The seeded dataset behind the engine benchmarks (Lookup, Circulation, Save, Load):
+ * LibraryDataGenerator data of the given number of transactions, written into the working
+ * directory, where Library reads and writes its files. The same size always gives the
+ * same library. Borrowers and materials grow with the transaction count (1 per 20 and
+ * 1 per 40, capped at 1M and 500k) and every title has 1,000 copies, so borrowing never
+ * runs out.
+ *
+ *  -p store=object|columnar              transaction store (columnar: --columnar-transactions)
+ *  -jvmArgsAppend -Dengine.metrics=true  operation metrics on (to measure their cost)
+ *
+ * 20M transactions take about 6 GB of heap with the columnar store; the engine
+ * benchmarks fork with -Xmx8g.
+ */
+final class EngineData {
+    static final int SAMPLES = 1024; // random picks, so lookups do not all hit the same cache lines
+
+    final LibraryDataGenerator.Config config = new LibraryDataGenerator.Config();
+    final LibraryDataGenerator.Result result;
+    final String[] borrowerSample = new String[SAMPLES], materialSample = new String[SAMPLES];
+
+    private EngineData(int transactions) throws IOException {
+        config.seed = 42L + transactions;
+        config.transactions = transactions;
+        config.borrowers = Math.max(1_000, Math.min(transactions / 20, 1_000_000));
+        config.materials = Math.max(500, Math.min(transactions / 40, 500_000));
+        config.minCopies = config.maxCopies = 1_000;
+        result = LibraryDataGenerator.generate(config, Paths.get("."));
+        Random rnd = new Random(7);
+        for (int i = 0; i < SAMPLES; i++) {
+            borrowerSample[i] = LibraryDataGenerator.borrowerId(rnd.nextInt(result.borrowers));
+            materialSample[i] = LibraryDataGenerator.materialId(rnd.nextInt(result.materials));
+        }
+    }
+
+    // empties the working directory (files of the previous trial) and writes the dataset
+    static EngineData generate(int transactions) throws IOException {
+        Path dir = Paths.get("").toAbsolutePath();
+        String scratch = System.getProperty(BenchmarkMain.DIR_PROPERTY);
+        if (scratch == null || !dir.equals(Paths.get(scratch).toAbsolutePath())) {
+            throw new IllegalStateException("engine benchmarks overwrite the library files in the working "
+                    + "directory; run them through BenchmarkMain (java -jar benchmarks.jar)");
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).filter(p -> !p.equals(dir)).forEach(p -> p.toFile().delete());
+        }
+        return new EngineData(transactions);
+    }
+
+    // the borrowers without an open loan and below 3 strikes
+    String[] freeBorrowers() {
+        return result.canBorrow.stream().mapToObj(LibraryDataGenerator::borrowerId).toArray(String[]::new);
+    }
+
+    static LibrarySystem.Library load(String store) {
+        return quietly(() -> {
+            LibrarySystem.Library lib = new LibrarySystem.Library();
+            if (store.equals("columnar")) lib.enableColumnarTransactions();
+            else if (!store.equals("object")) throw new IllegalArgumentException("store must be object or columnar");
+            if (Boolean.getBoolean("engine.metrics")) lib.enableMetrics();
+            try {
+                lib.loadAll();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return lib;
+        });
+    }
+
+    // runs body with System.out discarded (loadAll and checkpoint report their progress there)
+    static <T> T quietly(Supplier<T> body) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            return body.get();
+        } finally {
+            System.setOut(out);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package library;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * LoadBenchmark.java
+ *
+ * loadAll() into a fresh Library per call, from the text files or from library.snap
+ * (written by one checkpoint in the setup).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class LoadBenchmark {
+    @Param({ "10000", "1000000", "20000000" })
+    public int transactions;
+
+    @Param({ "object", "columnar" })
+    public String store;
+
+    @Param({ "text", "snapshot" })
+    public String source;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        EngineData.generate(transactions);
+        if (source.equals("snapshot")) {
+            LibrarySystem.Library lib = EngineData.load(store);
+            EngineData.quietly(() -> { lib.checkpoint(); return null; });
+        }
+    }
+
+    @Benchmark
+    public Object loadAll() {
+        return EngineData.load(store);
+    }
+}
@@ -0,0 +1,57 @@
+package library;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * LookupBenchmark.java
+ *
+ * Library reads at scale: ID lookups and both history views, each against one of 1024
+ * randomly picked borrowers or materials per call (see EngineData).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class LookupBenchmark {
+    @Param({ "10000", "1000000", "20000000" })
+    public int transactions;
+
+    @Param({ "object", "columnar" })
+    public String store;
+
+    private LibrarySystem.Library lib;
+    private String[] borrowers, materials;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        EngineData data = EngineData.generate(transactions);
+        borrowers = data.borrowerSample;
+        materials = data.materialSample;
+        lib = EngineData.load(store);
+    }
+
+    @Benchmark
+    public Object findBorrowerById() {
+        return lib.findBorrowerById(borrowers[next++ & (EngineData.SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    public Object findMaterialById() {
+        return lib.findMaterialById(materials[next++ & (EngineData.SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    public int borrowerHistory() {
+        return lib.borrowerHistory(lib.findBorrowerById(borrowers[next++ & (EngineData.SAMPLES - 1)])).size();
+    }
+
+    @Benchmark
+    public int materialHistory() {
+        return lib.materialHistory(lib.findMaterialById(materials[next++ & (EngineData.SAMPLES - 1)])).size();
+    }
+}
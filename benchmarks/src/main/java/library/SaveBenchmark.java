@@ -0,0 +1,47 @@
+package library;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * SaveBenchmark.java
+ *
+ * The three whole-file writes (borrowers.txt, materials.txt, transactions.txt) at scale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class SaveBenchmark {
+    @Param({ "10000", "1000000", "20000000" })
+    public int transactions;
+
+    @Param({ "object", "columnar" })
+    public String store;
+
+    private LibrarySystem.Library lib;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        EngineData.generate(transactions);
+        lib = EngineData.load(store);
+    }
+
+    @Benchmark
+    public void saveBorrowers() {
+        lib.saveBorrowers();
+    }
+
+    @Benchmark
+    public void saveMaterials() {
+        lib.saveMaterials();
+    }
+
+    @Benchmark
+    public void saveTransactions() {
+        lib.saveTransactions();
+    }
+}
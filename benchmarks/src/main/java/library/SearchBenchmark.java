@@ -0,0 +1,94 @@
+package library;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * SearchBenchmark.java
+ *
+ * Material search over a 2M-title synthetic catalogue: ranked MaterialSearchIndex
+ * queries (top 20) vs. a lowercase contains() scan of every title, which is what finding
+ * a title amounted to before the index. The index takes about 1 GB of heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SearchBenchmark {
+    static final int TITLES = 2_000_000;
+
+    private String[] titles, vocabulary;
+    private LibrarySystem.MaterialSearchIndex index;
+    private String rare, common, mid;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random rnd = new Random(17);
+        // skewed vocabulary: low word numbers are far more frequent, like real titles
+        vocabulary = new String[20_000];
+        for (int i = 0; i < vocabulary.length; i++) vocabulary[i] = syllables(rnd, 2 + rnd.nextInt(3));
+        String[] surnames = new String[5_000];
+        for (int i = 0; i < surnames.length; i++) surnames[i] = syllables(rnd, 2 + rnd.nextInt(2));
+        String[] publishers = new String[200];
+        for (int i = 0; i < publishers.length; i++) publishers[i] = syllables(rnd, 3) + " Press";
+
+        titles = new String[TITLES];
+        index = new LibrarySystem.MaterialSearchIndex();
+        for (int key = 0; key < TITLES; key++) {
+            StringBuilder title = new StringBuilder();
+            for (int w = 2 + rnd.nextInt(4); w > 0; w--) {
+                if (title.length() > 0) title.append(' ');
+                title.append(vocabulary[(int) (vocabulary.length * Math.pow(rnd.nextDouble(), 3))]);
+            }
+            titles[key] = title.toString();
+            index.add(key, titles[key], surnames[rnd.nextInt(surnames.length)], publishers[rnd.nextInt(publishers.length)]);
+        }
+        rare = vocabulary[vocabulary.length - 1];
+        common = vocabulary[0];
+        mid = vocabulary[40];
+    }
+
+    @Benchmark
+    public Object termRare() {
+        return index.search(rare, 20);
+    }
+
+    @Benchmark
+    public Object termCommon() {
+        return index.search(common, 20);
+    }
+
+    @Benchmark
+    public Object and() {
+        return index.search(mid + " " + vocabulary[200], 20);
+    }
+
+    @Benchmark
+    public Object or() {
+        return index.search(mid + " OR " + vocabulary[200], 20);
+    }
+
+    @Benchmark
+    public Object prefix() {
+        return index.search(mid.substring(0, 3) + "*", 20);
+    }
+
+    @Benchmark
+    public List<String> scan() {
+        List<String> found = new ArrayList<>();
+        for (String t : titles) {
+            if (t.toLowerCase().contains(rare) && found.size() < 20) found.add(t);
+        }
+        return found;
+    }
+
+    private static String syllables(Random rnd, int count) {
+        String[] parts = { "ka", "lo", "mi", "ren", "tha", "vor", "el", "dun", "sa", "bri", "gor", "an", "ste", "qui", "zu" };
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < count; i++) s.append(parts[rnd.nextInt(parts.length)]);
+        return s.toString();
+    }
+}
@@ -0,0 +1,95 @@
+package library;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * ValidationBenchmark.java
+ *
+ * Field validation over 10,000 values (about 10% invalid): Pattern.matches per call (the
+ * previous Library.validate*) vs. the single-pass Validators, and the same rows as one
+ * batch through Validators.validateAll. Scores are per value (per row for the batch).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+    static final int N = 10_000;
+
+    private final String[] names = new String[N], emails = new String[N], phones = new String[N];
+    private List<String[]> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random rnd = new Random(7);
+        String[][] rows = new String[N][];
+        for (int i = 0; i < N; i++) {
+            boolean bad = rnd.nextInt(10) == 0;
+            names[i] = bad ? "Jo3 Smith" : (i % 2 == 0 ? "Mary-Ann O'Neil" : "Alexander");
+            emails[i] = bad ? "user" + i + "@@campus" : "user." + i + "@campus.example.edu";
+            phones[i] = bad ? "555-01" + i : Long.toString(6_300_000_000L + i);
+            rows[i] = new String[] { "B" + i, names[i], "", "Smith", i % 2 == 0 ? "F" : "M",
+                    "1990-01-" + (10 + i % 18), phones[i], emails[i], i + " Main St" };
+        }
+        batch = Arrays.asList(rows);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int nameRegex() {
+        int ok = 0;
+        for (String s : names) if (Pattern.matches("[A-Za-z\\s\\-']+", s.trim())) ok++;
+        return ok;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int nameCompiled() {
+        int ok = 0;
+        for (String s : names) if (LibrarySystem.Validators.name(s)) ok++;
+        return ok;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int emailRegex() {
+        int ok = 0;
+        for (String s : emails) if (Pattern.matches("^[A-Za-z0-9+_.-]+@[A-Za-z0-9.-]+$", s.trim())) ok++;
+        return ok;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int emailCompiled() {
+        int ok = 0;
+        for (String s : emails) if (LibrarySystem.Validators.email(s)) ok++;
+        return ok;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int phoneRegex() {
+        int ok = 0;
+        for (String s : phones) if (Pattern.matches("\\d{7,15}", s.trim())) ok++;
+        return ok;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int phoneCompiled() {
+        int ok = 0;
+        for (String s : phones) if (LibrarySystem.Validators.phone(s)) ok++;
+        return ok;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int validateAll() {
+        return LibrarySystem.Validators.validateAll(batch, LibrarySystem.Validators.BORROWER_ROW).size();
+    }
+}